@@ -0,0 +1,62 @@
+package informe;
+
+import prestamo.DTOPrestamo;
+import prestamo.PrestamoStore;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the counting behind the loan reports, run without a database: {@link ConteoTask} per book and per
+ * user over a store of synthetic loans, sequential and parallel, against a boxed groupingBy stream. It lives
+ * in this package because the task is package-private.
+ * <p>
+ * Run with {@code java -Xmx2g -cp <clases>:<bench> informe.MedirInformes [prestamos]}; 10M loans of 1M books and
+ * 100k users by default. Each of the four rounds is printed, the first ones include the JIT warm-up.
+ */
+public class MedirInformes {
+    private static final int LIBROS = 1_000_000;
+    private static final int USUARIOS = 100_000;
+
+    /**
+     * The entry point of the measurement.
+     *
+     * @param args the number of loans
+     */
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.err.println("Uso: MedirInformes [prestamos]");
+            System.exit(2);
+        }
+        int prestamos = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Random random = new Random(3);
+        PrestamoStore store = new PrestamoStore();
+        LocalDate primerDia = LocalDate.of(2015, 1, 1);
+        for (int id = 1; id <= prestamos; id++) { // Ten years of loans, the books skewed towards the first ids
+            LocalDate inicio = primerDia.plusDays(id * 3650L / prestamos);
+            int libroId = 1 + (int) Math.abs(random.nextGaussian() * 200_000) % LIBROS;
+            store.put(new DTOPrestamo(id, inicio, inicio.plusDays(15), 1 + random.nextInt(USUARIOS), libroId, 0));
+        }
+        System.out.printf("%d prestamos, %d nucleos, paralelismo %d%n", store.size(),
+                Runtime.getRuntime().availableProcessors(), ForkJoinPool.getCommonPoolParallelism());
+        for (int ronda = 0; ronda < 4; ronda++) {
+            for (boolean paralelo : new boolean[]{false, true}) {
+                long inicio = System.nanoTime();
+                ConteoTask.count(store, store::getLibroId, LIBROS + 1, paralelo);
+                long libros = System.nanoTime();
+                ConteoTask.count(store, store::getUsuarioId, USUARIOS + 1, paralelo);
+                long usuarios = System.nanoTime();
+                System.out.printf("%-10s por libro %6.1f ms, por usuario %6.1f ms%n", paralelo ? "paralelo" : "secuencial",
+                        (libros - inicio) / 1e6, (usuarios - libros) / 1e6);
+            }
+            long inicio = System.nanoTime();
+            Map<Integer, Long> porLibro = IntStream.range(0, store.rowCount()).boxed()
+                    .collect(Collectors.groupingBy(store::getLibroId, Collectors.counting()));
+            System.out.printf("groupingBy por libro %6.1f ms (%d libros)%n", (System.nanoTime() - inicio) / 1e6, porLibro.size());
+        }
+    }
+}
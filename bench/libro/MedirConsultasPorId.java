@@ -0,0 +1,93 @@
+package libro;
+
+import exception.ServiceException;
+import libro_autor.LibroAutorService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the cost of a lookup by id that misses, run without a database: an exception with its stack
+ * trace (how not found was reported before), the stackless exception of findLibroById and the Optional of
+ * lookupLibro. The lookups run many frames deep, as they do behind the forms, because filling the stack
+ * trace costs more the deeper the caller. The service is built from a list, so no query is made.
+ * <p>
+ * The tree has no build tool to bring in JMH, so this is a plain loop: every way runs four rounds of 1M lookups
+ * and only the last one is printed, once the JIT has compiled the loop. Half of the ids do not exist.
+ * <p>
+ * Run with {@code java -cp <clases>:<bench> libro.MedirConsultasPorId}.
+ */
+public class MedirConsultasPorId {
+    private static final int LIBROS = 100_000;
+    private static final int CONSULTAS = 1_000_000;
+    private static final int PROFUNDIDAD = 60;
+    private static final String[] MODOS = {"con stack trace (antes)", "sin stack trace", "Optional"};
+
+    private static LibroService libroService;
+    private static int sumidero; // Keeps the messages read, so the exceptions are not optimized away
+
+    /**
+     * The entry point of the measurement.
+     *
+     * @param args not used
+     */
+    public static void main(String[] args) throws ServiceException {
+        List<DTOLibro> libros = new ArrayList<>();
+        for (int id = 1; id <= LIBROS; id++) {
+            libros.add(new DTOLibro(id, "Titulo " + id, null, 0));
+        }
+        libroService = new LibroService(new LibroAutorService(new ArrayList<>()), libros);
+        for (int ronda = 0; ronda < 4; ronda++) {
+            for (int modo = 0; modo < MODOS.length; modo++) {
+                long inicio = System.nanoTime();
+                int encontrados = deep(PROFUNDIDAD, modo);
+                long nanos = System.nanoTime() - inicio;
+                if (ronda == 3) {
+                    System.out.printf("%-24s %7.1f ns/consulta (%d de %d encontrados)%n",
+                            MODOS[modo], (double) nanos / CONSULTAS, encontrados, CONSULTAS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the lookups below a number of extra stack frames.
+     *
+     * @param profundidad the frames left to add
+     * @param modo        the index of the way to look up, in {@link #MODOS}
+     * @return the number of books found
+     */
+    private static int deep(int profundidad, int modo) throws ServiceException {
+        return profundidad == 0 ? lookup(modo) : deep(profundidad - 1, modo) + 0;
+    }
+
+    /**
+     * Looks up ids of which about half do not exist.
+     *
+     * @param modo the index of the way to look up, in {@link #MODOS}
+     * @return the number of books found
+     */
+    private static int lookup(int modo) throws ServiceException {
+        int encontrados = 0;
+        for (int i = 0; i < CONSULTAS; i++) {
+            int id = (int) ((long) i * 7919 % (2 * LIBROS)) + 1;
+            if (modo == 2) {
+                if (libroService.lookupLibro(id).isPresent()) {
+                    encontrados++;
+                }
+                continue;
+            }
+            try {
+                if (modo == 0) {
+                    libroService.lookupLibro(id).orElseThrow(() -> new ServiceException("Libro no encontrado"));
+                } else {
+                    libroService.findLibroById(id);
+                }
+                encontrados++;
+            } catch (ServiceException e) {
+                sumidero += e.getMessage().length();
+            }
+        }
+        return encontrados;
+    }
+}
@@ -0,0 +1,217 @@
+package prestamo;
+
+import exception.ServiceException;
+import libro.DTOLibro;
+import libro.LibroService;
+import libro_autor.LibroAutorService;
+import usuario.DTOUsuario;
+import usuario.UsuarioService;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stress check of the book reservations of {@link PrestamoService}, run without a database. The real
+ * createPrestamo and updatePrestamo are called from 1, 8 and 64 threads on a service whose DAO is a stub that
+ * parks for the insert or update latency, giving the processor to other requests as a blocked database write
+ * does. Every loan starts today and lasts the same days, so at most one loan per book may end up in the store;
+ * any other is a double booking and the check exits with 1.
+ * <p>
+ * Each run first makes 20,000 createPrestamo calls over the first half of the books, then 20,000
+ * updatePrestamo calls moving those loans onto the second half. It lives in this package because the service
+ * takes the stub through a package-private constructor.
+ * <p>
+ * Run with {@code java -cp <clases>:<bench> prestamo.ComprobarReservas [libros] [latencia en microsegundos]}.
+ */
+public class ComprobarReservas {
+    private static final int SOLICITUDES = 20_000;
+    private static final int USUARIOS = 100;
+    private static final int[] HILOS = {1, 8, 64};
+
+    /**
+     * DAO that keeps nothing and waits for the latency of a database write.
+     */
+    private static class DAOPrestamoStub extends DAOPrestamo {
+        private final AtomicInteger ids = new AtomicInteger();
+        private final int latencia;
+
+        /**
+         * Instantiates the stub.
+         *
+         * @param latencia the latency of each write in microseconds
+         */
+        DAOPrestamoStub(int latencia) {
+            this.latencia = latencia;
+        }
+
+        /**
+         * Simulates the insert and generates the ID.
+         *
+         * @param prestamo the loan
+         * @return the loan with its ID
+         */
+        @Override
+        public DTOPrestamo create(DTOPrestamo prestamo) {
+            block(latencia);
+            return prestamo.withId(ids.incrementAndGet());
+        }
+
+        /**
+         * Simulates the update and increments the version.
+         *
+         * @param prestamo the loan with its new data
+         * @return the loan with its new version
+         */
+        @Override
+        public DTOPrestamo update(DTOPrestamo prestamo) {
+            block(latencia);
+            return prestamo.withVersion(prestamo.version() + 1);
+        }
+
+        /**
+         * No loan was archived.
+         *
+         * @return null
+         */
+        @Override
+        public LocalDate readHistoricoMaxFechaFin() {
+            return null;
+        }
+    }
+
+    /**
+     * The entry point of the check.
+     *
+     * @param args the number of books (1000 by default) and the simulated write latency in microseconds
+     *             (50 by default)
+     */
+    public static void main(String[] args) throws ServiceException, InterruptedException {
+        if (args.length > 2) {
+            System.err.println("Uso: ComprobarReservas [libros] [latencia]");
+            System.exit(2);
+        }
+        int libros = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int latencia = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int dobles = 0;
+        for (int hilos : HILOS) {
+            dobles += run(libros, latencia, hilos);
+        }
+        if (dobles > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the creations and the updates with a number of threads and prints the throughput and the double
+     * bookings.
+     *
+     * @param libros   the number of books of each half
+     * @param latencia the simulated write latency in microseconds
+     * @param hilos    the number of threads
+     * @return the number of double bookings
+     */
+    private static int run(int libros, int latencia, int hilos) throws ServiceException, InterruptedException {
+        List<DTOLibro> catalogo = new ArrayList<>();
+        for (int id = 1; id <= 2 * libros; id++) {
+            catalogo.add(new DTOLibro(id, "Libro " + id, null, 0));
+        }
+        List<DTOUsuario> usuarios = new ArrayList<>();
+        for (int id = 1; id <= USUARIOS; id++) {
+            usuarios.add(new DTOUsuario(id, "Usuario " + id, 0));
+        }
+        LibroService libroService = new LibroService(new LibroAutorService(new ArrayList<>()), catalogo);
+        PrestamoService prestamoService = new PrestamoService(libroService, new UsuarioService(usuarios),
+                consumer -> { }, new DAOPrestamoStub(latencia));
+        LocalDate fin = LocalDate.now().plusDays(15);
+
+        AtomicInteger creados = new AtomicInteger();
+        double creacion = race(hilos, solicitud -> {
+            prestamoService.createPrestamo(solicitud % USUARIOS + 1, solicitud % libros + 1);
+            creados.incrementAndGet();
+        });
+        int prestamos = creados.get();
+        AtomicInteger movidos = new AtomicInteger();
+        double actualizacion = race(hilos, solicitud -> {
+            int id = solicitud % prestamos + 1; // IDs are generated from 1
+            prestamoService.updatePrestamo(id, fin, solicitud % USUARIOS + 1, libros + solicitud % libros + 1);
+            movidos.incrementAndGet();
+        });
+
+        int dobles = 0;
+        try (PrestamoSnapshot snapshot = prestamoService.openSnapshot()) {
+            PrestamoStore store = snapshot.getStore();
+            int[] porLibro = new int[2 * libros + 1];
+            for (int row = 0; row < store.rowCount(); row++) {
+                if (store.isLive(row) && ++porLibro[store.getLibroId(row)] > 1) {
+                    dobles++;
+                }
+            }
+        }
+        System.out.printf("hilos=%2d  crear %,9.0f solicitudes/s (%d creados)  actualizar %,9.0f solicitudes/s (%d movidos)"
+                + "  dobles reservas=%d%n", hilos, creacion, prestamos, actualizacion, movidos.get(), dobles);
+        return dobles;
+    }
+
+    /**
+     * A request of the check, numbered from 0; a ServiceException means it was rejected.
+     */
+    private interface Solicitud {
+        /**
+         * Makes the request.
+         *
+         * @param solicitud the number of the request
+         * @throws ServiceException if the request is rejected
+         */
+        void run(int solicitud) throws ServiceException;
+    }
+
+    /**
+     * Makes every request from a number of threads started at once.
+     *
+     * @param hilos     the number of threads
+     * @param solicitud the request
+     * @return the requests made per second
+     */
+    private static double race(int hilos, Solicitud solicitud) throws InterruptedException {
+        AtomicInteger siguiente = new AtomicInteger();
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < hilos; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    salida.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int numero;
+                while ((numero = siguiente.getAndIncrement()) < SOLICITUDES) {
+                    try {
+                        solicitud.run(numero);
+                    } catch (ServiceException e) {
+                        // Rejected: the book is taken those days
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        long inicio = System.nanoTime();
+        salida.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return SOLICITUDES / ((System.nanoTime() - inicio) / 1e9);
+    }
+
+    /**
+     * Parks the thread for a while, so a reservation stays open as long as a real database write.
+     *
+     * @param latencia the time in microseconds
+     */
+    private static void block(int latencia) {
+        LockSupport.parkNanos(latencia * 1000L);
+    }
+}
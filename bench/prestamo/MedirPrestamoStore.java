@@ -0,0 +1,92 @@
+package prestamo;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap taken by the loans, and a scan of their book ids, in the columnar {@link PrestamoStore}
+ * against a list of {@link DTOPrestamo}, run without a database. Only one of them is built per run, so the
+ * heap used after a full collection belongs to it alone.
+ * <p>
+ * Run with {@code java -Xmx2g -cp <clases>:<bench> prestamo.MedirPrestamoStore store|lista [prestamos]}; 10M loans by default.
+ */
+public class MedirPrestamoStore {
+    private static final LocalDate PRIMER_DIA = LocalDate.of(2020, 1, 1);
+
+    /**
+     * The entry point of the measurement.
+     *
+     * @param args store or lista, and the number of loans
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2 || !args[0].equals("store") && !args[0].equals("lista")) {
+            System.err.println("Uso: MedirPrestamoStore store|lista [prestamos]");
+            System.exit(2);
+        }
+        int prestamos = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        long base = usedHeap();
+        if (args[0].equals("store")) {
+            PrestamoStore store = new PrestamoStore();
+            for (int id = 1; id <= prestamos; id++) {
+                store.put(prestamo(id));
+            }
+            store.trimToSize();
+            long usado = usedHeap() - base;
+            System.out.printf("store: %d MB, %.1f B/prestamo, footprintBytes()=%d MB%n",
+                    usado >> 20, (double) usado / prestamos, store.footprintBytes() >> 20);
+            long inicio = System.nanoTime();
+            int encontrados = 0;
+            for (int row = 0; row < store.rowCount(); row++) {
+                if (store.getLibroId(row) == 777 && store.isLive(row)) {
+                    encontrados++;
+                }
+            }
+            System.out.printf("recorrido por libroId: %d ms (%d)%n", (System.nanoTime() - inicio) / 1_000_000, encontrados);
+        } else {
+            List<DTOPrestamo> lista = new ArrayList<>();
+            for (int id = 1; id <= prestamos; id++) {
+                lista.add(prestamo(id));
+            }
+            long usado = usedHeap() - base;
+            System.out.printf("lista: %d MB, %.1f B/prestamo%n", usado >> 20, (double) usado / prestamos);
+            long inicio = System.nanoTime();
+            int encontrados = 0;
+            for (DTOPrestamo prestamo : lista) {
+                if (prestamo.libroId() == 777) {
+                    encontrados++;
+                }
+            }
+            System.out.printf("recorrido por libroId: %d ms (%d)%n", (System.nanoTime() - inicio) / 1_000_000, encontrados);
+        }
+    }
+
+    /**
+     * Builds a synthetic loan of 15 days over 50,000 users and 200,000 books.
+     *
+     * @param id the loan id
+     * @return the loan
+     */
+    private static DTOPrestamo prestamo(int id) {
+        LocalDate inicio = PRIMER_DIA.plusDays(id % 1500);
+        return new DTOPrestamo(id, inicio, inicio.plusDays(15), id % 50_000, id % 200_000, 0);
+    }
+
+    /**
+     * Gets the heap in use after collecting the garbage.
+     *
+     * @return the bytes in use
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,101 @@
+package search;
+
+import java.util.Random;
+
+/**
+ * Measures the typo-tolerant search of {@link TrigramIndex} against a scan of every text by Levenshtein
+ * distance, run without a database. The names are built from only 20 first names and 30 surnames, a worst
+ * case for the index because every trigram is common. Each query prints the time and the best match of both.
+ * <p>
+ * Run with {@code java -cp <clases>:<bench> search.MedirBusquedaSimilar [nombres]}; 1M names by default.
+ */
+public class MedirBusquedaSimilar {
+    private static final String[] NOMBRES = {"Gabriel", "Julio", "Isabel", "Mario", "Jorge", "Luis", "Carmen", "Ana",
+            "María", "Pablo", "Miguel", "Rosa", "Elena", "Javier", "Lucía", "Federico", "Rubén", "Octavio", "Laura", "Antonio"};
+    private static final String[] APELLIDOS = {"García Márquez", "Cortázar", "Allende", "Vargas Llosa", "Borges",
+            "Cernuda", "Martín Gaite", "Matute", "Zambrano", "Neruda", "de Cervantes", "Darío", "Paz", "Esquivel", "Lorca",
+            "Machado", "Pérez Galdós", "Pardo Bazán", "Sánchez", "Fernández", "Rodríguez", "López", "Gómez", "Díaz",
+            "Moreno", "Álvarez", "Romero", "Navarro", "Torres", "Ramírez"};
+    private static final String[] CONSULTAS = {"Garcia Marques", "Cortazar", "Julio Cortazar", "Gabriel Garcia Marques"};
+    private static final int REPETICIONES = 50;
+
+    /**
+     * The entry point of the measurement.
+     *
+     * @param args the number of names
+     */
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.err.println("Uso: MedirBusquedaSimilar [nombres]");
+            System.exit(2);
+        }
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(3);
+        String[] textos = new String[total + 1];
+        TrigramIndex index = new TrigramIndex(0.3);
+        long inicio = System.nanoTime();
+        for (int id = 1; id <= total; id++) {
+            textos[id] = NOMBRES[random.nextInt(NOMBRES.length)] + " " + APELLIDOS[random.nextInt(APELLIDOS.length)]
+                    + " " + APELLIDOS[random.nextInt(APELLIDOS.length)] + " " + Integer.toString(random.nextInt(1_000_000), 36);
+            index.put(id, textos[id]);
+        }
+        textos[1] = "Gabriel García Márquez"; // The exact names looked for, so both searches have a clear best match
+        index.put(1, textos[1]);
+        textos[2] = "Julio Cortázar";
+        index.put(2, textos[2]);
+        System.out.printf("indice: %d nombres en %d ms%n", total, (System.nanoTime() - inicio) / 1_000_000);
+
+        for (String consulta : CONSULTAS) {
+            int[] resultado = index.search(consulta, 5);
+            for (int i = 0; i < REPETICIONES; i++) { // Warm-up
+                index.search(consulta, 5);
+            }
+            inicio = System.nanoTime();
+            for (int i = 0; i < REPETICIONES; i++) {
+                index.search(consulta, 5);
+            }
+            double trigramas = (System.nanoTime() - inicio) / 1e6 / REPETICIONES;
+
+            String normalizada = TextNormalizer.normalize(consulta);
+            inicio = System.nanoTime();
+            int mejor = 1;
+            int mejorDistancia = Integer.MAX_VALUE;
+            for (int id = 1; id <= total; id++) {
+                int distancia = levenshtein(normalizada, TextNormalizer.normalize(textos[id]));
+                if (distancia < mejorDistancia) {
+                    mejorDistancia = distancia;
+                    mejor = id;
+                }
+            }
+            double recorrido = (System.nanoTime() - inicio) / 1e6;
+            System.out.printf("%-24s trigramas %6.1f ms (%s) | levenshtein %6.0f ms (%s)%n", '"' + consulta + '"',
+                    trigramas, resultado.length > 0 ? textos[resultado[0]] : "-", recorrido, textos[mejor]);
+        }
+    }
+
+    /**
+     * Computes the edit distance between two texts with two rows of the dynamic programming table.
+     *
+     * @param a the first text
+     * @param b the second text
+     * @return the number of insertions, deletions and substitutions turning a into b
+     */
+    private static int levenshtein(String a, String b) {
+        int[] anterior = new int[b.length() + 1];
+        int[] actual = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            anterior[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            actual[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int sustitucion = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                actual[j] = Math.min(Math.min(actual[j - 1] + 1, anterior[j] + 1), anterior[j - 1] + sustitucion);
+            }
+            int[] fila = anterior;
+            anterior = actual;
+            actual = fila;
+        }
+        return anterior[b.length()];
+    }
+}
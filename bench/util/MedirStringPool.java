@@ -0,0 +1,94 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap kept by the titles and names read from the database with and without {@link StringPool},
+ * run without a database. Every value is a fresh copy, as the JDBC driver returns it: 1M user names from
+ * skewed picks of first names and surnames, 1M book titles from 400k works and 200k author names, a tenth
+ * of them shared. Only one mode is run per process, so the heap used after a full collection is its own.
+ * <p>
+ * Run with {@code java -Xmx1g -cp <clases>:<bench> util.MedirStringPool pool|sin-pool}.
+ */
+public class MedirStringPool {
+
+    /**
+     * The entry point of the measurement.
+     *
+     * @param args pool or sin-pool
+     */
+    public static void main(String[] args) {
+        if (args.length != 1 || !args[0].equals("pool") && !args[0].equals("sin-pool")) {
+            System.err.println("Uso: MedirStringPool pool|sin-pool");
+            System.exit(2);
+        }
+        boolean conPool = args[0].equals("pool");
+        Random random = new Random(7);
+        String[] nombres = new String[300];
+        String[] apellidos = new String[400];
+        for (int i = 0; i < nombres.length; i++) {
+            nombres[i] = "Nombre" + i;
+        }
+        for (int i = 0; i < apellidos.length; i++) {
+            apellidos[i] = "Apellido" + i;
+        }
+        StringPool pool = new StringPool(1 << 20);
+        long base = usedHeap();
+        long inicio = System.nanoTime();
+        List<String> valores = new ArrayList<>(2_200_000);
+        for (int i = 0; i < 1_000_000; i++) {
+            valores.add(read(nombres[skewed(random, 300)] + " " + apellidos[skewed(random, 400)], conPool, pool));
+        }
+        for (int i = 0; i < 1_000_000; i++) {
+            valores.add(read("Obra titulada número " + skewed(random, 400_000), conPool, pool));
+        }
+        for (int i = 0; i < 200_000; i++) {
+            int autor = random.nextInt(10) == 0 ? random.nextInt(2000) : 10_000 + i;
+            valores.add(read("Autor " + autor, conPool, pool));
+        }
+        long ms = (System.nanoTime() - inicio) / 1_000_000;
+        long usado = usedHeap() - base;
+        System.out.printf("%s: %d MB para %d valores (%d distintos) en %d ms%n", args[0], usado >> 20, valores.size(),
+                conPool ? pool.size() : new HashSet<>(valores).size(), ms);
+    }
+
+    /**
+     * Copies a value, as a row read from the database does, and pools it if asked to.
+     *
+     * @param valor   the value
+     * @param conPool whether the copy is pooled
+     * @param pool    the pool
+     * @return the value kept
+     */
+    private static String read(String valor, boolean conPool, StringPool pool) {
+        String copia = new String(valor.toCharArray());
+        return conPool ? pool.intern(copia) : copia;
+    }
+
+    /**
+     * Picks an index with a skewed distribution, so the first ones repeat most, as frequent names do.
+     *
+     * @param random the random generator
+     * @param n      the number of indexes
+     * @return an index from 0 to n - 1
+     */
+    private static int skewed(Random random, int n) {
+        return (int) (Math.pow(random.nextDouble(), 3) * n);
+    }
+
+    /**
+     * Gets the heap in use after collecting the garbage.
+     *
+     * @return the bytes in use
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -5,20 +5,23 @@ USE Biblioteca;
 -- Crear tabla Usuario
 CREATE TABLE IF NOT EXISTS Usuario (
     id INT PRIMARY KEY AUTO_INCREMENT,
-    nombre VARCHAR(100) NOT NULL
+    nombre VARCHAR(100) NOT NULL,
+    version INT NOT NULL DEFAULT 0
 );
 
 -- Crear tabla Autor
 CREATE TABLE IF NOT EXISTS Autor (
     id INT PRIMARY KEY AUTO_INCREMENT,
-    nombre VARCHAR(100) NOT NULL
+    nombre VARCHAR(100) NOT NULL,
+    version INT NOT NULL DEFAULT 0
 );
 
 -- Crear tabla Libro
 CREATE TABLE IF NOT EXISTS Libro (
     id INT PRIMARY KEY AUTO_INCREMENT,
     titulo VARCHAR(100) NOT NULL,
-    isbn VARCHAR(20) NOT NULL
+    isbn VARCHAR(20) NOT NULL,
+    version INT NOT NULL DEFAULT 0
 );
 
 -- Crear tabla Prestamo
@@ -28,10 +31,29 @@ CREATE TABLE IF NOT EXISTS Prestamo (
     fechaFin DATE NOT NULL,
     usuarioId INT NOT NULL,
     libroId INT NOT NULL,
+    version INT NOT NULL DEFAULT 0,
     FOREIGN KEY (usuarioId) REFERENCES Usuario(id) ON DELETE CASCADE,
     FOREIGN KEY (libroId) REFERENCES Libro(id) ON DELETE CASCADE
 );
 
+-- Crear índices para las consultas de préstamos por rango de fechas
+CREATE INDEX IF NOT EXISTS Prestamo_fechaInicio ON Prestamo (fechaInicio);
+CREATE INDEX IF NOT EXISTS Prestamo_fechaFin ON Prestamo (fechaFin);
+
+-- Crear tabla Prestamo_Historico (préstamos terminados hace tiempo, archivados fuera de la tabla Prestamo)
+CREATE TABLE IF NOT EXISTS Prestamo_Historico (
+    id INT PRIMARY KEY,
+    fechaInicio DATE NOT NULL,
+    fechaFin DATE NOT NULL,
+    usuarioId INT NOT NULL,
+    libroId INT NOT NULL,
+    version INT NOT NULL DEFAULT 0,
+    FOREIGN KEY (usuarioId) REFERENCES Usuario(id) ON DELETE CASCADE,
+    FOREIGN KEY (libroId) REFERENCES Libro(id) ON DELETE CASCADE
+);
+CREATE INDEX IF NOT EXISTS Prestamo_Historico_fechaInicio ON Prestamo_Historico (fechaInicio);
+CREATE INDEX IF NOT EXISTS Prestamo_Historico_fechaFin ON Prestamo_Historico (fechaFin);
+
 -- Crear tabla intermedia para la relación muchos a muchos entre Libro y Autor
 CREATE TABLE IF NOT EXISTS Libro_Autor (
     idLibro INT NOT NULL,
@@ -41,6 +63,39 @@ CREATE TABLE IF NOT EXISTS Libro_Autor (
     FOREIGN KEY (idAutor) REFERENCES Autor(id) ON DELETE CASCADE
 );
 
+-- Crear tabla Cambio (registro de cambios para sincronizar las cachés de varias instancias)
+CREATE TABLE IF NOT EXISTS Cambio (
+    seq BIGINT PRIMARY KEY AUTO_INCREMENT,
+    entidad VARCHAR(20) NOT NULL,
+    idEntidad INT NOT NULL,
+    idRelacionado INT NULL,
+    operacion CHAR(1) NOT NULL,
+    fecha TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Crear tabla Cambio_Consumidor (último cambio aplicado por cada instancia, para borrar los ya vistos por todas)
+CREATE TABLE IF NOT EXISTS Cambio_Consumidor (
+    id VARCHAR(64) PRIMARY KEY,
+    seq BIGINT NOT NULL,
+    fecha TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Crear triggers que registran cada escritura en la tabla Cambio
+CREATE TRIGGER IF NOT EXISTS Usuario_insert AFTER INSERT ON Usuario FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('USUARIO', NEW.id, 'I');
+CREATE TRIGGER IF NOT EXISTS Usuario_update AFTER UPDATE ON Usuario FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('USUARIO', NEW.id, 'U');
+CREATE TRIGGER IF NOT EXISTS Usuario_delete AFTER DELETE ON Usuario FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('USUARIO', OLD.id, 'D');
+CREATE TRIGGER IF NOT EXISTS Autor_insert AFTER INSERT ON Autor FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('AUTOR', NEW.id, 'I');
+CREATE TRIGGER IF NOT EXISTS Autor_update AFTER UPDATE ON Autor FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('AUTOR', NEW.id, 'U');
+CREATE TRIGGER IF NOT EXISTS Autor_delete AFTER DELETE ON Autor FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('AUTOR', OLD.id, 'D');
+CREATE TRIGGER IF NOT EXISTS Libro_insert AFTER INSERT ON Libro FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('LIBRO', NEW.id, 'I');
+CREATE TRIGGER IF NOT EXISTS Libro_update AFTER UPDATE ON Libro FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('LIBRO', NEW.id, 'U');
+CREATE TRIGGER IF NOT EXISTS Libro_delete AFTER DELETE ON Libro FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('LIBRO', OLD.id, 'D');
+CREATE TRIGGER IF NOT EXISTS Prestamo_insert AFTER INSERT ON Prestamo FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('PRESTAMO', NEW.id, 'I');
+CREATE TRIGGER IF NOT EXISTS Prestamo_update AFTER UPDATE ON Prestamo FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('PRESTAMO', NEW.id, 'U');
+CREATE TRIGGER IF NOT EXISTS Prestamo_delete AFTER DELETE ON Prestamo FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('PRESTAMO', OLD.id, 'D');
+CREATE TRIGGER IF NOT EXISTS Libro_Autor_insert AFTER INSERT ON Libro_Autor FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, idRelacionado, operacion) VALUES ('LIBRO_AUTOR', NEW.idLibro, NEW.idAutor, 'I');
+CREATE TRIGGER IF NOT EXISTS Libro_Autor_delete AFTER DELETE ON Libro_Autor FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, idRelacionado, operacion) VALUES ('LIBRO_AUTOR', OLD.idLibro, OLD.idAutor, 'D');
+
 -- Insertar datos en la tabla Usuario
 INSERT INTO Usuario (nombre)
 VALUES
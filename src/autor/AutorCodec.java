@@ -0,0 +1,41 @@
+package autor;
+
+import cache.EntityCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of an author for the off-heap cache: id, version and name as UTF-8.
+ *
+ * @version 1.0
+ */
+final class AutorCodec implements EntityCodec<DTOAutor> {
+
+    /**
+     * Encodes an author.
+     *
+     * @param autor the author
+     * @return the encoded bytes
+     */
+    @Override
+    public byte[] encode(DTOAutor autor) {
+        byte[] nombre = EntityCodec.utf8(autor.nombre());
+        ByteBuffer buffer = ByteBuffer.allocate(8 + EntityCodec.sizeOf(nombre));
+        buffer.putInt(autor.id()).putInt(autor.version());
+        EntityCodec.putString(buffer, nombre);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes an author.
+     *
+     * @param record the encoded bytes
+     * @return the author
+     */
+    @Override
+    public DTOAutor decode(ByteBuffer record) {
+        int id = record.getInt();
+        int version = record.getInt();
+        return new DTOAutor(id, EntityCodec.getString(record), version);
+    }
+}
@@ -1,19 +1,49 @@
 package autor;
 
+import cache.BoundedEntityCache;
+import cache.CacheStats;
+import cache.EntityCache;
+import cache.FullEntityCache;
+import cache.OffHeapEntityCache;
+import cache.ReadThroughCache;
+import cache.RowSource;
+import exception.ConcurrencyException;
 import exception.ServiceException;
+import jdbc.WriteMetrics;
 import libro_autor.LibroAutorService;
+import search.InvertedIndex;
+import search.PrefixIndex;
+import search.Suggestion;
+import search.TrigramIndex;
+import util.LockStripes;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service for managing authors (DTOAutor) and their relations with books via LibroAutorService.
+ * <p>
+ * Safe for concurrent use: the caches and indexes can be read from any thread, and the changes
+ * of an author, local or applied from the change log, are serialized by a lock striped by id.
  *
- * @version 1.1
+ * @version 1.6
  */
 public class AutorService {
-    private List<DTOAutor> autoresInMemory;
+    private static final Duration READ_TTL = Duration.ofSeconds(30);
+    private static final double FUZZY_THRESHOLD = 0.3;
+    private static final int LOCK_STRIPES = 64;
+    private EntityCache<DTOAutor> autoresInMemory;
     private DAOAutor daoAutor;
+    private ReadThroughCache<DTOAutor> autoresReadCache;
     private LibroAutorService libroAutorService;
+    private InvertedIndex nombreIndex = new InvertedIndex();
+    private TrigramIndex nombreTrigrams = new TrigramIndex(FUZZY_THRESHOLD);
+    private PrefixIndex nombrePrefixes = new PrefixIndex();
+    private final LockStripes autorLocks = new LockStripes(LOCK_STRIPES); // Serializes the changes of each author
 
     /**
      * Initializes the service, loading authors into memory.
@@ -22,9 +52,76 @@ public class AutorService {
      * @throws ServiceException If an error occurs while reading authors.
      */
     public AutorService(LibroAutorService libroAutorService) throws ServiceException {
+        this(libroAutorService, new DAOAutor().readAll());
+    }
+
+    /**
+     * Initializes the service with authors already read, e.g. from a local snapshot.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param autores           Every author.
+     */
+    public AutorService(LibroAutorService libroAutorService, List<DTOAutor> autores) {
+        this.daoAutor = new DAOAutor();
+        autoresReadCache = new ReadThroughCache<>(READ_TTL, daoAutor::read);
+        this.libroAutorService = libroAutorService;
+        autoresInMemory = new FullEntityCache<>(autores, DTOAutor::id); // Load authors into memory
+        for (DTOAutor autor : autoresInMemory.values()) {
+            nombreIndex.put(autor.id(), autor.nombre());
+            nombreTrigrams.put(autor.id(), autor.nombre());
+            nombrePrefixes.put(autor.id(), autor.nombre());
+        }
+    }
+
+    /**
+     * Initializes the service keeping every author outside the Java heap (see OffHeapEntityCache),
+     * streamed from the source into the cache so no list of authors is built.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param autores           Source of every author.
+     * @throws ServiceException If an error occurs while reading the authors.
+     */
+    public AutorService(LibroAutorService libroAutorService, RowSource<DTOAutor> autores) throws ServiceException {
+        this.daoAutor = new DAOAutor();
+        autoresReadCache = new ReadThroughCache<>(READ_TTL, daoAutor::read);
+        this.libroAutorService = libroAutorService;
+        autoresInMemory = new OffHeapEntityCache<>(new AutorCodec());
+        autores.readAll(autor -> {
+            autoresInMemory.put(autor.id(), autor);
+            nombreIndex.put(autor.id(), autor.nombre());
+            nombreTrigrams.put(autor.id(), autor.nombre());
+            nombrePrefixes.put(autor.id(), autor.nombre());
+        });
+    }
+
+    /**
+     * Initializes the service with a bounded cache that keeps only the most frequently used authors
+     * in memory and reads the rest from the database on demand, for catalogs too large to load fully.
+     * The name indexes still cover all the authors, built by streaming them once.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param cacheSize         Maximum number of authors kept in memory.
+     * @throws ServiceException If an error occurs while building the name indexes.
+     */
+    public AutorService(LibroAutorService libroAutorService, int cacheSize) throws ServiceException {
         this.daoAutor = new DAOAutor();
+        autoresReadCache = new ReadThroughCache<>(READ_TTL, daoAutor::read);
         this.libroAutorService = libroAutorService;
-        autoresInMemory = daoAutor.readAll(); // Load authors into memory
+        autoresInMemory = new BoundedEntityCache<>(cacheSize, daoAutor::read); // Read-through, no full load
+        daoAutor.readAll(autor -> { // Only the name indexes are kept
+            nombreIndex.put(autor.id(), autor.nombre());
+            nombreTrigrams.put(autor.id(), autor.nombre());
+            nombrePrefixes.put(autor.id(), autor.nombre());
+        });
+    }
+
+    /**
+     * Gets the authors held in memory, e.g. to write a snapshot of the cache.
+     *
+     * @return The cached authors; every author if the cache is complete.
+     */
+    public Collection<DTOAutor> getCachedAutores() {
+        return autoresInMemory.values();
     }
 
     /**
@@ -35,8 +132,12 @@ public class AutorService {
      */
     public void createAutor(String nombre) throws ServiceException {
         DTOAutor dtoAutor = new DTOAutor(nombre);
-        daoAutor.create(dtoAutor);
-        autoresInMemory.add(dtoAutor); // Sync with memory
+        dtoAutor = daoAutor.create(dtoAutor); // The stored copy carries the generated ID
+        autoresInMemory.put(dtoAutor.id(), dtoAutor); // Sync with memory
+        nombreIndex.put(dtoAutor.id(), dtoAutor.nombre());
+        nombreTrigrams.put(dtoAutor.id(), dtoAutor.nombre());
+        nombrePrefixes.put(dtoAutor.id(), dtoAutor.nombre());
+        autoresReadCache.invalidate(dtoAutor.id()); // Drop a cached "not found"
     }
 
     /**
@@ -47,7 +148,7 @@ public class AutorService {
      * @throws ServiceException If an error occurs during reading.
      */
     public DTOAutor readAutor(Integer id) throws ServiceException {
-        return daoAutor.read(id); // Read author from database
+        return autoresReadCache.get(id); // Read-through, only queries the database on a miss or after the TTL
     }
 
     /**
@@ -58,14 +159,32 @@ public class AutorService {
      * @throws ServiceException If the author is not found or if an error occurs.
      */
     public void updateAutor(Integer id, String nombre) throws ServiceException {
-        DTOAutor dtoAutor = findAutorById(id);
-        if (dtoAutor != null) {
-            if (nombre != null && !nombre.isBlank() && !nombre.isEmpty()){
-                dtoAutor.setNombre(nombre); // Update the name
+        ReentrantLock lock = autorLocks.get(id);
+        lock.lock();
+        try {
+            DTOAutor dtoAutor = lookupAutor(id).orElse(null);
+            if (dtoAutor != null) {
+                DTOAutor nuevo = dtoAutor;
+                if (nombre != null && !nombre.isBlank() && !nombre.isEmpty()){
+                    nuevo = nuevo.withNombre(nombre); // Update the name
+                }
+                try {
+                    nuevo = daoAutor.update(dtoAutor, nuevo); // Only written if the name changed
+                } catch (ConcurrencyException e) {
+                    refreshAutor(dtoAutor); // Drop the stale copy and reload only this author
+                    throw new ConcurrencyException("El autor ha sido modificado por otro usuario; se han recargado sus datos");
+                }
+                dtoAutor = nuevo; // The cached copy is only replaced once the row is written
+                autoresInMemory.put(dtoAutor.id(), dtoAutor); // An off-heap cache only holds a copy
+                nombreIndex.put(dtoAutor.id(), dtoAutor.nombre());
+                nombreTrigrams.put(dtoAutor.id(), dtoAutor.nombre());
+                nombrePrefixes.put(dtoAutor.id(), dtoAutor.nombre());
+                autoresReadCache.invalidate(dtoAutor.id());
+            } else {
+                throw new ServiceException("El autor que estas intentando actualizar no existe", false);
             }
-            daoAutor.update(dtoAutor);
-        } else {
-            throw new ServiceException("El autor que estas intentando actualizar no existe");
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -76,17 +195,39 @@ public class AutorService {
      * @throws ServiceException If the author is not found or if an error occurs.
      */
     public void deleteAutor(Integer id) throws ServiceException {
-        DTOAutor dtoAutor = findAutorById(id);
-        if (dtoAutor != null) {
-            // Delete author's relations from libroAutorService
-            libroAutorService.deleteRelationsByAutorId(dtoAutor.getId());
-            daoAutor.delete(dtoAutor); // Delete from the database
-            autoresInMemory.remove(dtoAutor); // Sync with memory
-        } else {
-            throw new ServiceException("El autor que estas intentando eliminar no existe");
+        ReentrantLock lock = autorLocks.get(id);
+        lock.lock();
+        try {
+            DTOAutor dtoAutor = lookupAutor(id).orElse(null);
+            if (dtoAutor != null) {
+                // Delete author's relations from libroAutorService
+                libroAutorService.deleteRelationsByAutorId(dtoAutor.id());
+                daoAutor.delete(dtoAutor); // Delete from the database
+                autoresInMemory.remove(dtoAutor.id()); // Sync with memory
+                nombreIndex.remove(dtoAutor.id());
+                nombreTrigrams.remove(dtoAutor.id());
+                nombrePrefixes.remove(dtoAutor.id());
+                autoresReadCache.invalidate(dtoAutor.id());
+            } else {
+                throw new ServiceException("El autor que estas intentando eliminar no existe", false);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Looks up a author by ID, for callers that expect it may not exist: a missing author is not an error,
+     * so no exception is built.
+     *
+     * @param id The author's ID.
+     * @return The author, or empty if it does not exist.
+     * @throws ServiceException If an error occurs while reading.
+     */
+    public Optional<DTOAutor> lookupAutor(int id) throws ServiceException {
+        return Optional.ofNullable(autoresInMemory.get(id));
+    }
+
     /**
      * Finds an author by ID from the in-memory list.
      *
@@ -95,11 +236,137 @@ public class AutorService {
      * @throws ServiceException If the author is not found.
      */
     public DTOAutor findAutorById(Integer id) throws ServiceException {
-        for (DTOAutor dtoAutor : autoresInMemory) {
-            if (dtoAutor.getId().equals(id)) {
-                return dtoAutor;
+        return lookupAutor(id).orElseThrow(() -> new ServiceException("Autor no encontrado", false));
+    }
+
+    /**
+     * Searches authors by name. Accents, case and Spanish stop words are ignored, and only
+     * the authors whose name contains all the words are returned, best matches first.
+     *
+     * @param texto  The words to search.
+     * @param limite The maximum number of authors returned.
+     * @return The matching authors, which may be empty.
+     * @throws ServiceException If an error occurs while reading the authors.
+     */
+    public List<DTOAutor> searchAutores(String texto, int limite) throws ServiceException {
+        List<DTOAutor> autores = new ArrayList<>();
+        for (int id : nombreIndex.search(texto, limite)) {
+            DTOAutor dtoAutor = autoresInMemory.get(id);
+            if (dtoAutor != null) {
+                autores.add(dtoAutor);
+            }
+        }
+        return autores;
+    }
+
+    /**
+     * Finds the authors whose name is similar to a text, tolerating typos and missing accents
+     * (e.g. "Garcia Marques" or "Cortazar").
+     *
+     * @param texto  The approximate name.
+     * @param limite The maximum number of authors returned.
+     * @return The similar authors, most similar first, which may be empty.
+     * @throws ServiceException If an error occurs while reading the authors.
+     */
+    public List<DTOAutor> findSimilarAutores(String texto, int limite) throws ServiceException {
+        List<DTOAutor> autores = new ArrayList<>();
+        for (int id : nombreTrigrams.search(texto, limite)) {
+            DTOAutor dtoAutor = autoresInMemory.get(id);
+            if (dtoAutor != null) {
+                autores.add(dtoAutor);
+            }
+        }
+        return autores;
+    }
+
+    /**
+     * Suggests completions for the beginning of a name, or of any of its words, for autocomplete.
+     * It only uses the name index, so it can be called from background threads.
+     *
+     * @param prefijo The text typed so far.
+     * @param limite  The maximum number of suggestions.
+     * @return The ids and names of the matching authors, in alphabetical order.
+     */
+    public List<Suggestion> suggestAutores(String prefijo, int limite) {
+        return nombrePrefixes.complete(prefijo, limite);
+    }
+
+    /**
+     * Gets the write metrics for author updates, including the updates skipped because nothing changed.
+     *
+     * @return the write metrics
+     */
+    public WriteMetrics getWriteMetrics() {
+        return daoAutor.getWriteMetrics();
+    }
+
+    /**
+     * Gets the statistics of the author cache (hit ratio and evictions).
+     *
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats() {
+        return autoresInMemory.getStats();
+    }
+
+    /**
+     * Applies a change read from the database change log to the in-memory cache.
+     * Changes already reflected in memory (same version) are ignored, and a bounded cache
+     * does not load entities that are not in its hot set.
+     *
+     * @param id     The ID of the changed author.
+     * @param actual The current state of the author in the database, or null if it was deleted.
+     */
+    public void applyAutorChange(int id, DTOAutor actual) {
+        ReentrantLock lock = autorLocks.get(id);
+        lock.lock();
+        try {
+            autoresReadCache.invalidate(id);
+            DTOAutor cached = autoresInMemory.peek(id);
+            if (actual == null) {
+                autoresInMemory.remove(id);
+                nombreIndex.remove(id);
+                nombreTrigrams.remove(id);
+                nombrePrefixes.remove(id);
+            } else {
+                if (cached != null ? cached.version() != actual.version() : autoresInMemory.isComplete()) {
+                    autoresInMemory.put(id, actual); // Updated, or created by another instance
+                }
+                nombreIndex.put(id, actual.nombre()); // Indexed even if not cached, the indexes cover all authors
+                nombreTrigrams.put(id, actual.nombre());
+                nombrePrefixes.put(id, actual.nombre());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces a stale author in memory with its current state in the database,
+     * or removes it if it no longer exists.
+     *
+     * @param stale the outdated in-memory author
+     * @throws ServiceException if an error occurs while reading the author
+     */
+    private void refreshAutor(DTOAutor stale) throws ServiceException {
+        ReentrantLock lock = autorLocks.get(stale.id());
+        lock.lock();
+        try {
+            autoresReadCache.invalidate(stale.id());
+            DTOAutor actual = daoAutor.read(stale.id());
+            if (actual == null) {
+                autoresInMemory.remove(stale.id());
+                nombreIndex.remove(stale.id());
+                nombreTrigrams.remove(stale.id());
+                nombrePrefixes.remove(stale.id());
+            } else {
+                autoresInMemory.put(actual.id(), actual);
+                nombreIndex.put(actual.id(), actual.nombre());
+                nombreTrigrams.put(actual.id(), actual.nombre());
+                nombrePrefixes.put(actual.id(), actual.nombre());
             }
+        } finally {
+            lock.unlock();
         }
-        throw new ServiceException("Autor no encontrado");
     }
 }
@@ -1,45 +1,56 @@
 package autor;
 
+import exception.ConcurrencyException;
 import exception.ServiceException;
-import jdbc.DDL;
+import jdbc.ConnectionPool;
+import jdbc.WriteMetrics;
+import util.StringPool;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * The DAOAutor class handles CRUD operations for the Autor (Author) entity.
  *
- * @version 1.1
+ * @version 1.4
  */
 public class DAOAutor {
     private static final String CREATE = "INSERT INTO Autor (nombre) VALUES (?)";
     private static final String READ = "SELECT * FROM Autor WHERE ID = ?";
     private static final String READ_ALL = "SELECT * FROM Autor";
-    private static final String UPDATE = "UPDATE Autor SET nombre = ? WHERE ID = ?";
+    private static final String UPDATE = "UPDATE Autor SET nombre = ?, version = version + 1 WHERE ID = ? AND version = ?";
+    private static final int UPDATABLE_COLUMNS = 1;
     private static final String DELETE = "DELETE FROM Autor WHERE ID = ?";
-    private static Connection conexion;
+    private static final int MAX_POOLED = 1 << 20;
+    // Canonical instances of the names of the authors, shared by the rows that repeat them
+    private static final StringPool NOMBRES = new StringPool(MAX_POOLED);
+    private final WriteMetrics writeMetrics = new WriteMetrics();
 
     /**
-     * Initializes a new DAOAutor instance by establishing a database connection.
+     * Initializes a new DAOAutor instance. Each statement runs on its own connection, borrowed from the {@link ConnectionPool}.
      */
     public DAOAutor() {
-        this.conexion = DDL.getConnection();
     }
 
     /**
      * Creates a new author in the database.
      *
      * @param autor The author object containing the name of the author.
+     * @return The stored author, with the ID generated by the database.
      * @throws ServiceException if there is an error during the creation.
      */
-    public void create(DTOAutor autor) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
-            pst.setString(1, autor.getNombre());
+    public DTOAutor create(DTOAutor autor) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
+            pst.setString(1, autor.nombre());
             pst.executeUpdate();
             try (ResultSet rs = pst.getGeneratedKeys()) {
                 if (rs.next()) {
-                    autor.setId(rs.getInt(1)); // Set the generated ID
+                    return autor.withId(rs.getInt(1)); // Set the generated ID
                 }
             }
+            throw new ServiceException("Error al crear autor: no se ha generado el ID");
         } catch (SQLException e) {
             throw new ServiceException("Error al crear autor: " + e.getMessage());
         }
@@ -53,7 +64,8 @@ public class DAOAutor {
      * @throws ServiceException if there is an error during the read.
      */
     public DTOAutor read(int id) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(READ)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ)) {
             pst.setInt(1, id);
             ResultSet rs = pst.executeQuery();
             if (rs.next()) {
@@ -74,7 +86,8 @@ public class DAOAutor {
      */
     public ArrayList<DTOAutor> readAll() throws ServiceException {
         ArrayList<DTOAutor> autores = new ArrayList<>();
-        try (Statement st = conexion.createStatement();
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
              ResultSet rs = st.executeQuery(READ_ALL)) {
             while (rs.next()) {
                 autores.add(getAutor(rs)); // Convert each result to a DTOAutor
@@ -85,18 +98,54 @@ public class DAOAutor {
         return autores;
     }
 
+    /**
+     * Reads all authors from the database, passing each one to a consumer as it is read
+     * instead of building a list, so indexes can be built without loading all the authors.
+     *
+     * @param consumer receives each author read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readAll(Consumer<DTOAutor> consumer) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement()) {
+            st.setFetchSize(1000); // Stream the rows instead of buffering the whole table
+            try (ResultSet rs = st.executeQuery(READ_ALL)) {
+                while (rs.next()) {
+                    consumer.accept(getAutor(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer todos los autores: " + e.getMessage());
+        }
+    }
+
     /**
      * Updates an existing author's information in the database.
+     * No statement is sent when the name is the one that was read, and the row is only
+     * updated if its version still matches the one that was read.
      *
-     * @param autor The DTOAutor object containing the updated author information.
+     * @param anterior The author as it was read.
+     * @param autor    The DTOAutor object containing the updated author information.
+     * @return The stored author with its new version, or the author as it was read if nothing changed.
      * @throws IllegalArgumentException if the author's ID is invalid (less than or equal to 0).
+     * @throws ConcurrencyException if the author was modified or deleted by another instance.
      * @throws ServiceException if there is an error during the update.
      */
-    public void update(DTOAutor autor) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
-            pst.setString(1, autor.getNombre());
-            pst.setInt(2, autor.getId());
-            pst.executeUpdate();
+    public DTOAutor update(DTOAutor anterior, DTOAutor autor) throws ServiceException {
+        if (Objects.equals(anterior.nombre(), autor.nombre())) {
+            writeMetrics.recordSkipped(UPDATABLE_COLUMNS);
+            return anterior; // Nothing changed, skip the round trip
+        }
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
+            pst.setString(1, autor.nombre());
+            pst.setInt(2, autor.id());
+            pst.setInt(3, autor.version());
+            if (pst.executeUpdate() == 0) {
+                throw new ConcurrencyException("El autor ha sido modificado por otro usuario");
+            }
+            writeMetrics.recordUpdate(UPDATABLE_COLUMNS, UPDATABLE_COLUMNS);
+            return autor.withVersion(autor.version() + 1);
         } catch (SQLException e) {
             throw new ServiceException("Error al actualizar autor: " + e.getMessage());
         }
@@ -110,17 +159,38 @@ public class DAOAutor {
      * @throws ServiceException if there is an error during the deletion.
      */
     public void delete(DTOAutor autor) throws ServiceException {
-        if (autor.getId() <= 0) {
+        if (autor.id() <= 0) {
             throw new IllegalArgumentException("ID de autor no válido");
         }
-        try (PreparedStatement pst = conexion.prepareStatement(DELETE)) {
-            pst.setInt(1, autor.getId());
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(DELETE)) {
+            pst.setInt(1, autor.id());
             pst.executeUpdate();
         } catch (SQLException e) {
             throw new ServiceException("Error al eliminar autor: " + e.getMessage());
         }
     }
 
+    /**
+     * Gets the write metrics of this DAO.
+     *
+     * @return the write metrics
+     */
+    public WriteMetrics getWriteMetrics() {
+        return writeMetrics;
+    }
+
+    /**
+     * Gets the canonical instance of a name, so rows read elsewhere (e.g. from a local snapshot)
+     * share it with the rows read from the database.
+     *
+     * @param nombre the name, may be null
+     * @return the pooled instance
+     */
+    public static String internNombre(String nombre) {
+        return NOMBRES.intern(nombre);
+    }
+
     /**
      * Converts a ResultSet row into a DTOAutor object.
      *
@@ -130,10 +200,8 @@ public class DAOAutor {
      */
     private DTOAutor getAutor(ResultSet rs) throws ServiceException {
         try {
-            String nombre = rs.getString("nombre");
-            DTOAutor autor = new DTOAutor(nombre);
-            autor.setId(rs.getInt("id")); // Assign the ID from the database
-            return autor;
+            String nombre = NOMBRES.intern(rs.getString("nombre"));
+            return new DTOAutor(rs.getInt("id"), nombre, rs.getInt("version")); // ID assigned by the database
         } catch (SQLException e) {
             throw new ServiceException("Error al leer ResultSet: " + e.getMessage());
         }
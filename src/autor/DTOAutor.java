@@ -1,57 +1,54 @@
 package autor;
 
 /**
- * The type DTOAutor class encapsulate the details for the Autor (Author) entity.
+ * The type DTOAutor record encapsulate the details for the Autor (Author) entity.
+ * It is immutable, so cached authors can be shared between threads; changes build a copy
+ * with the {@code with} methods, which the services store in place of the previous one.
  *
- * @version 1.1
+ * @param id      the id, 0 for an author not stored yet
+ * @param nombre  the name
+ * @param version the row version used for optimistic concurrency
+ * @version 2.0
  */
-public class DTOAutor {
-    private Integer id;
-    private String nombre;
+public record DTOAutor(int id, String nombre, int version) {
 
     /**
-     * Instantiates a new Dto autor (Author).
+     * Instantiates a new Dto autor (Author) not stored yet.
      *
      * @param nombre the name
      */
     public DTOAutor(String nombre) {
-        this.nombre = nombre;
+        this(0, nombre, 0);
     }
 
     /**
-     * Gets id.
-     *
-     * @return the id
-     */
-    public Integer getId() {
-        return id;
-    }
-
-    /**
-     * Sets id.
+     * Copies the author with the id assigned by the database.
      *
      * @param id the id
+     * @return the copy
      */
-    public void setId(Integer id) {
-        this.id = id;
+    public DTOAutor withId(int id) {
+        return new DTOAutor(id, nombre, version);
     }
 
     /**
-     * Gets nombre.
+     * Copies the author with another name.
      *
-     * @return the name
+     * @param nombre the name
+     * @return the copy
      */
-    public String getNombre() {
-        return nombre;
+    public DTOAutor withNombre(String nombre) {
+        return new DTOAutor(id, nombre, version);
     }
 
     /**
-     * Sets nombre.
+     * Copies the author with another row version.
      *
-     * @param nombre the name
+     * @param version the row version
+     * @return the copy
      */
-    public void setNombre(String nombre) {
-        this.nombre = nombre;
+    public DTOAutor withVersion(int version) {
+        return new DTOAutor(id, nombre, version);
     }
 
     /**
@@ -65,5 +62,3 @@ public class DTOAutor {
                 "Nombre: " + nombre;
     }
 }
-
-
@@ -0,0 +1,279 @@
+package cache;
+
+import exception.ServiceException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entity cache that keeps a bounded hot set and reads through to the database on a miss.
+ * Eviction follows the W-TinyLFU policy: new entries go to a small LRU window, and an entry
+ * leaving the window only enters the main segmented LRU if its estimated access frequency
+ * is higher than the one of the entry it would replace. This keeps popular entities cached
+ * even under scans of rarely used ones.
+ * <p>
+ * The queues are guarded by the monitor of the cache, which is never held while the database is
+ * queried: a miss is loaded outside it and inserted afterwards, and concurrent misses for the same
+ * id are coalesced (single flight) like in {@link ReadThroughCache}, so hits never wait for a load.
+ *
+ * @param <V> the entity type
+ * @version 1.1
+ */
+public class BoundedEntityCache<V> implements EntityCache<V> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final EntityLoader<V> loader;
+    private final Map<Integer, Node<V>> data;
+    private final FrequencySketch sketch;
+    private final CacheStats stats = new CacheStats();
+    private final ConcurrentHashMap<Integer, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Node<V> window = Node.sentinel();
+    private final Node<V> probation = Node.sentinel();
+    private final Node<V> protectedSegment = Node.sentinel();
+    private int windowSize;
+    private int protectedSize;
+
+    /**
+     * Instantiates a new bounded cache.
+     *
+     * @param maximumSize the maximum number of cached entities
+     * @param loader      loads an entity from the database on a miss
+     */
+    public BoundedEntityCache(int maximumSize, EntityLoader<V> loader) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de la caché debe ser positivo");
+        }
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100); // 1% window
+        this.protectedMaximum = (int) ((maximumSize - windowMaximum) * 0.8); // 80% of the main space
+        this.loader = loader;
+        this.data = new HashMap<>();
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public V get(int id) throws ServiceException {
+        synchronized (this) {
+            sketch.increment(id);
+            Node<V> node = data.get(id);
+            if (node != null) {
+                stats.recordHit();
+                onAccess(node);
+                return node.value;
+            }
+        }
+        stats.recordMiss();
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(id, future);
+        if (running != null) {
+            return ReadThroughCache.await(running); // Another thread is already loading this id
+        }
+        try {
+            V value = loader.load(id);
+            synchronized (this) {
+                // Only insert the value if no write replaced or removed the id while it was loading
+                if (inFlight.remove(id, future) && value != null && !data.containsKey(id)) {
+                    insert(id, value);
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (ServiceException | RuntimeException e) {
+            inFlight.remove(id, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized V peek(int id) {
+        Node<V> node = data.get(id);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public synchronized void put(int id, V value) {
+        inFlight.remove(id);
+        Node<V> node = data.get(id);
+        if (node != null) {
+            node.value = value;
+            onAccess(node);
+        } else {
+            insert(id, value);
+        }
+    }
+
+    @Override
+    public synchronized void remove(int id) {
+        inFlight.remove(id);
+        Node<V> node = data.remove(id);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    @Override
+    public boolean isComplete() {
+        return false;
+    }
+
+    @Override
+    public synchronized Collection<V> values() {
+        List<V> values = new ArrayList<>(data.size());
+        for (Node<V> node : data.values()) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized int size() {
+        return data.size();
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Gets the maximum number of cached entities.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Updates the position of an entry after it was accessed.
+     * Probation entries are promoted to the protected segment, which demotes its oldest entry if full.
+     *
+     * @param node the accessed entry
+     */
+    private void onAccess(Node<V> node) {
+        if (node.queue == PROBATION) {
+            unlink(node);
+            link(protectedSegment, node, PROTECTED);
+            if (protectedSize > protectedMaximum) {
+                Node<V> demoted = protectedSegment.next;
+                unlink(demoted);
+                link(probation, demoted, PROBATION);
+            }
+        } else {
+            Node<V> head = node.queue == WINDOW ? window : protectedSegment;
+            unlink(node);
+            link(head, node, node.queue);
+        }
+    }
+
+    /**
+     * Adds a new entry to the window and evicts if the cache exceeds its maximum size.
+     *
+     * @param id    the entity id
+     * @param value the entity
+     */
+    private void insert(int id, V value) {
+        Node<V> node = new Node<>(id, value);
+        data.put(id, node);
+        link(window, node, WINDOW);
+        if (windowSize <= windowMaximum) {
+            return;
+        }
+        // The oldest window entry becomes a candidate for the main space
+        Node<V> candidate = window.next;
+        unlink(candidate);
+        link(probation, candidate, PROBATION);
+        if (data.size() > maximumSize) {
+            Node<V> victim = probation.next != candidate ? probation.next : protectedSegment.next;
+            Node<V> evicted;
+            if (victim == protectedSegment) {
+                evicted = candidate; // The main space only holds the candidate (tiny caches)
+            } else {
+                evicted = sketch.frequency(candidate.id) > sketch.frequency(victim.id) ? victim : candidate;
+            }
+            unlink(evicted);
+            data.remove(evicted.id);
+            stats.recordEviction();
+        }
+    }
+
+    /**
+     * Appends an entry at the most recently used end of a queue.
+     *
+     * @param head  the sentinel of the queue
+     * @param node  the entry
+     * @param queue the queue identifier
+     */
+    private void link(Node<V> head, Node<V> node, int queue) {
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        if (queue == WINDOW) {
+            windowSize++;
+        } else if (queue == PROTECTED) {
+            protectedSize++;
+        }
+    }
+
+    /**
+     * Removes an entry from its queue.
+     *
+     * @param node the entry
+     */
+    private void unlink(Node<V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        if (node.queue == WINDOW) {
+            windowSize--;
+        } else if (node.queue == PROTECTED) {
+            protectedSize--;
+        }
+    }
+
+    /**
+     * Entry of the cache, linked in one of the three LRU queues.
+     *
+     * @param <V> the entity type
+     */
+    private static final class Node<V> {
+        final int id;
+        V value;
+        int queue;
+        Node<V> prev;
+        Node<V> next;
+
+        Node(int id, V value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        /**
+         * Creates the sentinel of an empty circular queue.
+         *
+         * @param <V> the entity type
+         * @return the sentinel
+         */
+        static <V> Node<V> sentinel() {
+            Node<V> sentinel = new Node<>(0, null);
+            sentinel.queue = -1;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+    }
+}
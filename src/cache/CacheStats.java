@@ -0,0 +1,86 @@
+package cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CacheStats class counts hits, misses and evictions of an entity cache.
+ *
+ * @version 1.0
+ */
+public class CacheStats {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Records a lookup served from the cache.
+     */
+    public void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * Records a lookup not served from the cache.
+     */
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Records an entry evicted to respect the cache size.
+     */
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * Gets the number of hits.
+     *
+     * @return the hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of misses.
+     *
+     * @return the misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of evictions.
+     *
+     * @return the evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the ratio of lookups served from the cache.
+     *
+     * @return the hit ratio, between 0 and 1 (1 if there were no lookups)
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    /**
+     * Returns a string representation of the statistics.
+     *
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "Aciertos: " + getHits() + "\n" +
+                "Fallos: " + getMisses() + "\n" +
+                "Tasa de aciertos: " + String.format("%.2f%%", getHitRatio() * 100) + "\n" +
+                "Expulsiones: " + getEvictions();
+    }
+}
@@ -0,0 +1,74 @@
+package cache;
+
+import exception.ServiceException;
+
+import java.util.Collection;
+
+/**
+ * In-memory cache of the entities of a service, indexed by id.
+ *
+ * @param <V> the entity type
+ * @version 1.0
+ */
+public interface EntityCache<V> {
+
+    /**
+     * Gets an entity, loading it from the database if the cache does not hold it.
+     *
+     * @param id the entity id
+     * @return the entity, or null if it does not exist
+     * @throws ServiceException if an error occurs while loading
+     */
+    V get(int id) throws ServiceException;
+
+    /**
+     * Gets an entity only if the cache holds it, without loading it or counting it in the statistics.
+     *
+     * @param id the entity id
+     * @return the cached entity, or null if it is not cached
+     */
+    V peek(int id);
+
+    /**
+     * Adds or replaces an entity.
+     *
+     * @param id    the entity id
+     * @param value the entity
+     */
+    void put(int id, V value);
+
+    /**
+     * Removes an entity.
+     *
+     * @param id the entity id
+     */
+    void remove(int id);
+
+    /**
+     * Checks if the cache holds every entity of the table, so a miss means the entity does not exist.
+     *
+     * @return true if the cache is complete
+     */
+    boolean isComplete();
+
+    /**
+     * Gets the cached entities.
+     *
+     * @return the cached entities
+     */
+    Collection<V> values();
+
+    /**
+     * Gets the number of cached entities.
+     *
+     * @return the number of cached entities
+     */
+    int size();
+
+    /**
+     * Gets the cache statistics.
+     *
+     * @return the statistics
+     */
+    CacheStats getStats();
+}
@@ -0,0 +1,79 @@
+package cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of an entity, to store it outside the Java heap.
+ *
+ * @param <V> the entity type
+ * @version 1.0
+ */
+public interface EntityCodec<V> {
+
+    /**
+     * Encodes an entity.
+     *
+     * @param value the entity
+     * @return the encoded bytes
+     */
+    byte[] encode(V value);
+
+    /**
+     * Decodes an entity, building a new object.
+     *
+     * @param record the encoded bytes, from position to limit
+     * @return the entity
+     */
+    V decode(ByteBuffer record);
+
+    /**
+     * Encodes a string as UTF-8.
+     *
+     * @param texto the string, or null
+     * @return the bytes, or null
+     */
+    static byte[] utf8(String texto) {
+        return texto == null ? null : texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the encoded size of a string written by {@link #putString}.
+     *
+     * @param bytes the UTF-8 bytes, or null
+     * @return the size in bytes
+     */
+    static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * Writes a string as its length (-1 for null) and its UTF-8 bytes.
+     *
+     * @param buffer the buffer
+     * @param bytes  the UTF-8 bytes, or null
+     */
+    static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #putString}.
+     *
+     * @param buffer the buffer
+     * @return the string, or null
+     */
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
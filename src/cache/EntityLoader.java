@@ -0,0 +1,22 @@
+package cache;
+
+import exception.ServiceException;
+
+/**
+ * Loads an entity from the database when it is not in the cache.
+ *
+ * @param <V> the entity type
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface EntityLoader<V> {
+
+    /**
+     * Loads the entity with the given id.
+     *
+     * @param id the entity id
+     * @return the entity, or null if it does not exist
+     * @throws ServiceException if an error occurs while loading
+     */
+    V load(int id) throws ServiceException;
+}
@@ -0,0 +1,92 @@
+package cache;
+
+/**
+ * Count-Min sketch that estimates how often each id was accessed recently, using 4-bit counters
+ * packed in a long array. Counters are halved periodically so old popularity fades (aging),
+ * as in the TinyLFU admission policy.
+ *
+ * @version 1.0
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Instantiates a new sketch sized for the given number of cached entries.
+     *
+     * @param maximumSize the maximum size of the cache
+     */
+    FrequencySketch(int maximumSize) {
+        int counters = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1; // Next power of two
+        table = new long[Math.max(1, counters / 16)];
+        counterMask = table.length * 16 - 1;
+        sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    /**
+     * Estimates the recent access frequency of an id.
+     *
+     * @param id the id
+     * @return the estimated frequency, between 0 and 15
+     */
+    int frequency(int id) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(id, i);
+            int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access to an id.
+     *
+     * @param id the id
+     */
+    void increment(int id) {
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(id, i);
+            int shift = (index & 15) << 2;
+            long word = table[index >>> 4];
+            if (((word >>> shift) & 0xF) < MAX_COUNT) {
+                table[index >>> 4] = word + (1L << shift);
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves every counter so that the sketch favours recent accesses.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    /**
+     * Gets the counter index of an id for one row of the sketch.
+     *
+     * @param id  the id
+     * @param row the row
+     * @return the counter index
+     */
+    private int indexOf(int id, int row) {
+        int hash = (id + row) * SEEDS[row];
+        hash ^= hash >>> 16;
+        return hash & counterMask;
+    }
+}
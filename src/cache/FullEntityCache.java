@@ -0,0 +1,79 @@
+package cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Entity cache that holds every row of a table, loaded once at startup.
+ * A miss means that the entity does not exist, so it never reads from the database.
+ * Backed by a concurrent map, so reads never block and can run on any thread while entities change.
+ *
+ * @param <V> the entity type
+ * @version 1.1
+ */
+public class FullEntityCache<V> implements EntityCache<V> {
+    private final Map<Integer, V> entities;
+    private final CacheStats stats = new CacheStats();
+
+    /**
+     * Instantiates a new cache with all the rows of a table.
+     *
+     * @param all   every entity of the table
+     * @param idOf  function that returns the id of an entity
+     */
+    public FullEntityCache(List<V> all, ToIntFunction<V> idOf) {
+        entities = new ConcurrentHashMap<>(Math.max(16, all.size() * 4 / 3 + 1));
+        for (V entity : all) {
+            entities.put(idOf.applyAsInt(entity), entity);
+        }
+    }
+
+    @Override
+    public V get(int id) {
+        V entity = entities.get(id);
+        if (entity != null) {
+            stats.recordHit();
+        } else {
+            stats.recordMiss();
+        }
+        return entity;
+    }
+
+    @Override
+    public V peek(int id) {
+        return entities.get(id);
+    }
+
+    @Override
+    public void put(int id, V value) {
+        entities.put(id, value);
+    }
+
+    @Override
+    public void remove(int id) {
+        entities.remove(id);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return true;
+    }
+
+    @Override
+    public Collection<V> values() {
+        return entities.values();
+    }
+
+    @Override
+    public int size() {
+        return entities.size();
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+}
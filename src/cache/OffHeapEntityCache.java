@@ -0,0 +1,245 @@
+package cache;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Entity cache that holds every row of a table outside the Java heap, for catalogs of millions of
+ * entities. Each entity is encoded by a codec into direct buffers allocated in chunks (arenas), and
+ * an array indexed by id holds the chunk and offset of its record, so the heap only holds one long
+ * per id whatever the size of the strings, and the garbage collector has no entity objects to trace.
+ * <p>
+ * Entities are decoded on every read: the returned objects are copies, so a changed entity must be
+ * put again. A replaced or removed record leaves its bytes unused until the live records are copied
+ * into new chunks, once half of the used bytes are garbage.
+ * <p>
+ * Thread-safe: the accesses are synchronized, since a compaction moves every record.
+ *
+ * @param <V> the entity type
+ * @version 1.1
+ */
+public class OffHeapEntityCache<V> implements EntityCache<V> {
+    private static final int CHUNK_BYTES = 16 << 20;
+
+    private final EntityCodec<V> codec;
+    private final CacheStats stats = new CacheStats();
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current;
+    private long[] locations = new long[1024]; // Id -> (chunk << 32 | offset) + 1, 0 if not stored
+    private int size;
+    private long usedBytes;
+    private long liveBytes;
+
+    /**
+     * Instantiates a new empty cache.
+     *
+     * @param codec the encoding of the entities
+     */
+    public OffHeapEntityCache(EntityCodec<V> codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public V get(int id) {
+        V entity = peek(id);
+        if (entity != null) {
+            stats.recordHit();
+        } else {
+            stats.recordMiss();
+        }
+        return entity;
+    }
+
+    @Override
+    public synchronized V peek(int id) {
+        ByteBuffer record = record(id);
+        return record == null ? null : codec.decode(record);
+    }
+
+    @Override
+    public synchronized void put(int id, V value) {
+        byte[] bytes = codec.encode(value);
+        if (bytes.length + 4 > CHUNK_BYTES) {
+            throw new IllegalArgumentException("Entidad demasiado grande: " + bytes.length + " bytes");
+        }
+        remove(id);
+        if (id >= locations.length) {
+            locations = Arrays.copyOf(locations, Math.max(id + 1, locations.length * 2));
+        }
+        locations[id] = append(bytes);
+        size++;
+        liveBytes += bytes.length + 4;
+    }
+
+    @Override
+    public synchronized void remove(int id) {
+        if (id >= 0 && id < locations.length && locations[id] != 0) {
+            liveBytes -= recordLength(locations[id]) + 4;
+            locations[id] = 0;
+            size--;
+            compactIfNeeded();
+        }
+    }
+
+    @Override
+    public boolean isComplete() {
+        return true;
+    }
+
+    /**
+     * Gets the cached entities, decoded one by one while iterating. The iteration does not lock
+     * the cache: it sees the entities stored when it reaches their id.
+     *
+     * @return the cached entities
+     */
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<>() {
+                    private int cursor;
+                    private V next = advance();
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public V next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        V entity = next;
+                        next = advance();
+                        return entity;
+                    }
+
+                    /**
+                     * Decodes the entity of the next stored id.
+                     *
+                     * @return the entity, or null if there are no more
+                     */
+                    private V advance() {
+                        synchronized (OffHeapEntityCache.this) {
+                            cursor = nextId(cursor);
+                            return cursor < locations.length ? codec.decode(record(cursor++)) : null;
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OffHeapEntityCache.this.size();
+            }
+        };
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Gets the bytes allocated outside the heap.
+     *
+     * @return the capacity of the chunks
+     */
+    public synchronized long getOffHeapBytes() {
+        return (long) chunks.size() * CHUNK_BYTES;
+    }
+
+    /**
+     * Finds the first stored id from a given one.
+     *
+     * @param from the first id to check
+     * @return the id, or the length of the index if there are no more
+     */
+    private int nextId(int from) {
+        while (from < locations.length && locations[from] == 0) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Gets the encoded record of an id.
+     *
+     * @param id the entity id
+     * @return a view of the record, or null if it is not stored
+     */
+    private ByteBuffer record(int id) {
+        if (id < 0 || id >= locations.length || locations[id] == 0) {
+            return null;
+        }
+        long location = locations[id] - 1;
+        ByteBuffer chunk = chunks.get((int) (location >>> 32));
+        int offset = (int) location;
+        return chunk.slice(offset + 4, chunk.getInt(offset)); // Own position, reads do not interfere
+    }
+
+    /**
+     * Gets the length of a stored record.
+     *
+     * @param location the location of the record, as stored in the index
+     * @return the length of the encoded entity
+     */
+    private int recordLength(long location) {
+        location--;
+        return chunks.get((int) (location >>> 32)).getInt((int) location);
+    }
+
+    /**
+     * Appends a record to the current chunk, allocating a new one when it is full.
+     *
+     * @param bytes the encoded entity
+     * @return the location of the record, as stored in the index
+     */
+    private long append(byte[] bytes) {
+        if (current == null || current.remaining() < bytes.length + 4) {
+            current = ByteBuffer.allocateDirect(CHUNK_BYTES);
+            chunks.add(current);
+        }
+        long location = ((long) (chunks.size() - 1) << 32 | current.position()) + 1;
+        current.putInt(bytes.length).put(bytes);
+        usedBytes += bytes.length + 4;
+        return location;
+    }
+
+    /**
+     * Copies the live records into new chunks once half of the used bytes are garbage.
+     * The old chunks are freed when they are collected.
+     */
+    private void compactIfNeeded() {
+        if (usedBytes < CHUNK_BYTES || liveBytes * 2 > usedBytes) {
+            return;
+        }
+        List<ByteBuffer> old = chunks;
+        chunks = new ArrayList<>();
+        current = null;
+        usedBytes = 0;
+        for (int id = 0; id < locations.length; id++) {
+            if (locations[id] != 0) {
+                long location = locations[id] - 1;
+                ByteBuffer chunk = old.get((int) (location >>> 32));
+                int offset = (int) location;
+                byte[] bytes = new byte[chunk.getInt(offset)];
+                chunk.get(offset + 4, bytes);
+                locations[id] = append(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package cache;
+
+import exception.ServiceException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Read-through cache for lookups that go to the database. Loaded values expire after a TTL and
+ * are invalidated on writes. Concurrent misses for the same id are coalesced (single flight):
+ * only the first one queries the database and the others wait for its result.
+ *
+ * @param <V> the entity type
+ * @version 1.1
+ */
+public class ReadThroughCache<V> {
+    private final long ttlNanos;
+    private final EntityLoader<V> loader;
+    private final ConcurrentHashMap<Integer, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final CacheStats stats = new CacheStats();
+
+    /**
+     * Instantiates a new read-through cache.
+     *
+     * @param ttl    time a loaded value stays valid
+     * @param loader loads a value from the database
+     */
+    public ReadThroughCache(Duration ttl, EntityLoader<V> loader) {
+        this.ttlNanos = ttl.toNanos();
+        this.loader = loader;
+    }
+
+    /**
+     * Gets a value, loading it from the database if it is not cached or has expired.
+     * Entities that do not exist are cached as well, so repeated misses do not hit the database.
+     *
+     * @param id the entity id
+     * @return the value, or null if it does not exist
+     * @throws ServiceException if an error occurs while loading
+     */
+    public V get(int id) throws ServiceException {
+        Entry<V> entry = entries.get(id);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            stats.recordHit();
+            return entry.value;
+        }
+        stats.recordMiss();
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(id, future);
+        if (running != null) {
+            return await(running); // Another thread is already loading this id
+        }
+        try {
+            V value = loader.load(id);
+            // Only cache the value if no write invalidated the id while it was loading
+            if (inFlight.remove(id, future)) {
+                entries.put(id, new Entry<>(value, System.nanoTime() + ttlNanos));
+            }
+            future.complete(value);
+            return value;
+        } catch (ServiceException | RuntimeException e) {
+            inFlight.remove(id, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Invalidates the cached value of an id, after a write.
+     *
+     * @param id the entity id
+     */
+    public void invalidate(int id) {
+        inFlight.remove(id);
+        entries.remove(id);
+    }
+
+    /**
+     * Invalidates every cached value.
+     */
+    public void invalidateAll() {
+        inFlight.clear();
+        entries.clear();
+    }
+
+    /**
+     * Gets the cache statistics.
+     *
+     * @return the statistics
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Waits for the load started by another thread.
+     *
+     * @param running the load in progress
+     * @param <V>     the entity type
+     * @return the loaded value
+     * @throws ServiceException if the load failed
+     */
+    static <V> V await(CompletableFuture<V> running) throws ServiceException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Lectura interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException serviceException) {
+                throw serviceException;
+            }
+            throw new ServiceException("Error de lectura: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Cached value with its expiration time.
+     *
+     * @param value     the value, null if the entity does not exist
+     * @param expiresAt the expiration time, in System.nanoTime() units
+     * @param <V>       the entity type
+     */
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
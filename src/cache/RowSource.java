@@ -0,0 +1,24 @@
+package cache;
+
+import exception.ServiceException;
+
+import java.util.function.Consumer;
+
+/**
+ * Source of every row of a table, handed over one by one (e.g. streamed from the database or
+ * read from a local snapshot), so large tables are loaded without building a list.
+ *
+ * @param <V> the entity type
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface RowSource<V> {
+
+    /**
+     * Reads every row.
+     *
+     * @param consumer receives each row read
+     * @throws ServiceException if an error occurs while reading
+     */
+    void readAll(Consumer<V> consumer) throws ServiceException;
+}
@@ -0,0 +1,39 @@
+package cambio;
+
+import autor.DTOAutor;
+import libro.DTOLibro;
+import libro_autor.DTOLibroAutor;
+import prestamo.DTOPrestamo;
+import usuario.DTOUsuario;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Contents of a cache snapshot read from disk, to build the services without reading the tables.
+ * The loans are kept as six ints each (id, version, user, book, start and end epoch days) and only
+ * turned into DTOPrestamo objects one by one while they are streamed into the loan store.
+ *
+ * @param seq        the sequence number of the last change applied to the caches when the snapshot was written
+ * @param libros     every book
+ * @param autores    every author
+ * @param usuarios   every user
+ * @param relaciones every book-author relation
+ * @param prestamos  the columns of every loan, six ints per loan
+ * @version 1.0
+ */
+public record CacheState(long seq, List<DTOLibro> libros, List<DTOAutor> autores, List<DTOUsuario> usuarios,
+                         List<DTOLibroAutor> relaciones, int[] prestamos) {
+
+    /**
+     * Hands over the loans one by one, so it can be used as the row source of PrestamoService.
+     *
+     * @param consumer receives each loan
+     */
+    public void readPrestamos(Consumer<DTOPrestamo> consumer) {
+        for (int i = 0; i < prestamos.length; i += 6) {
+            consumer.accept(RowCodec.toPrestamo(prestamos[i], prestamos[i + 1], prestamos[i + 2], prestamos[i + 3],
+                    prestamos[i + 4], prestamos[i + 5]));
+        }
+    }
+}
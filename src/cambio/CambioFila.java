@@ -0,0 +1,12 @@
+package cambio;
+
+/**
+ * Change of the log together with the row read for it, as applied to the caches and journaled.
+ *
+ * @param cambio the change
+ * @param fila   the current row (DTOLibro, DTOAutor, DTOUsuario or DTOPrestamo), or null if it was
+ *               deleted or the entity has no row (relations)
+ * @version 1.0
+ */
+record CambioFila(DTOCambio cambio, Object fila) {
+}
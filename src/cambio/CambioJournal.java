@@ -0,0 +1,241 @@
+package cambio;
+
+import autor.DTOAutor;
+import libro.DTOLibro;
+import prestamo.DTOPrestamo;
+import usuario.DTOUsuario;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Local journal of the changes applied to the caches since the last snapshot. Each polled batch is
+ * appended with the rows read for it and closed by a commit record holding the sequence number of its
+ * last change, so a restart replays the committed batches instead of reading them from the database,
+ * and a batch torn by a crash is ignored (its changes are polled again).
+ * <p>
+ * When a snapshot is captured the journal is rotated: the batches so far are moved to a previous file,
+ * dropped once the snapshot is written, and the batches applied meanwhile go to a new one. Both files
+ * are replayed, skipping the batches already in the snapshot.
+ *
+ * @version 1.1
+ */
+class CambioJournal {
+    private static final byte ENTRY = 'E';
+    private static final byte COMMIT = 'C';
+
+    private final Path file;
+    private final Path previous;
+    private DataOutputStream out;
+
+    /**
+     * Instantiates a journal stored in a file.
+     *
+     * @param file the journal file
+     */
+    CambioJournal(Path file) {
+        this.file = file;
+        this.previous = file.resolveSibling(file.getFileName() + ".prev");
+    }
+
+    /**
+     * Appends a batch of applied changes and commits it. If the write fails the journal is deleted,
+     * since a missing batch would be skipped on replay; the next restart then reads every change
+     * after the snapshot from the database.
+     *
+     * @param batch the applied changes with their rows
+     * @param seq   the sequence number of the last change of the batch
+     */
+    void append(List<CambioFila> batch, long seq) {
+        try {
+            if (out == null) {
+                Files.createDirectories(file.getParent());
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+            }
+            for (CambioFila cambioFila : batch) {
+                writeEntry(cambioFila);
+            }
+            out.writeByte(COMMIT);
+            out.writeLong(seq);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error al escribir el diario de cambios: " + e.getMessage());
+            reset();
+        }
+    }
+
+    /**
+     * Replays the committed batches after a sequence number.
+     *
+     * @param afterSeq the sequence number already in the snapshot
+     * @param apply    applies a change with its row
+     * @return the sequence number of the last batch replayed, or afterSeq if none
+     */
+    long replay(long afterSeq, BiConsumer<DTOCambio, Object> apply) {
+        long[] last = {afterSeq};
+        readAll((batch, seq) -> {
+            if (seq > afterSeq) {
+                batch.forEach(cambioFila -> apply.accept(cambioFila.cambio(), cambioFila.fila()));
+                last[0] = seq;
+            }
+        });
+        return last[0];
+    }
+
+    /**
+     * Gets the sequence number of the last committed batch.
+     *
+     * @return the sequence number, or -1 if the journal is empty
+     */
+    long lastCommittedSeq() {
+        long[] last = {-1};
+        readAll((batch, seq) -> last[0] = Math.max(last[0], seq));
+        return last[0];
+    }
+
+    /**
+     * Starts a new journal file for the batches applied from now on, when a snapshot is captured.
+     * If the previous file is still there (the last snapshot was not written) the journal is kept
+     * as it is, since the batches of both files must be kept until a snapshot holds them.
+     */
+    void rotate() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (!Files.exists(previous) && Files.exists(file)) {
+                Files.move(file, previous, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println("Error al rotar el diario de cambios: " + e.getMessage());
+            reset();
+        }
+    }
+
+    /**
+     * Deletes the batches moved away by {@link #rotate()}, once a snapshot holds them.
+     */
+    void dropPrevious() {
+        try {
+            Files.deleteIfExists(previous);
+        } catch (IOException e) {
+            System.err.println("Error al borrar el diario de cambios: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the journal, when it cannot be trusted.
+     */
+    void reset() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            Files.deleteIfExists(previous);
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Error al borrar el diario de cambios: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Reads the committed batches of the previous file, then the ones of the current file.
+     *
+     * @param consumer receives each batch with its sequence number
+     */
+    private void readAll(BiConsumer<List<CambioFila>, Long> consumer) {
+        read(previous, consumer);
+        read(file, consumer);
+    }
+
+    /**
+     * Reads the committed batches of a file in order, stopping at the end of the file or at a torn record.
+     *
+     * @param file     the journal file
+     * @param consumer receives each batch with its sequence number
+     */
+    private static void read(Path file, BiConsumer<List<CambioFila>, Long> consumer) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            List<CambioFila> batch = new ArrayList<>();
+            while (true) {
+                byte type = in.readByte();
+                if (type == ENTRY) {
+                    batch.add(readEntry(in));
+                } else if (type == COMMIT) {
+                    consumer.accept(batch, in.readLong());
+                    batch = new ArrayList<>();
+                } else {
+                    throw new IOException("registro desconocido " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // End of the journal; an uncommitted batch at the end is ignored
+        } catch (IOException e) {
+            System.err.println("Diario de cambios dañado, se ignora desde ese punto: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a change with its row.
+     *
+     * @param cambioFila the change with its row
+     * @throws IOException if the write fails
+     */
+    private void writeEntry(CambioFila cambioFila) throws IOException {
+        DTOCambio cambio = cambioFila.cambio();
+        out.writeByte(ENTRY);
+        out.writeLong(cambio.getSeq());
+        out.writeUTF(cambio.getEntidad());
+        out.writeInt(cambio.getIdEntidad());
+        out.writeInt(cambio.getIdRelacionado());
+        out.writeChar(cambio.getOperacion());
+        Object fila = cambioFila.fila();
+        out.writeBoolean(fila != null);
+        switch (fila) {
+            case DTOLibro libro -> RowCodec.writeLibro(out, libro);
+            case DTOAutor autor -> RowCodec.writeAutor(out, autor);
+            case DTOUsuario usuario -> RowCodec.writeUsuario(out, usuario);
+            case DTOPrestamo prestamo -> RowCodec.writePrestamo(out, prestamo);
+            case null, default -> { } // Deleted, or no row
+        }
+    }
+
+    /**
+     * Reads a change with its row.
+     *
+     * @param in the input
+     * @return the change with its row
+     * @throws IOException if the read fails
+     */
+    private static CambioFila readEntry(DataInputStream in) throws IOException {
+        DTOCambio cambio = new DTOCambio(in.readLong(), in.readUTF(), in.readInt(), in.readInt(), in.readChar());
+        if (!in.readBoolean()) {
+            return new CambioFila(cambio, null);
+        }
+        Object fila = switch (cambio.getEntidad()) {
+            case "LIBRO" -> RowCodec.readLibro(in);
+            case "AUTOR" -> RowCodec.readAutor(in);
+            case "USUARIO" -> RowCodec.readUsuario(in);
+            case "PRESTAMO" -> RowCodec.readPrestamo(in);
+            default -> throw new IOException("entidad desconocida " + cambio.getEntidad());
+        };
+        return new CambioFila(cambio, fila);
+    }
+}
@@ -0,0 +1,364 @@
+package cambio;
+
+import autor.AutorService;
+import autor.DAOAutor;
+import autor.DTOAutor;
+import exception.ServiceException;
+import libro.DAOLibro;
+import libro.DTOLibro;
+import libro.LibroService;
+import libro_autor.LibroAutorService;
+import prestamo.DAOPrestamo;
+import prestamo.DTOPrestamo;
+import prestamo.PrestamoService;
+import usuario.DAOUsuario;
+import usuario.DTOUsuario;
+import usuario.UsuarioService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that keeps the in-memory caches coherent across several application instances.
+ * A background poller reads the database change log after the last seen sequence number
+ * and applies only those deltas to the services, instead of reloading full tables.
+ * <p>
+ * The sequence numbers are assigned when a change is inserted but become visible when its transaction
+ * commits, so a lower one can appear after a higher one was read. The numbers skipped by a read are
+ * kept as gaps and read again on every poll until they show up or a grace period ends (a rolled back
+ * transaction leaves its number unused); the last sequence number only moves up to the first open gap,
+ * so a restart polls the gaps again. Every instance records that number in Cambio_Consumidor, and the
+ * changes applied by every instance are deleted periodically.
+ *
+ * @version 1.3
+ */
+public class CambioService {
+    private static final long POLL_INTERVAL_MS = 2000;
+    private static final int BATCH_SIZE = 500;
+    private static final long SNAPSHOT_INTERVAL_MS = 5 * 60 * 1000;
+    private static final long GAP_GRACE_NANOS = TimeUnit.MINUTES.toNanos(1); // Longer than any transaction
+    private static final int MAX_GAPS = 10_000;
+    private static final long RETENTION_INTERVAL_MS = 10 * 60 * 1000;
+    private static final int RETENTION_DAYS = 7; // Instances stopped for longer reload their caches from the tables
+
+    private final DAOCambio daoCambio;
+    private final DAOLibro daoLibro;
+    private final DAOAutor daoAutor;
+    private final DAOUsuario daoUsuario;
+    private final DAOPrestamo daoPrestamo;
+    private final Executor applier;
+    private final String consumidor = UUID.randomUUID().toString();
+    private final long firstSeq;
+    private final TreeMap<Long, Long> gaps = new TreeMap<>(); // Skipped seq -> end of its grace period, poller only
+    private long highSeq; // Last change read, poller only
+    private volatile long lastSeq; // Every change up to it was applied, or given up
+    private volatile long appliedSeq; // Last change applied to the caches, only moved on the applier
+    private ScheduledExecutorService scheduler;
+    private LibroAutorService libroAutorService;
+    private LibroService libroService;
+    private AutorService autorService;
+    private UsuarioService usuarioService;
+    private PrestamoService prestamoService;
+    private SnapshotService snapshotService;
+
+    /**
+     * Initializes the service, remembering the latest change in the log.
+     * It must be created before the services load their caches, so that no change made
+     * in between is missed (applying a change twice is harmless).
+     *
+     * @param applier Executor on which the in-memory changes are applied (e.g. the Swing event thread).
+     * @throws ServiceException If an error occurs while reading the change log.
+     */
+    public CambioService(Executor applier) throws ServiceException {
+        this.daoCambio = new DAOCambio();
+        this.daoLibro = new DAOLibro();
+        this.daoAutor = new DAOAutor();
+        this.daoUsuario = new DAOUsuario();
+        this.daoPrestamo = new DAOPrestamo();
+        this.applier = applier;
+        this.firstSeq = daoCambio.readFirstSeq();
+        this.lastSeq = daoCambio.readLastSeq();
+        this.appliedSeq = lastSeq;
+        this.highSeq = lastSeq;
+    }
+
+    /**
+     * Resumes from the sequence number of caches restored from a local snapshot instead of read
+     * from the database, so the changes made since the snapshot are polled. Must be called before start.
+     *
+     * @param seq the sequence number of the snapshot
+     */
+    public void resumeFrom(long seq) {
+        this.lastSeq = seq;
+        this.appliedSeq = seq;
+        this.highSeq = seq;
+        gaps.clear();
+    }
+
+    /**
+     * Starts polling the change log in the background.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param libroService      Service for managing books.
+     * @param autorService      Service for managing authors.
+     * @param usuarioService    Service for managing users.
+     * @param prestamoService   Service for managing loans.
+     */
+    public void start(LibroAutorService libroAutorService, LibroService libroService, AutorService autorService,
+                      UsuarioService usuarioService, PrestamoService prestamoService) {
+        start(libroAutorService, libroService, autorService, usuarioService, prestamoService, null);
+    }
+
+    /**
+     * Starts polling the change log in the background, journaling the applied changes and writing
+     * snapshots of the caches periodically. The journal after the snapshot is replayed first, so it
+     * must be called on the applier thread.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param libroService      Service for managing books.
+     * @param autorService      Service for managing authors.
+     * @param usuarioService    Service for managing users.
+     * @param prestamoService   Service for managing loans.
+     * @param snapshotService   Local persistence of the caches, or null to disable it (e.g. bounded caches).
+     */
+    public void start(LibroAutorService libroAutorService, LibroService libroService, AutorService autorService,
+                      UsuarioService usuarioService, PrestamoService prestamoService, SnapshotService snapshotService) {
+        this.snapshotService = snapshotService;
+        this.libroAutorService = libroAutorService;
+        this.libroService = libroService;
+        this.autorService = autorService;
+        this.usuarioService = usuarioService;
+        this.prestamoService = prestamoService;
+        // Two threads, so writing a snapshot does not delay the polls
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "cambio-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (snapshotService != null) {
+            if (snapshotService.isLoaded()) {
+                resumeFrom(Math.max(lastSeq, snapshotService.replayJournal(this::apply)));
+            }
+            // The first snapshot is written right away, so the next start is already fast
+            long delay = snapshotService.isLoaded() ? SNAPSHOT_INTERVAL_MS : 0;
+            scheduler.scheduleWithFixedDelay(this::writeSnapshot, delay, SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::prune, 0, RETENTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling the change log.
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last change applied.
+     *
+     * @return the last applied sequence number
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Gets the sequence number of the oldest change kept in the log when the service was created.
+     * Caches restored from a snapshot older than it missed pruned changes.
+     *
+     * @return the oldest sequence number, or 0 if the log was empty
+     */
+    public long getFirstSeq() {
+        return firstSeq;
+    }
+
+    /**
+     * Reads the pending changes and applies them: first the gaps left by previous reads, then the
+     * changes after the last one read. The rows are read from the database on the poller thread;
+     * only the in-memory updates run on the applier.
+     */
+    private void poll() {
+        try {
+            if (!gaps.isEmpty()) {
+                List<DTOCambio> tardios = daoCambio.readSeqs(gaps.keySet().stream().limit(BATCH_SIZE).toList());
+                tardios.forEach(cambio -> gaps.remove(cambio.getSeq()));
+                long now = System.nanoTime();
+                gaps.values().removeIf(deadline -> now - deadline > 0); // Rolled back, never committed
+                if (!tardios.isEmpty() || contiguousSeq() != lastSeq) {
+                    applyBatch(tardios);
+                }
+            }
+            List<DTOCambio> cambios;
+            do {
+                cambios = daoCambio.readSince(highSeq, BATCH_SIZE);
+                if (cambios.isEmpty()) {
+                    return;
+                }
+                long deadline = System.nanoTime() + GAP_GRACE_NANOS;
+                for (DTOCambio cambio : cambios) {
+                    for (long seq = highSeq + 1; seq < cambio.getSeq() && gaps.size() < MAX_GAPS; seq++) {
+                        gaps.put(seq, deadline); // Not committed yet, or rolled back
+                    }
+                    highSeq = cambio.getSeq();
+                }
+                applyBatch(cambios);
+            } while (cambios.size() == BATCH_SIZE);
+        } catch (ServiceException e) {
+            // Keep the sequence numbers, the same changes are retried on the next poll
+            System.err.println("Error al sincronizar cambios: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the rows of a batch of changes and applies them on the applier, journaling the batch with
+     * the sequence number every change up to which was applied.
+     *
+     * @param cambios the changes in sequence order, may be empty to only move the sequence number
+     * @throws ServiceException if an error occurs while reading the rows
+     */
+    private void applyBatch(List<DTOCambio> cambios) throws ServiceException {
+        List<CambioFila> batch = new ArrayList<>();
+        for (DTOCambio cambio : collapse(cambios)) {
+            batch.add(new CambioFila(cambio, readFila(cambio)));
+        }
+        long seq = contiguousSeq();
+        applier.execute(() -> {
+            batch.forEach(cambioFila -> apply(cambioFila.cambio(), cambioFila.fila()));
+            if (snapshotService != null) {
+                snapshotService.journal(batch, seq);
+            }
+            appliedSeq = seq;
+        });
+        lastSeq = seq;
+    }
+
+    /**
+     * Gets the sequence number every change up to which was read: the one before the first open gap.
+     *
+     * @return the sequence number
+     */
+    private long contiguousSeq() {
+        return gaps.isEmpty() ? highSeq : gaps.firstKey() - 1;
+    }
+
+    /**
+     * Records the last change applied by this instance and deletes the changes applied by every
+     * instance. Runs on the poller thread.
+     */
+    private void prune() {
+        try {
+            daoCambio.updateConsumidor(consumidor, appliedSeq);
+            daoCambio.deleteVistos(RETENTION_DAYS, BATCH_SIZE * 20);
+        } catch (ServiceException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps only the latest change of each row, since the current row is read anyway.
+     *
+     * @param cambios the changes in sequence order
+     * @return the latest change of each row, in sequence order
+     */
+    private List<DTOCambio> collapse(List<DTOCambio> cambios) {
+        Map<String, DTOCambio> latest = new LinkedHashMap<>();
+        for (DTOCambio cambio : cambios) {
+            String key = cambio.getEntidad() + ":" + cambio.getIdEntidad() + ":" + cambio.getIdRelacionado();
+            latest.remove(key); // Move it to the end to keep sequence order
+            latest.put(key, cambio);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    /**
+     * Reads the current state of the changed row.
+     *
+     * @param cambio the change
+     * @return the row, or null if it was deleted or the entity has no row (relations)
+     * @throws ServiceException if an error occurs while reading the row
+     */
+    private Object readFila(DTOCambio cambio) throws ServiceException {
+        int id = cambio.getIdEntidad();
+        return switch (cambio.getEntidad()) {
+            case "LIBRO" -> daoLibro.read(id);
+            case "AUTOR" -> daoAutor.read(id);
+            case "USUARIO" -> daoUsuario.read(id);
+            case "PRESTAMO" -> daoPrestamo.read(id);
+            default -> null; // The operation of a relation change says if it exists
+        };
+    }
+
+    /**
+     * Applies a change to the in-memory caches. Runs on the applier, for polled and replayed changes.
+     *
+     * @param cambio the change
+     * @param fila   the current row, or null if it was deleted
+     */
+    private void apply(DTOCambio cambio, Object fila) {
+        int id = cambio.getIdEntidad();
+        switch (cambio.getEntidad()) {
+            case "LIBRO" -> {
+                libroService.applyLibroChange(id, (DTOLibro) fila);
+                if (fila == null) {
+                    // Relations and loans were removed in cascade, which does not fire triggers
+                    libroAutorService.deleteRelationsByLibroId(id);
+                    prestamoService.evictPrestamosByLibroId(id);
+                }
+            }
+            case "AUTOR" -> {
+                autorService.applyAutorChange(id, (DTOAutor) fila);
+                if (fila == null) {
+                    libroAutorService.deleteRelationsByAutorId(id);
+                }
+            }
+            case "USUARIO" -> {
+                usuarioService.applyUsuarioChange(id, (DTOUsuario) fila);
+                if (fila == null) {
+                    prestamoService.evictPrestamosByUsuarioId(id);
+                }
+            }
+            case "PRESTAMO" -> prestamoService.applyPrestamoChange(id, (DTOPrestamo) fila);
+            case "LIBRO_AUTOR" -> libroAutorService.applyRelationChange(id, cambio.getIdRelacionado(), cambio.getOperacion() != 'D');
+            default -> { } // Entity not cached by this application
+        }
+    }
+
+    /**
+     * Writes a snapshot of the caches with the last applied change. The state is captured on the applier,
+     * between two batches of changes, and written on the scheduler thread, so the applier (the Swing
+     * event thread) is not blocked by the encoding and the disk writes.
+     */
+    private void writeSnapshot() {
+        CompletableFuture<SnapshotService.Captura> captura = new CompletableFuture<>();
+        applier.execute(() -> {
+            try {
+                captura.complete(snapshotService.capture(appliedSeq, libroAutorService, prestamoService));
+            } catch (RuntimeException e) {
+                captura.completeExceptionally(e);
+            }
+        });
+        try {
+            snapshotService.write(captura.get(), libroService, autorService, usuarioService);
+        } catch (ServiceException e) {
+            System.err.println(e.getMessage());
+        } catch (ExecutionException e) {
+            System.err.println("Error al capturar la instantánea de la caché: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Stopped
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package cambio;
+
+import exception.ServiceException;
+import jdbc.ConnectionPool;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The DAOCambio class reads the Cambio (Change log) table, which is filled by database triggers
+ * on every write to the other tables, and the Cambio_Consumidor table, where each application instance
+ * records the last change it has applied so the changes seen by every instance can be pruned.
+ *
+ * @version 1.2
+ */
+public class DAOCambio {
+    private static final String READ_LAST_SEQ = "SELECT COALESCE(MAX(seq), 0) FROM Cambio";
+    private static final String READ_FIRST_SEQ = "SELECT COALESCE(MIN(seq), 0) FROM Cambio";
+    private static final String READ_SINCE = "SELECT * FROM Cambio WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static final String READ_SEQS = "SELECT * FROM Cambio WHERE seq IN (%s) ORDER BY seq";
+    private static final String UPSERT_CONSUMIDOR = "INSERT INTO Cambio_Consumidor (id, seq) VALUES (?, ?) "
+            + "ON DUPLICATE KEY UPDATE seq = VALUES(seq), fecha = CURRENT_TIMESTAMP";
+    private static final String DELETE_CONSUMIDORES = "DELETE FROM Cambio_Consumidor WHERE fecha < NOW() - INTERVAL ? DAY";
+    // The change at the minimum is kept, so the log is never empty and its first seq tells what was pruned
+    private static final String DELETE_VISTOS = "DELETE FROM Cambio WHERE seq < "
+            + "(SELECT MIN(seq) FROM Cambio_Consumidor WHERE fecha >= NOW() - INTERVAL ? DAY) LIMIT ?";
+
+    /**
+     * Initializes a new DAOCambio instance. Each statement runs on its own connection, borrowed from the {@link ConnectionPool}.
+     */
+    public DAOCambio() {
+    }
+
+    /**
+     * Reads the sequence number of the latest change.
+     *
+     * @return the latest sequence number, or 0 if the log is empty
+     * @throws ServiceException if there is an error during the read.
+     */
+    public long readLastSeq() throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery(READ_LAST_SEQ)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer el último cambio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the sequence number of the oldest change kept in the log. The changes before it were pruned.
+     *
+     * @return the oldest sequence number, or 0 if the log is empty
+     * @throws ServiceException if there is an error during the read.
+     */
+    public long readFirstSeq() throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery(READ_FIRST_SEQ)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer el primer cambio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the changes after the given sequence number, in order.
+     *
+     * @param seq    the last sequence number already applied
+     * @param limite the maximum number of changes to read
+     * @return the changes found, or an empty list if there are none
+     * @throws ServiceException if there is an error during the read.
+     */
+    public List<DTOCambio> readSince(long seq, int limite) throws ServiceException {
+        List<DTOCambio> cambios = new ArrayList<>();
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ_SINCE)) {
+            pst.setLong(1, seq);
+            pst.setInt(2, limite);
+            ResultSet rs = pst.executeQuery();
+            while (rs.next()) {
+                cambios.add(getCambio(rs));
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer cambios: " + e.getMessage());
+        }
+        return cambios;
+    }
+
+    /**
+     * Reads the changes with the given sequence numbers, e.g. the ones skipped by a previous read
+     * because their transaction had not committed yet.
+     *
+     * @param seqs the sequence numbers
+     * @return the changes found, in order; the ones not committed yet or rolled back are missing
+     * @throws ServiceException if there is an error during the read.
+     */
+    public List<DTOCambio> readSeqs(Collection<Long> seqs) throws ServiceException {
+        List<DTOCambio> cambios = new ArrayList<>();
+        if (seqs.isEmpty()) {
+            return cambios;
+        }
+        String sql = String.format(READ_SEQS, String.join(", ", Collections.nCopies(seqs.size(), "?")));
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(sql)) {
+            int i = 1;
+            for (long seq : seqs) {
+                pst.setLong(i++, seq);
+            }
+            ResultSet rs = pst.executeQuery();
+            while (rs.next()) {
+                cambios.add(getCambio(rs));
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer cambios: " + e.getMessage());
+        }
+        return cambios;
+    }
+
+    /**
+     * Records the last change applied by an application instance.
+     *
+     * @param consumidor the id of the instance
+     * @param seq        every change up to this sequence number was applied
+     * @throws ServiceException if there is an error during the write.
+     */
+    public void updateConsumidor(String consumidor, long seq) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(UPSERT_CONSUMIDOR)) {
+            pst.setString(1, consumidor);
+            pst.setLong(2, seq);
+            pst.executeUpdate();
+        } catch (SQLException e) {
+            throw new ServiceException("Error al registrar el consumidor de cambios: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the changes applied by every instance seen in the last days, in batches, and forgets
+     * the instances not seen since. An instance restarted after that reloads its caches from the tables.
+     *
+     * @param dias   the days an instance is waited for
+     * @param limite the maximum number of changes deleted per statement
+     * @return the number of changes deleted
+     * @throws ServiceException if there is an error during the delete.
+     */
+    public int deleteVistos(int dias, int limite) throws ServiceException {
+        int total = 0;
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement consumidores = conexion.prepareStatement(DELETE_CONSUMIDORES);
+             PreparedStatement vistos = conexion.prepareStatement(DELETE_VISTOS)) {
+            consumidores.setInt(1, dias);
+            consumidores.executeUpdate();
+            vistos.setInt(1, dias);
+            vistos.setInt(2, limite);
+            int borrados;
+            do {
+                borrados = vistos.executeUpdate(); // Short statements, the triggers are not blocked for long
+                total += borrados;
+            } while (borrados == limite);
+        } catch (SQLException e) {
+            throw new ServiceException("Error al borrar cambios: " + e.getMessage());
+        }
+        return total;
+    }
+
+    /**
+     * Converts a ResultSet row into a DTOCambio object.
+     *
+     * @param rs The ResultSet from a query.
+     * @return A DTOCambio object representing the change.
+     * @throws ServiceException if there is an error during the conversion.
+     */
+    private DTOCambio getCambio(ResultSet rs) throws ServiceException {
+        try {
+            long seq = rs.getLong("seq");
+            String entidad = rs.getString("entidad");
+            int idEntidad = rs.getInt("idEntidad");
+            int idRelacionado = rs.getInt("idRelacionado"); // 0 when NULL
+            char operacion = rs.getString("operacion").charAt(0);
+            return new DTOCambio(seq, entidad, idEntidad, idRelacionado, operacion);
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer ResultSet: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cambio;
+
+/**
+ * The type DTOCambio class encapsulate the details for a row of the Cambio (Change log) table.
+ *
+ * @version 1.0
+ */
+public class DTOCambio {
+    private final long seq;
+    private final String entidad;
+    private final int idEntidad;
+    private final int idRelacionado;
+    private final char operacion;
+
+    /**
+     * Instantiates a new Dto cambio (Change).
+     *
+     * @param seq           the sequence number of the change
+     * @param entidad       the changed entity (LIBRO, AUTOR, USUARIO, PRESTAMO or LIBRO_AUTOR)
+     * @param idEntidad     the id of the changed row (the book id for LIBRO_AUTOR)
+     * @param idRelacionado the author id for LIBRO_AUTOR, 0 otherwise
+     * @param operacion     the operation: I (insert), U (update) or D (delete)
+     */
+    public DTOCambio(long seq, String entidad, int idEntidad, int idRelacionado, char operacion) {
+        this.seq = seq;
+        this.entidad = entidad;
+        this.idEntidad = idEntidad;
+        this.idRelacionado = idRelacionado;
+        this.operacion = operacion;
+    }
+
+    /**
+     * Gets seq.
+     *
+     * @return the sequence number of the change
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Gets entidad.
+     *
+     * @return the changed entity
+     */
+    public String getEntidad() {
+        return entidad;
+    }
+
+    /**
+     * Gets idEntidad.
+     *
+     * @return the id of the changed row
+     */
+    public int getIdEntidad() {
+        return idEntidad;
+    }
+
+    /**
+     * Gets idRelacionado.
+     *
+     * @return the author id for LIBRO_AUTOR changes, 0 otherwise
+     */
+    public int getIdRelacionado() {
+        return idRelacionado;
+    }
+
+    /**
+     * Gets operacion.
+     *
+     * @return the operation: I (insert), U (update) or D (delete)
+     */
+    public char getOperacion() {
+        return operacion;
+    }
+
+    /**
+     * Returns a string representation of the DTOCambio object.
+     *
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "Seq: " + seq + "\n" +
+                "Entidad: " + entidad + "\n" +
+                "ID: " + idEntidad + "\n" +
+                "ID relacionado: " + idRelacionado + "\n" +
+                "Operación: " + operacion;
+    }
+}
@@ -0,0 +1,174 @@
+package cambio;
+
+import autor.DAOAutor;
+import autor.DTOAutor;
+import libro.DAOLibro;
+import libro.DTOLibro;
+import prestamo.DTOPrestamo;
+import usuario.DAOUsuario;
+import usuario.DTOUsuario;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Binary encoding of the cached rows, shared by the snapshot and the journal.
+ * Dates are written as epoch days.
+ *
+ * @version 1.0
+ */
+final class RowCodec {
+
+    /**
+     * Not instantiable.
+     */
+    private RowCodec() {
+    }
+
+    /**
+     * Writes a book.
+     *
+     * @param out   the output
+     * @param libro the book
+     * @throws IOException if the write fails
+     */
+    static void writeLibro(DataOutput out, DTOLibro libro) throws IOException {
+        out.writeInt(libro.id());
+        out.writeInt(libro.version());
+        out.writeUTF(libro.titulo());
+        out.writeUTF(libro.isbn());
+    }
+
+    /**
+     * Reads a book.
+     *
+     * @param in the input
+     * @return the book
+     * @throws IOException if the read fails
+     */
+    static DTOLibro readLibro(DataInput in) throws IOException {
+        int id = in.readInt();
+        int version = in.readInt();
+        return new DTOLibro(id, DAOLibro.internTitulo(in.readUTF()), in.readUTF(), version);
+    }
+
+    /**
+     * Writes an author.
+     *
+     * @param out   the output
+     * @param autor the author
+     * @throws IOException if the write fails
+     */
+    static void writeAutor(DataOutput out, DTOAutor autor) throws IOException {
+        out.writeInt(autor.id());
+        out.writeInt(autor.version());
+        out.writeUTF(autor.nombre());
+    }
+
+    /**
+     * Reads an author.
+     *
+     * @param in the input
+     * @return the author
+     * @throws IOException if the read fails
+     */
+    static DTOAutor readAutor(DataInput in) throws IOException {
+        int id = in.readInt();
+        int version = in.readInt();
+        return new DTOAutor(id, DAOAutor.internNombre(in.readUTF()), version);
+    }
+
+    /**
+     * Writes a user.
+     *
+     * @param out     the output
+     * @param usuario the user
+     * @throws IOException if the write fails
+     */
+    static void writeUsuario(DataOutput out, DTOUsuario usuario) throws IOException {
+        out.writeInt(usuario.id());
+        out.writeInt(usuario.version());
+        out.writeUTF(usuario.nombre());
+    }
+
+    /**
+     * Reads a user.
+     *
+     * @param in the input
+     * @return the user
+     * @throws IOException if the read fails
+     */
+    static DTOUsuario readUsuario(DataInput in) throws IOException {
+        int id = in.readInt();
+        int version = in.readInt();
+        return new DTOUsuario(id, DAOUsuario.internNombre(in.readUTF()), version);
+    }
+
+    /**
+     * Writes a loan.
+     *
+     * @param out      the output
+     * @param prestamo the loan
+     * @throws IOException if the write fails
+     */
+    static void writePrestamo(DataOutput out, DTOPrestamo prestamo) throws IOException {
+        writePrestamo(out, prestamo.id(), prestamo.version(), prestamo.usuarioId(), prestamo.libroId(),
+                (int) prestamo.fechaInicio().toEpochDay(), (int) prestamo.fechaFin().toEpochDay());
+    }
+
+    /**
+     * Writes a loan from its columns.
+     *
+     * @param out       the output
+     * @param id        the loan id
+     * @param version   the version
+     * @param usuarioId the user id
+     * @param libroId   the book id
+     * @param inicio    the start date, as epoch day
+     * @param fin       the end date, as epoch day
+     * @throws IOException if the write fails
+     */
+    static void writePrestamo(DataOutput out, int id, int version, int usuarioId, int libroId, int inicio, int fin)
+            throws IOException {
+        out.writeInt(id);
+        out.writeInt(version);
+        out.writeInt(usuarioId);
+        out.writeInt(libroId);
+        out.writeInt(inicio);
+        out.writeInt(fin);
+    }
+
+    /**
+     * Reads a loan.
+     *
+     * @param in the input
+     * @return the loan
+     * @throws IOException if the read fails
+     */
+    static DTOPrestamo readPrestamo(DataInput in) throws IOException {
+        int id = in.readInt();
+        int version = in.readInt();
+        int usuarioId = in.readInt();
+        int libroId = in.readInt();
+        int inicio = in.readInt();
+        int fin = in.readInt();
+        return toPrestamo(id, version, usuarioId, libroId, inicio, fin);
+    }
+
+    /**
+     * Builds a loan from its columns.
+     *
+     * @param id        the loan id
+     * @param version   the version
+     * @param usuarioId the user id
+     * @param libroId   the book id
+     * @param inicio    the start date, as epoch day
+     * @param fin       the end date, as epoch day
+     * @return the loan
+     */
+    static DTOPrestamo toPrestamo(int id, int version, int usuarioId, int libroId, int inicio, int fin) {
+        return new DTOPrestamo(id, LocalDate.ofEpochDay(inicio), LocalDate.ofEpochDay(fin), usuarioId, libroId, version);
+    }
+}
@@ -0,0 +1,243 @@
+package cambio;
+
+import autor.AutorService;
+import autor.DTOAutor;
+import exception.ServiceException;
+import libro.DTOLibro;
+import libro.LibroService;
+import libro_autor.DTOLibroAutor;
+import libro_autor.LibroAutorService;
+import prestamo.PrestamoService;
+import prestamo.PrestamoSnapshot;
+import prestamo.PrestamoStore;
+import usuario.DTOUsuario;
+import usuario.UsuarioService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Local persistence of the in-memory caches, so a restart rebuilds them from disk instead of reading
+ * every table. A binary snapshot holds every cached row and the sequence number of the last change
+ * applied to them; the changes applied afterwards are appended to a journal. On restart the services
+ * are built from the snapshot, the journal is replayed, and only the changes of the database change
+ * log after the last journaled one are polled.
+ * <p>
+ * The journal is written on the applier thread, so it always matches the caches. The snapshot is captured
+ * on the applier (see {@link #capture}) but encoded and written on another thread.
+ *
+ * @version 1.4
+ */
+public class SnapshotService {
+    private static final int MAGIC = 0x4249424C; // "BIBL"
+    private static final int FORMAT = 1;
+    private static final String SNAPSHOT_FILE = "cache.snapshot";
+    private static final String JOURNAL_FILE = "cache.journal";
+
+    private final Path directory;
+    private final CambioJournal journal;
+    private volatile long snapshotSeq = -1;
+
+    /**
+     * Instantiates the service over a directory, created on the first write.
+     *
+     * @param directory the directory of the snapshot and journal files
+     */
+    public SnapshotService(Path directory) {
+        this.directory = directory;
+        this.journal = new CambioJournal(directory.resolve(JOURNAL_FILE));
+    }
+
+    /**
+     * Reads the snapshot. A missing or damaged snapshot, one newer than the database change log
+     * (e.g. the database was recreated), or one older than the changes kept in the log (the ones after it
+     * were pruned), is discarded together with the journal.
+     *
+     * @param firstSeq the sequence number of the oldest change kept in the database
+     * @param maxSeq   the sequence number of the latest change in the database
+     * @return the snapshot contents, or null if the caches must be read from the database
+     */
+    public CacheState load(long firstSeq, long maxSeq) {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            journal.reset();
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("formato no reconocido");
+            }
+            long seq = in.readLong();
+            if (seq > maxSeq || journal.lastCommittedSeq() > maxSeq) {
+                throw new IOException("posterior al registro de cambios de la base de datos");
+            }
+            if (seq < firstSeq - 1) {
+                throw new IOException("anterior a los cambios conservados en la base de datos");
+            }
+            List<DTOLibro> libros = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                libros.add(RowCodec.readLibro(in));
+            }
+            List<DTOAutor> autores = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                autores.add(RowCodec.readAutor(in));
+            }
+            List<DTOUsuario> usuarios = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                usuarios.add(RowCodec.readUsuario(in));
+            }
+            List<DTOLibroAutor> relaciones = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                relaciones.add(new DTOLibroAutor(in.readInt(), in.readInt()));
+            }
+            int[] prestamos = new int[in.readInt() * 6];
+            for (int i = 0; i < prestamos.length; i++) {
+                prestamos[i] = in.readInt();
+            }
+            if (in.readInt() != MAGIC) {
+                throw new IOException("incompleta");
+            }
+            snapshotSeq = seq;
+            return new CacheState(seq, libros, autores, usuarios, relaciones, prestamos);
+        } catch (IOException e) {
+            System.err.println("Instantánea de la caché descartada: " + e.getMessage());
+            journal.reset();
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the caches were built from a snapshot of this service.
+     *
+     * @return true if a snapshot was loaded or written
+     */
+    public boolean isLoaded() {
+        return snapshotSeq >= 0;
+    }
+
+    /**
+     * Captures the state to save, on the applier: the sequence number of the last change applied, a snapshot
+     * of the loans and the book-author relations, which are cheap to take. The journal is started again, so
+     * the changes applied while the snapshot is written are kept. Only full caches can be saved.
+     *
+     * @param seq               the sequence number of the last change applied to the caches
+     * @param libroAutorService Service for managing book-author relations.
+     * @param prestamoService   Service for managing loans.
+     * @return the captured state, to be written by {@link #write}
+     */
+    Captura capture(long seq, LibroAutorService libroAutorService, PrestamoService prestamoService) {
+        journal.rotate();
+        return new Captura(seq, libroAutorService.findAllRelations(), prestamoService.openSnapshot());
+    }
+
+    /**
+     * Writes a snapshot of the caches, replacing the previous one atomically, and drops the journal
+     * before the capture. Runs outside the applier, so the encoding and the disk writes do not block it.
+     * <p>
+     * The books, authors and users are immutable records read from the concurrent caches while they are
+     * written, so a row changed after the capture may be saved in its new state; the journal after the
+     * capture holds that change and replays it over the snapshot on restart, which is harmless.
+     *
+     * @param captura        the state captured on the applier, released once written
+     * @param libroService   Service for managing books.
+     * @param autorService   Service for managing authors.
+     * @param usuarioService Service for managing users.
+     * @throws ServiceException if the snapshot cannot be written
+     */
+    void write(Captura captura, LibroService libroService, AutorService autorService, UsuarioService usuarioService)
+            throws ServiceException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (PrestamoSnapshot prestamos = captura.prestamos()) {
+            Files.createDirectories(directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(captura.seq());
+                List<DTOLibro> libros = new ArrayList<>(libroService.getCachedLibros()); // Counted as copied
+                out.writeInt(libros.size());
+                for (DTOLibro libro : libros) {
+                    RowCodec.writeLibro(out, libro);
+                }
+                List<DTOAutor> autores = new ArrayList<>(autorService.getCachedAutores());
+                out.writeInt(autores.size());
+                for (DTOAutor autor : autores) {
+                    RowCodec.writeAutor(out, autor);
+                }
+                List<DTOUsuario> usuarios = new ArrayList<>(usuarioService.getCachedUsuarios());
+                out.writeInt(usuarios.size());
+                for (DTOUsuario usuario : usuarios) {
+                    RowCodec.writeUsuario(out, usuario);
+                }
+                out.writeInt(captura.relaciones().size());
+                for (DTOLibroAutor relacion : captura.relaciones()) {
+                    out.writeInt(relacion.getLibroId());
+                    out.writeInt(relacion.getAutorId());
+                }
+                writePrestamos(out, prestamos.getStore());
+                out.writeInt(MAGIC);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ServiceException("Error al guardar la instantánea de la caché: " + e.getMessage());
+        }
+        snapshotSeq = captura.seq();
+        journal.dropPrevious(); // Its changes are in the snapshot
+    }
+
+    /**
+     * Writes the live loans of a store, with their number first.
+     *
+     * @param out   the snapshot file
+     * @param store the loan store
+     * @throws IOException if the write fails
+     */
+    private static void writePrestamos(DataOutputStream out, PrestamoStore store) throws IOException {
+        out.writeInt(store.size());
+        for (int row = 0; row < store.rowCount(); row++) {
+            if (store.isLive(row)) {
+                RowCodec.writePrestamo(out, store.getId(row), store.getVersion(row), store.getUsuarioId(row),
+                        store.getLibroId(row), store.getInicio(row), store.getFin(row));
+            }
+        }
+    }
+
+    /**
+     * Replays the journaled changes after the loaded snapshot.
+     *
+     * @param apply applies a change with its row to the caches
+     * @return the sequence number of the last change replayed, or the snapshot's if none
+     */
+    long replayJournal(BiConsumer<DTOCambio, Object> apply) {
+        return journal.replay(snapshotSeq, apply);
+    }
+
+    /**
+     * Appends a batch of applied changes to the journal.
+     *
+     * @param batch the applied changes with their rows
+     * @param seq   the sequence number of the last change of the batch
+     */
+    void journal(List<CambioFila> batch, long seq) {
+        journal.append(batch, seq);
+    }
+
+    /**
+     * State captured on the applier for a snapshot.
+     *
+     * @param seq        the sequence number of the last change applied to the caches
+     * @param relaciones the book-author relations
+     * @param prestamos  the open snapshot of the loans
+     */
+    record Captura(long seq, List<DTOLibroAutor> relaciones, PrestamoSnapshot prestamos) {
+    }
+}
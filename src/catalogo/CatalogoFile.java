@@ -0,0 +1,292 @@
+package catalogo;
+
+import exception.ServiceException;
+import libro.Isbn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only catalog of books, authors and their relations, memory-mapped from the binary file
+ * exported by {@link CatalogoWriter}, for read-mostly deployments such as public catalog kiosks.
+ * Opening it only maps the file: lookups read the fixed-width records in place with binary searches,
+ * and only the strings that are asked for are decoded, so no DTO is built and startup does not depend
+ * on the size of the catalog. The pages are shared through the OS page cache by every process that
+ * maps the same file.
+ * <p>
+ * Layout, big-endian, sections in this order:
+ * <ul>
+ *     <li>Header (32 bytes): magic, format, books, ISBN entries, authors, relations (ints)
+ *     and the offset of the string section (long).</li>
+ *     <li>Books sorted by id (32 bytes): id, version, packed ISBN (long, 0 if not well formed),
+ *     offset and length of the title, offset and length of the ISBN.</li>
+ *     <li>ISBN index sorted by packed ISBN (16 bytes): packed ISBN (long), book record, padding.</li>
+ *     <li>Authors sorted by id (16 bytes): id, version, offset and length of the name.</li>
+ *     <li>Relations sorted by book, then by author (8 bytes): book id, author id.</li>
+ *     <li>Relations sorted by author, then by book (8 bytes): author id, book id.</li>
+ *     <li>Strings, UTF-8, up to the end of the file.</li>
+ * </ul>
+ * The catalog is a copy taken when it was exported; changes made afterwards are only seen once
+ * it is exported again. Reads never change the buffer position, so it can be shared by threads.
+ *
+ * @version 1.1
+ */
+public class CatalogoFile {
+    static final int MAGIC = 0x4341544C; // "CATL"
+    static final int FORMAT = 1;
+    static final int HEADER_BYTES = 32;
+    static final int LIBRO_BYTES = 32;
+    static final int ISBN_BYTES = 16;
+    static final int AUTOR_BYTES = 16;
+    static final int RELACION_BYTES = 8;
+
+    private final ByteBuffer buffer;
+    private final int libros;
+    private final int isbns;
+    private final int autores;
+    private final int relaciones;
+    private final int librosOffset;
+    private final int isbnsOffset;
+    private final int autoresOffset;
+    private final int porLibroOffset;
+    private final int porAutorOffset;
+    private final int textosOffset;
+
+    /**
+     * Instantiates a catalog over a mapped file, checking its header.
+     *
+     * @param buffer the mapped file
+     * @throws ServiceException if the file is not a catalog or is truncated
+     */
+    private CatalogoFile(ByteBuffer buffer) throws ServiceException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new ServiceException("El fichero no es un catálogo válido");
+        }
+        this.buffer = buffer;
+        this.libros = buffer.getInt(8);
+        this.isbns = buffer.getInt(12);
+        this.autores = buffer.getInt(16);
+        this.relaciones = buffer.getInt(20);
+        this.librosOffset = HEADER_BYTES;
+        this.isbnsOffset = librosOffset + libros * LIBRO_BYTES;
+        this.autoresOffset = isbnsOffset + isbns * ISBN_BYTES;
+        this.porLibroOffset = autoresOffset + autores * AUTOR_BYTES;
+        this.porAutorOffset = porLibroOffset + relaciones * RELACION_BYTES;
+        this.textosOffset = porAutorOffset + relaciones * RELACION_BYTES;
+        if (buffer.getLong(24) != textosOffset) {
+            throw new ServiceException("El catálogo está dañado");
+        }
+    }
+
+    /**
+     * Maps a catalog file. The mapping stays valid after the file is replaced by a new export.
+     *
+     * @param file the catalog file
+     * @return the catalog
+     * @throws ServiceException if the file cannot be mapped or is not a catalog
+     */
+    public static CatalogoFile open(Path file) throws ServiceException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new CatalogoFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new ServiceException("Error al abrir el catálogo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the number of books.
+     *
+     * @return the number of books
+     */
+    public int countLibros() {
+        return libros;
+    }
+
+    /**
+     * Gets the number of authors.
+     *
+     * @return the number of authors
+     */
+    public int countAutores() {
+        return autores;
+    }
+
+    /**
+     * Checks if a book is in the catalog.
+     *
+     * @param libroId the book id
+     * @return true if it is
+     */
+    public boolean containsLibro(int libroId) {
+        return findRecord(librosOffset, LIBRO_BYTES, libros, libroId) >= 0;
+    }
+
+    /**
+     * Gets the title of a book.
+     *
+     * @param libroId the book id
+     * @return the title
+     * @throws ServiceException if the book is not found
+     */
+    public String getTitulo(int libroId) throws ServiceException {
+        return readTexto(libroRecord(libroId) + 16);
+    }
+
+    /**
+     * Gets the ISBN of a book, as it was stored.
+     *
+     * @param libroId the book id
+     * @return the ISBN
+     * @throws ServiceException if the book is not found
+     */
+    public String getIsbn(int libroId) throws ServiceException {
+        return readTexto(libroRecord(libroId) + 24);
+    }
+
+    /**
+     * Finds a book by ISBN. ISBN-10 and ISBN-13 forms of the same code find the same book.
+     *
+     * @param isbn the ISBN, with or without hyphens
+     * @return the book id
+     * @throws ServiceException if the ISBN is not valid or the book is not found
+     */
+    public int findLibroIdByIsbn(String isbn) throws ServiceException {
+        long packed = Isbn.pack(isbn);
+        int low = 0;
+        int high = isbns;
+        while (low < high) { // First entry not lower than the ISBN
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(isbnsOffset + mid * ISBN_BYTES) < packed) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == isbns || buffer.getLong(isbnsOffset + low * ISBN_BYTES) != packed) {
+            throw new ServiceException("Libro no encontrado", false);
+        }
+        int record = buffer.getInt(isbnsOffset + low * ISBN_BYTES + 8);
+        return buffer.getInt(librosOffset + record * LIBRO_BYTES);
+    }
+
+    /**
+     * Gets the name of an author.
+     *
+     * @param autorId the author id
+     * @return the name
+     * @throws ServiceException if the author is not found
+     */
+    public String getNombreAutor(int autorId) throws ServiceException {
+        int record = findRecord(autoresOffset, AUTOR_BYTES, autores, autorId);
+        if (record < 0) {
+            throw new ServiceException("Autor no encontrado", false);
+        }
+        return readTexto(autoresOffset + record * AUTOR_BYTES + 8);
+    }
+
+    /**
+     * Gets the authors of a book.
+     *
+     * @param libroId the book id
+     * @return the author ids, in id order
+     */
+    public int[] findAutorIdsByLibroId(int libroId) {
+        return related(porLibroOffset, libroId);
+    }
+
+    /**
+     * Gets the books of an author.
+     *
+     * @param autorId the author id
+     * @return the book ids, in id order
+     */
+    public int[] findLibroIdsByAutorId(int autorId) {
+        return related(porAutorOffset, autorId);
+    }
+
+    /**
+     * Gets the offset of the record of a book.
+     *
+     * @param libroId the book id
+     * @return the offset of the record
+     * @throws ServiceException if the book is not found
+     */
+    private int libroRecord(int libroId) throws ServiceException {
+        int record = findRecord(librosOffset, LIBRO_BYTES, libros, libroId);
+        if (record < 0) {
+            throw new ServiceException("Libro no encontrado", false);
+        }
+        return librosOffset + record * LIBRO_BYTES;
+    }
+
+    /**
+     * Finds a record by id with a binary search over a section sorted by id.
+     *
+     * @param offset the offset of the section
+     * @param width  the width of its records, the id being the first int
+     * @param count  the number of records
+     * @param id     the id
+     * @return the record number, or -1 if not found
+     */
+    private int findRecord(int offset, int width, int count, int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = buffer.getInt(offset + mid * width);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the ids related to an id from a relation section sorted by it.
+     *
+     * @param offset the offset of the section
+     * @param id     the id the section is sorted by
+     * @return the related ids
+     */
+    private int[] related(int offset, int id) {
+        int low = 0;
+        int high = relaciones;
+        while (low < high) { // First relation of the id
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(offset + mid * RELACION_BYTES) < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < relaciones && buffer.getInt(offset + end * RELACION_BYTES) == id) {
+            end++;
+        }
+        int[] ids = new int[end - low];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = buffer.getInt(offset + (low + i) * RELACION_BYTES + 4);
+        }
+        return ids;
+    }
+
+    /**
+     * Decodes a string of the string section.
+     *
+     * @param position the position of its offset and length in a record
+     * @return the string
+     */
+    private String readTexto(int position) {
+        byte[] bytes = new byte[buffer.getInt(position + 4)];
+        buffer.get(textosOffset + buffer.getInt(position), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
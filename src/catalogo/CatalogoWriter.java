@@ -0,0 +1,220 @@
+package catalogo;
+
+import autor.DAOAutor;
+import exception.ServiceException;
+import libro.DAOLibro;
+import libro.Isbn;
+import libro_autor.DAOLibroAutor;
+import libro_autor.DTOLibroAutor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exports the books, authors and book-author relations into the binary catalog file read by
+ * {@link CatalogoFile}. The rows are streamed from the database into primitive columns, sorted,
+ * and written with the layout described there.
+ *
+ * @version 1.0
+ */
+public final class CatalogoWriter {
+
+    private CatalogoWriter() {
+    }
+
+    /**
+     * Exports the catalog from the database. The file is replaced atomically, so the processes that
+     * have the previous one mapped keep reading it until they open it again.
+     *
+     * @param file the catalog file
+     * @throws ServiceException if the tables cannot be read or the file cannot be written
+     */
+    public static void export(Path file) throws ServiceException {
+        Columnas libros = new Columnas();
+        new DAOLibro().readAll(libro -> libros.add(libro.id(), libro.version(), libro.titulo(), libro.isbn()));
+        Columnas autores = new Columnas();
+        new DAOAutor().readAll(autor -> autores.add(autor.id(), autor.version(), autor.nombre(), null));
+        write(file, libros, autores, new DAOLibroAutor().readAll());
+    }
+
+    /**
+     * Writes the catalog file.
+     *
+     * @param file       the catalog file
+     * @param libros     the books
+     * @param autores    the authors
+     * @param relaciones the book-author relations
+     * @throws ServiceException if the file cannot be written or exceeds the mappable size
+     */
+    static void write(Path file, Columnas libros, Columnas autores, List<DTOLibroAutor> relaciones) throws ServiceException {
+        libros.sortById();
+        autores.sortById();
+        long[] porLibro = new long[relaciones.size()];
+        long[] porAutor = new long[relaciones.size()];
+        for (int i = 0; i < relaciones.size(); i++) {
+            DTOLibroAutor relacion = relaciones.get(i);
+            porLibro[i] = pack(relacion.getLibroId(), relacion.getAutorId());
+            porAutor[i] = pack(relacion.getAutorId(), relacion.getLibroId());
+        }
+        Arrays.sort(porLibro);
+        Arrays.sort(porAutor);
+        // ISBN index: records of the books with a well-formed ISBN, sorted by packed ISBN
+        long[] packed = new long[libros.size];
+        int isbnCount = 0;
+        for (int i = 0; i < libros.size; i++) {
+            if (Isbn.isWellFormed(libros.isbns[i])) {
+                packed[i] = Isbn.pack(libros.isbns[i]);
+                isbnCount++;
+            }
+        }
+        Integer[] porIsbn = new Integer[isbnCount];
+        for (int i = 0, n = 0; i < libros.size; i++) {
+            if (packed[i] != 0) {
+                porIsbn[n++] = i;
+            }
+        }
+        Arrays.sort(porIsbn, (a, b) -> Long.compare(packed[a], packed[b])); // Stable, ties keep id order
+
+        long textosOffset = CatalogoFile.HEADER_BYTES + (long) libros.size * CatalogoFile.LIBRO_BYTES
+                + (long) isbnCount * CatalogoFile.ISBN_BYTES + (long) autores.size * CatalogoFile.AUTOR_BYTES
+                + 2L * relaciones.size() * CatalogoFile.RELACION_BYTES;
+        ByteArrayOutputStream textos = new ByteArrayOutputStream(); // String section, written after the records
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(CatalogoFile.MAGIC);
+                out.writeInt(CatalogoFile.FORMAT);
+                out.writeInt(libros.size);
+                out.writeInt(isbnCount);
+                out.writeInt(autores.size);
+                out.writeInt(relaciones.size());
+                out.writeLong(textosOffset); // The strings take the rest of the file
+                for (int i = 0; i < libros.size; i++) {
+                    out.writeInt(libros.ids[i]);
+                    out.writeInt(libros.versiones[i]);
+                    out.writeLong(packed[i]);
+                    writeTexto(out, textos, libros.textos[i]);
+                    writeTexto(out, textos, libros.isbns[i]);
+                }
+                for (int record : porIsbn) {
+                    out.writeLong(packed[record]);
+                    out.writeInt(record);
+                    out.writeInt(0); // Padding, records stay 8-byte aligned
+                }
+                for (int i = 0; i < autores.size; i++) {
+                    out.writeInt(autores.ids[i]);
+                    out.writeInt(autores.versiones[i]);
+                    writeTexto(out, textos, autores.textos[i]);
+                }
+                for (long relacion : porLibro) {
+                    out.writeLong(relacion);
+                }
+                for (long relacion : porAutor) {
+                    out.writeLong(relacion);
+                }
+                if (textosOffset + textos.size() > Integer.MAX_VALUE) {
+                    throw new IOException("supera el tamaño máximo de 2 GB");
+                }
+                textos.writeTo(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new ServiceException("Error al exportar el catálogo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Packs a relation so that relations sort by the first id, then by the second.
+     *
+     * @param id      the id the relations are sorted by
+     * @param otroId  the related id
+     * @return the packed relation
+     */
+    private static long pack(int id, int otroId) {
+        return (long) id << 32 | (otroId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Appends a string to the string section and writes its offset and length in the record.
+     *
+     * @param out    the records
+     * @param textos the string section
+     * @param texto  the string, null is written as empty
+     * @throws IOException if the write fails
+     */
+    private static void writeTexto(DataOutputStream out, ByteArrayOutputStream textos, String texto) throws IOException {
+        byte[] bytes = texto == null ? new byte[0] : texto.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(textos.size());
+        out.writeInt(bytes.length);
+        textos.write(bytes);
+    }
+
+    /**
+     * Rows of a table kept as columns while they are read: id, version, title or name, and ISBN.
+     */
+    static final class Columnas {
+        private int[] ids = new int[1024];
+        private int[] versiones = new int[1024];
+        private String[] textos = new String[1024];
+        private String[] isbns = new String[1024];
+        private int size;
+
+        /**
+         * Adds a row.
+         *
+         * @param id      the id
+         * @param version the version
+         * @param texto   the title or name
+         * @param isbn    the ISBN, or null for authors
+         */
+        void add(int id, int version, String texto, String isbn) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                versiones = Arrays.copyOf(versiones, size * 2);
+                textos = Arrays.copyOf(textos, size * 2);
+                isbns = Arrays.copyOf(isbns, size * 2);
+            }
+            ids[size] = id;
+            versiones[size] = version;
+            textos[size] = texto;
+            isbns[size] = isbn;
+            size++;
+        }
+
+        /**
+         * Sorts the rows by id, so the records can be found by binary search.
+         */
+        private void sortById() {
+            Integer[] orden = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                orden[i] = i;
+            }
+            Arrays.sort(orden, (a, b) -> Integer.compare(ids[a], ids[b]));
+            int[] ids2 = new int[size];
+            int[] versiones2 = new int[size];
+            String[] textos2 = new String[size];
+            String[] isbns2 = new String[size];
+            for (int i = 0; i < size; i++) {
+                ids2[i] = ids[orden[i]];
+                versiones2[i] = versiones[orden[i]];
+                textos2[i] = textos[orden[i]];
+                isbns2[i] = isbns[orden[i]];
+            }
+            ids = ids2;
+            versiones = versiones2;
+            textos = textos2;
+            isbns = isbns2;
+        }
+    }
+}
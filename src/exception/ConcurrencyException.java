@@ -0,0 +1,20 @@
+package exception;
+
+/**
+ * The type ConcurrencyException signals that an update was rejected because the row was modified
+ * by another application instance since it was read (optimistic concurrency control).
+ *
+ * @version 1.1
+ */
+public class ConcurrencyException extends ServiceException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Instantiates a new ConcurrencyException with a specified message.
+     *
+     * @param message the detailed error message
+     */
+    public ConcurrencyException(String message) {
+        super(message);
+    }
+}
@@ -3,8 +3,12 @@ package exception;
 /**
  * The type ServiceException handles all errors in data entry, missing objects, and general application errors,
  * providing customized messages to the user interface.
+ * <p>
+ * Expected business outcomes, such as an entity that does not exist or a book already loaned, can be
+ * thrown without a stack trace: they are shown to the user, never debugged, and capturing the stack
+ * costs more than the lookup that failed.
  *
- * @version 1.0
+ * @version 1.1
  */
 public class ServiceException extends Exception {
 
@@ -17,6 +21,16 @@ public class ServiceException extends Exception {
         super(message);
     }
 
+    /**
+     * Instantiates a new ServiceException with a specified message, optionally without a stack trace.
+     *
+     * @param message    the detailed error message
+     * @param stackTrace false for an expected outcome, to skip capturing the stack trace
+     */
+    public ServiceException(String message, boolean stackTrace) {
+        super(message, null, false, stackTrace);
+    }
+
     /**
      * Instantiates a new ServiceException with a default error message.
      */
@@ -0,0 +1,91 @@
+package informe;
+
+import prestamo.PrestamoStore;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Fork/join task counting the loans of a store by a key read from their row (e.g. the book id).
+ * The rows are split in halves until a chunk per worker is left, each chunk counts into its own
+ * dense array indexed by key, and the arrays are added up while joining, so the workers share
+ * no counters.
+ *
+ * @version 1.1
+ */
+final class ConteoTask extends RecursiveTask<int[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final PrestamoStore store;
+    private final IntUnaryOperator key;
+    private final int keys;
+    private final int desde;
+    private final int hasta;
+    private final int threshold;
+
+    /**
+     * Instantiates a task over a range of rows.
+     *
+     * @param store     the loan store
+     * @param key       gets the key of a row, from 0 to keys - 1
+     * @param keys      the number of keys
+     * @param desde     the first row
+     * @param hasta     the end row, exclusive
+     * @param threshold the number of rows counted without splitting
+     */
+    private ConteoTask(PrestamoStore store, IntUnaryOperator key, int keys, int desde, int hasta, int threshold) {
+        this.store = store;
+        this.key = key;
+        this.keys = keys;
+        this.desde = desde;
+        this.hasta = hasta;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Counts the live loans of a store by key.
+     *
+     * @param store    the loan store
+     * @param key      gets the key of a row, from 0 to keys - 1
+     * @param keys     the number of keys
+     * @param paralelo true to split the rows among the common pool workers, false to count in the calling thread
+     * @return the number of loans of each key
+     */
+    static int[] count(PrestamoStore store, IntUnaryOperator key, int keys, boolean paralelo) {
+        int rows = store.rowCount();
+        if (!paralelo) {
+            return new ConteoTask(store, key, keys, 0, rows, rows).compute();
+        }
+        // About two chunks per worker: enough to balance, few enough arrays of counters to add up
+        int threshold = Math.max(1 << 16, rows / (2 * ForkJoinPool.getCommonPoolParallelism()));
+        return ForkJoinPool.commonPool().invoke(new ConteoTask(store, key, keys, 0, rows, threshold));
+    }
+
+    /**
+     * Counts the rows of the range, splitting it if it is larger than the threshold.
+     *
+     * @return the number of loans of each key
+     */
+    @Override
+    protected int[] compute() {
+        if (hasta - desde <= threshold) {
+            int[] counts = new int[keys];
+            for (int row = desde; row < hasta; row++) {
+                if (store.isLive(row)) {
+                    counts[key.applyAsInt(row)]++;
+                }
+            }
+            return counts;
+        }
+        int mitad = (desde + hasta) >>> 1;
+        ConteoTask left = new ConteoTask(store, key, keys, desde, mitad, threshold);
+        left.fork();
+        int[] counts = new ConteoTask(store, key, keys, mitad, hasta, threshold).compute();
+        int[] other = left.join();
+        for (int i = 0; i < keys; i++) {
+            counts[i] += other[i];
+        }
+        return counts;
+    }
+}
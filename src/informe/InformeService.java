@@ -0,0 +1,275 @@
+package informe;
+
+import autor.AutorService;
+import exception.ServiceException;
+import libro.LibroService;
+import libro_autor.DTOLibroAutor;
+import libro_autor.LibroAutorService;
+import prestamo.PrestamoService;
+import prestamo.PrestamoSnapshot;
+import prestamo.PrestamoStore;
+import usuario.UsuarioService;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Service computing the loan reports: most borrowed books, users and authors, and monthly circulation.
+ * The aggregations scan the columns of the in-memory loan store in parallel (fork/join over ranges
+ * of rows, see {@link ConteoTask}) into dense arrays of counters indexed by id or month, so no loan
+ * is materialized and no map is updated per loan.
+ * <p>
+ * The aggregations scan a snapshot of the store (see {@link PrestamoService#openSnapshot}), so the loans
+ * do not change while the workers scan them and the loans keep being written meanwhile; the calling thread
+ * waits for the workers to finish before closing it.
+ * <p>
+ * The reports cover every loan: the in-memory store only holds the loans not archived yet, so the counts
+ * of the archived ones are read with one GROUP BY over Prestamo_Historico and added to the counts of the
+ * snapshot. A loan archived while a report runs may be counted twice in that report.
+ *
+ * @version 1.3
+ */
+public class InformeService {
+    private final PrestamoService prestamoService;
+    private final LibroService libroService;
+    private final AutorService autorService;
+    private final UsuarioService usuarioService;
+    private final LibroAutorService libroAutorService;
+    private boolean paralelo = true;
+
+    /**
+     * Instantiates a new report service over the loaded services.
+     *
+     * @param prestamoService   Service for managing loans.
+     * @param libroService      Service for managing books.
+     * @param autorService      Service for managing authors.
+     * @param usuarioService    Service for managing users.
+     * @param libroAutorService Service for managing book-author relations.
+     */
+    public InformeService(PrestamoService prestamoService, LibroService libroService, AutorService autorService,
+                          UsuarioService usuarioService, LibroAutorService libroAutorService) {
+        this.prestamoService = prestamoService;
+        this.libroService = libroService;
+        this.autorService = autorService;
+        this.usuarioService = usuarioService;
+        this.libroAutorService = libroAutorService;
+    }
+
+    /**
+     * Sets whether the aggregations run on the fork/join pool or in the calling thread
+     * (e.g. on single-core machines, or to compare both).
+     *
+     * @param paralelo true to run them in parallel
+     */
+    public void setParalelo(boolean paralelo) {
+        this.paralelo = paralelo;
+    }
+
+    /**
+     * Finds the books with the most loans.
+     *
+     * @param limite the maximum number of books
+     * @return the books with their number of loans, most borrowed first
+     * @throws ServiceException if a book or the archived loans cannot be read
+     */
+    public List<Recuento> findLibrosMasPrestados(int limite) throws ServiceException {
+        int[] counts = countLibros();
+        List<Recuento> recuentos = new ArrayList<>();
+        for (int id : top(counts, limite)) {
+            recuentos.add(new Recuento(id, libroService.findLibroById(id).titulo(), counts[id]));
+        }
+        return recuentos;
+    }
+
+    /**
+     * Finds the users with the most loans.
+     *
+     * @param limite the maximum number of users
+     * @return the users with their number of loans, most loans first
+     * @throws ServiceException if a user or the archived loans cannot be read
+     */
+    public List<Recuento> findUsuariosConMasPrestamos(int limite) throws ServiceException {
+        int[] counts = add(read(store ->
+                ConteoTask.count(store, store::getUsuarioId, maxKey(store, store::getUsuarioId) + 1, paralelo)),
+                prestamoService.countArchivadosByUsuarioId());
+        List<Recuento> recuentos = new ArrayList<>();
+        for (int id : top(counts, limite)) {
+            recuentos.add(new Recuento(id, usuarioService.findUsuarioById(id).nombre(), counts[id]));
+        }
+        return recuentos;
+    }
+
+    /**
+     * Finds the authors whose books have the most loans. The loans are counted per book first,
+     * then each count is added to the authors of the book through the book-author relations.
+     *
+     * @param limite the maximum number of authors
+     * @return the authors with the number of loans of their books, most borrowed first
+     * @throws ServiceException if an author or the archived loans cannot be read
+     */
+    public List<Recuento> findAutoresMasPrestados(int limite) throws ServiceException {
+        int[] porLibro = countLibros();
+        List<DTOLibroAutor> relaciones = libroAutorService.findAllRelations();
+        int maxAutor = 0;
+        for (DTOLibroAutor relacion : relaciones) {
+            maxAutor = Math.max(maxAutor, relacion.getAutorId());
+        }
+        int[] counts = new int[maxAutor + 1];
+        for (DTOLibroAutor relacion : relaciones) {
+            if (relacion.getLibroId() < porLibro.length) {
+                counts[relacion.getAutorId()] += porLibro[relacion.getLibroId()];
+            }
+        }
+        List<Recuento> recuentos = new ArrayList<>();
+        for (int id : top(counts, limite)) {
+            recuentos.add(new Recuento(id, autorService.findAutorById(id).nombre(), counts[id]));
+        }
+        return recuentos;
+    }
+
+    /**
+     * Counts the loans started each month, from the month of the first loan to the month of the last one.
+     *
+     * @return the number of loans of each month, in month order
+     * @throws ServiceException if the archived loans cannot be read
+     */
+    public SortedMap<YearMonth, Integer> findCirculacionMensual() throws ServiceException {
+        SortedMap<YearMonth, Integer> circulacion = read(this::circulacionMensual);
+        prestamoService.countArchivadosByMes().forEach((mes, count) -> circulacion.merge(mes, count, Integer::sum));
+        if (!circulacion.isEmpty()) {
+            // Months without loans between the archived ones and the ones in memory
+            for (YearMonth mes = circulacion.firstKey(); mes.isBefore(circulacion.lastKey()); mes = mes.plusMonths(1)) {
+                circulacion.putIfAbsent(mes, 0);
+            }
+        }
+        return circulacion;
+    }
+
+    /**
+     * Counts the loans started each month in a store.
+     *
+     * @param store the loan store
+     * @return the number of loans of each month, in month order
+     */
+    private SortedMap<YearMonth, Integer> circulacionMensual(PrestamoStore store) {
+        SortedMap<YearMonth, Integer> circulacion = new TreeMap<>();
+        IntSummaryStatistics dias = rows(store).map(store::getInicio).summaryStatistics();
+        if (dias.getCount() == 0) {
+            return circulacion;
+        }
+        // Month of each day of the range, so the workers do not convert dates per loan
+        int primerDia = dias.getMin();
+        YearMonth primerMes = YearMonth.from(LocalDate.ofEpochDay(primerDia));
+        int[] mesDelDia = new int[dias.getMax() - primerDia + 1];
+        for (int i = 0; i < mesDelDia.length; i++) {
+            LocalDate dia = LocalDate.ofEpochDay(primerDia + i);
+            mesDelDia[i] = (dia.getYear() - primerMes.getYear()) * 12 + dia.getMonthValue() - primerMes.getMonthValue();
+        }
+        int meses = mesDelDia[mesDelDia.length - 1] + 1;
+        int[] counts = ConteoTask.count(store, row -> mesDelDia[store.getInicio(row) - primerDia], meses, paralelo);
+        for (int mes = 0; mes < meses; mes++) {
+            circulacion.put(primerMes.plusMonths(mes), counts[mes]);
+        }
+        return circulacion;
+    }
+
+    /**
+     * Counts the loans of each book.
+     *
+     * @return the number of loans indexed by book id
+     * @throws ServiceException if the archived loans cannot be read
+     */
+    private int[] countLibros() throws ServiceException {
+        return add(read(store -> ConteoTask.count(store, store::getLibroId, maxKey(store, store::getLibroId) + 1, paralelo)),
+                prestamoService.countArchivadosByLibroId());
+    }
+
+    /**
+     * Adds the counts of the archived loans to the counts of the loans in memory.
+     *
+     * @param counts     the counts of the loans in memory, indexed by id
+     * @param archivados the counts of the archived loans, indexed by id
+     * @return the total counts, indexed by id
+     */
+    private static int[] add(int[] counts, int[] archivados) {
+        int[] total = counts.length >= archivados.length ? counts : Arrays.copyOf(counts, archivados.length);
+        for (int id = 0; id < archivados.length; id++) {
+            total[id] += archivados[id];
+        }
+        return total;
+    }
+
+    /**
+     * Reads a snapshot of the loans, closed once the reader returns.
+     *
+     * @param reader reads the store of the snapshot and returns the result
+     * @param <T>    the type of the result
+     * @return the result of the reader
+     */
+    private <T> T read(Function<PrestamoStore, T> reader) {
+        try (PrestamoSnapshot snapshot = prestamoService.openSnapshot()) {
+            return reader.apply(snapshot.getStore());
+        }
+    }
+
+    /**
+     * Gets the highest value of a column over the live loans.
+     *
+     * @param store  the loan store
+     * @param column gets the value of a row
+     * @return the highest value, or 0 if there are no loans
+     */
+    private int maxKey(PrestamoStore store, IntUnaryOperator column) {
+        return rows(store).map(column).max().orElse(0);
+    }
+
+    /**
+     * Streams the live rows of the store, in parallel if enabled.
+     *
+     * @param store the loan store
+     * @return the row indexes
+     */
+    private IntStream rows(PrestamoStore store) {
+        IntStream rows = IntStream.range(0, store.rowCount()).filter(store::isLive);
+        return paralelo ? rows.parallel() : rows;
+    }
+
+    /**
+     * Selects the ids with the highest counts with a bounded min-heap. Each entry packs the count
+     * in the high 32 bits and the complement of the id in the low ones, so ties favor the lowest id.
+     *
+     * @param counts the counts indexed by id
+     * @param limite the maximum number of ids
+     * @return the ids with a count above 0, highest count first
+     */
+    private static int[] top(int[] counts, int limite) {
+        PriorityQueue<Long> heap = new PriorityQueue<>();
+        for (int id = 0; id < counts.length && limite > 0; id++) {
+            if (counts[id] == 0) {
+                continue;
+            }
+            long entry = (long) counts[id] << 32 | (Integer.MAX_VALUE - id);
+            if (heap.size() < limite) {
+                heap.add(entry);
+            } else if (entry > heap.peek()) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        int[] ids = new int[heap.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = Integer.MAX_VALUE - (int) (heap.poll() & 0xFFFFFFFFL);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,22 @@
+package informe;
+
+/**
+ * Row of a report: an entity and the number of loans counted for it.
+ *
+ * @param id    the entity id
+ * @param texto the title or name of the entity
+ * @param total the number of loans
+ * @version 1.0
+ */
+public record Recuento(int id, String texto, int total) {
+
+    /**
+     * Formats the row as shown in the report lists.
+     *
+     * @return the id, the text and the number of loans
+     */
+    @Override
+    public String toString() {
+        return id + " - " + texto + ": " + total + " préstamo(s)";
+    }
+}
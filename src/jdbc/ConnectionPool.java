@@ -0,0 +1,176 @@
+package jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The ConnectionPool class lends the DAOs their database connections. A JDBC connection is not safe for
+ * concurrent use, and the services are called from the UI, the change log poller and the background jobs at
+ * once, so each statement runs on a connection borrowed for it alone and given back when it is closed,
+ * e.g. as the first resource of a try-with-resources.
+ * <p>
+ * At most {@code -Dbiblioteca.poolSize} connections (4 by default) are open; a caller beyond that waits for one
+ * to be given back. Idle connections are reused, most recently returned first, and checked before being lent
+ * again once they have been idle for a while.
+ *
+ * @version 1.0
+ */
+public final class ConnectionPool {
+    private static final int SIZE = Integer.getInteger("biblioteca.poolSize", 4);
+    private static final long VALIDATE_AFTER_MS = 30_000;
+    private static final int VALIDATE_TIMEOUT_S = 2;
+
+    private static final Semaphore permits = new Semaphore(SIZE, true);
+    private static final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<>();
+
+    /**
+     * A connection waiting in the pool.
+     *
+     * @param connection the connection
+     * @param since      when it was given back, in milliseconds
+     */
+    private record Idle(Connection connection, long since) {
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private ConnectionPool() {
+    }
+
+    /**
+     * Borrows a connection to the library database, waiting if every one is in use. Closing the returned
+     * connection gives it back to the pool.
+     *
+     * @return the connection
+     * @throws SQLException if no connection can be opened, or the wait is interrupted
+     */
+    public static Connection borrow() throws SQLException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido esperando una conexión", e);
+        }
+        try {
+            return lend(take());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the connections waiting in the pool. The ones in use are closed when they are given back.
+     */
+    static void closeIdle() {
+        Idle candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            close(candidate.connection());
+        }
+    }
+
+    /**
+     * Takes an idle connection that is still usable, or opens a new one.
+     *
+     * @return the connection
+     * @throws SQLException if a new connection cannot be opened
+     */
+    private static Connection take() throws SQLException {
+        Idle candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            Connection connection = candidate.connection();
+            boolean stale = System.currentTimeMillis() - candidate.since() > VALIDATE_AFTER_MS;
+            if (!connection.isClosed() && (!stale || connection.isValid(VALIDATE_TIMEOUT_S))) {
+                return connection;
+            }
+            close(connection);
+        }
+        DDL.getConnection(); // Creates the database and applies the schema upgrades the first time
+        return DriverManager.getConnection(DDL.URL + DDL.DB, DDL.USER, DDL.PASS);
+    }
+
+    /**
+     * Wraps a connection so that closing it gives it back to the pool instead of closing it.
+     *
+     * @param connection the connection
+     * @return the connection handed to the caller
+     */
+    private static Connection lend(Connection connection) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!returned) {
+                            returned = true;
+                            giveBack(connection);
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return returned || connection.isClosed();
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    default -> {
+                        if (returned) {
+                            throw new SQLException("La conexión ya se ha devuelto al pool");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+    /**
+     * Puts a connection back in the pool, unless it was closed or left inside a transaction.
+     *
+     * @param connection the connection
+     */
+    private static void giveBack(Connection connection) {
+        try {
+            if (!connection.isClosed() && connection.getAutoCommit()) {
+                idle.offerFirst(new Idle(connection, System.currentTimeMillis()));
+            } else {
+                close(connection);
+            }
+        } catch (SQLException e) {
+            close(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes a connection dropped from the pool, ignoring errors.
+     *
+     * @param connection the connection
+     */
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Already broken, nothing left to release
+        }
+    }
+}
@@ -23,6 +23,32 @@ public class DDL {
     // SQL script file path
     static final String SQL_SCRIPT_PATH = "resources/sql/Biblioteca.sql";
 
+    // Idempotent statements that bring databases created by older versions up to date
+    static final String[] SCHEMA_UPGRADES = {
+            "ALTER TABLE Usuario ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0",
+            "ALTER TABLE Autor ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0",
+            "ALTER TABLE Libro ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0",
+            "ALTER TABLE Prestamo ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0",
+            "CREATE TABLE IF NOT EXISTS Cambio (seq BIGINT PRIMARY KEY AUTO_INCREMENT, entidad VARCHAR(20) NOT NULL, "
+                    + "idEntidad INT NOT NULL, idRelacionado INT NULL, operacion CHAR(1) NOT NULL, "
+                    + "fecha TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)",
+            "CREATE TABLE IF NOT EXISTS Cambio_Consumidor (id VARCHAR(64) PRIMARY KEY, seq BIGINT NOT NULL, "
+                    + "fecha TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)",
+            "CREATE INDEX IF NOT EXISTS Prestamo_fechaInicio ON Prestamo (fechaInicio)",
+            "CREATE INDEX IF NOT EXISTS Prestamo_fechaFin ON Prestamo (fechaFin)",
+            "CREATE TABLE IF NOT EXISTS Prestamo_Historico (id INT PRIMARY KEY, fechaInicio DATE NOT NULL, "
+                    + "fechaFin DATE NOT NULL, usuarioId INT NOT NULL, libroId INT NOT NULL, version INT NOT NULL DEFAULT 0, "
+                    + "FOREIGN KEY (usuarioId) REFERENCES Usuario(id) ON DELETE CASCADE, "
+                    + "FOREIGN KEY (libroId) REFERENCES Libro(id) ON DELETE CASCADE)",
+            "CREATE INDEX IF NOT EXISTS Prestamo_Historico_fechaInicio ON Prestamo_Historico (fechaInicio)",
+            "CREATE INDEX IF NOT EXISTS Prestamo_Historico_fechaFin ON Prestamo_Historico (fechaFin)"
+    };
+
+    // Tables whose writes are recorded in the Cambio table (table name, entity name)
+    static final String[][] TRACKED_TABLES = {
+            {"Usuario", "USUARIO"}, {"Autor", "AUTOR"}, {"Libro", "LIBRO"}, {"Prestamo", "PRESTAMO"}
+    };
+
     // Database connection
     static Connection conn;
 
@@ -46,6 +72,9 @@ public class DDL {
             // Use the specified database
             Statement st = conn.createStatement();
             st.execute("USE " + DB);
+
+            // Apply pending schema changes to existing databases
+            upgradeSchema();
         } catch (ClassNotFoundException e) {
             System.err.println("Error: Database driver not found.");
             e.printStackTrace();
@@ -69,6 +98,45 @@ public class DDL {
         stmt.execute(createDbQuery);
     }
 
+    /**
+     * Applies the schema upgrades. Every statement is idempotent, so they can run on every start.
+     *
+     * @throws SQLException the SQL exception
+     */
+    private void upgradeSchema() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String upgrade : SCHEMA_UPGRADES) {
+                stmt.execute(upgrade);
+            }
+            // Change log triggers, one per table and write operation
+            for (String[] table : TRACKED_TABLES) {
+                stmt.execute(changeLogTrigger(table[0], table[1], "INSERT", "NEW", "I"));
+                stmt.execute(changeLogTrigger(table[0], table[1], "UPDATE", "NEW", "U"));
+                stmt.execute(changeLogTrigger(table[0], table[1], "DELETE", "OLD", "D"));
+            }
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS Libro_Autor_insert AFTER INSERT ON Libro_Autor FOR EACH ROW "
+                    + "INSERT INTO Cambio (entidad, idEntidad, idRelacionado, operacion) VALUES ('LIBRO_AUTOR', NEW.idLibro, NEW.idAutor, 'I')");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS Libro_Autor_delete AFTER DELETE ON Libro_Autor FOR EACH ROW "
+                    + "INSERT INTO Cambio (entidad, idEntidad, idRelacionado, operacion) VALUES ('LIBRO_AUTOR', OLD.idLibro, OLD.idAutor, 'D')");
+        }
+    }
+
+    /**
+     * Builds the statement that creates a change log trigger for a table.
+     *
+     * @param table     the table name
+     * @param entity    the entity name stored in the change log
+     * @param event     the trigger event (INSERT, UPDATE or DELETE)
+     * @param row       the row alias holding the id (NEW or OLD)
+     * @param operation the operation code stored in the change log
+     * @return the CREATE TRIGGER statement
+     */
+    private String changeLogTrigger(String table, String entity, String event, String row, String operation) {
+        return "CREATE TRIGGER IF NOT EXISTS " + table + "_" + event.toLowerCase() + " AFTER " + event + " ON " + table
+                + " FOR EACH ROW INSERT INTO Cambio (entidad, idEntidad, operacion) VALUES ('" + entity + "', "
+                + row + ".id, '" + operation + "')";
+    }
+
     /**
      * Check if the database exists.
      *
@@ -140,22 +208,24 @@ public class DDL {
 
 
     /**
-     * Gets the database connection.
+     * Gets the connection used to create and upgrade the database, setting it up the first time.
+     * The DAOs borrow their own connections from the {@link ConnectionPool}.
      *
      * @return the connection
      */
-    public static Connection getConnection() {
+    public static synchronized Connection getConnection() {
         if (conn == null)
             new DDL(); // If connection is null, initialize the DDL class to set it up
         return conn;
     }
 
     /**
-     * Closes the database connection.
+     * Closes the database connection and the idle connections of the pool.
      *
      * @throws SQLException if an SQL error occurs during connection closure
      */
-    public static void closeConnection() throws SQLException {
+    public static synchronized void closeConnection() throws SQLException {
+        ConnectionPool.closeIdle();
         if (conn != null) {
             conn.close();
             conn = null;
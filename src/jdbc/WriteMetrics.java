@@ -0,0 +1,88 @@
+package jdbc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The WriteMetrics class counts the UPDATE statements sent to the database and the ones
+ * avoided thanks to change tracking, so the write savings can be reported. Each DAO keeps its own,
+ * exposed by its service; the UI logs them when the application exits.
+ *
+ * @version 1.1
+ */
+public class WriteMetrics {
+    private final LongAdder updatesExecuted = new LongAdder();
+    private final LongAdder updatesSkipped = new LongAdder();
+    private final LongAdder columnsWritten = new LongAdder();
+    private final LongAdder columnsSkipped = new LongAdder();
+
+    /**
+     * Records an UPDATE that was sent to the database.
+     *
+     * @param written the number of columns included in the statement
+     * @param total   the number of updatable columns of the entity
+     */
+    public void recordUpdate(int written, int total) {
+        updatesExecuted.increment();
+        columnsWritten.add(written);
+        columnsSkipped.add(total - written);
+    }
+
+    /**
+     * Records an UPDATE that was not sent because nothing changed.
+     *
+     * @param total the number of updatable columns of the entity
+     */
+    public void recordSkipped(int total) {
+        updatesSkipped.increment();
+        columnsSkipped.add(total);
+    }
+
+    /**
+     * Gets the number of UPDATE statements executed.
+     *
+     * @return the executed updates
+     */
+    public long getUpdatesExecuted() {
+        return updatesExecuted.sum();
+    }
+
+    /**
+     * Gets the number of UPDATE statements skipped because nothing changed.
+     *
+     * @return the skipped updates
+     */
+    public long getUpdatesSkipped() {
+        return updatesSkipped.sum();
+    }
+
+    /**
+     * Gets the number of columns written by the executed updates.
+     *
+     * @return the written columns
+     */
+    public long getColumnsWritten() {
+        return columnsWritten.sum();
+    }
+
+    /**
+     * Gets the number of columns that a full-column update would have written but were left out.
+     *
+     * @return the skipped columns
+     */
+    public long getColumnsSkipped() {
+        return columnsSkipped.sum();
+    }
+
+    /**
+     * Returns a string representation of the metrics.
+     *
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "Updates ejecutados: " + getUpdatesExecuted() + "\n" +
+                "Updates evitados: " + getUpdatesSkipped() + "\n" +
+                "Columnas escritas: " + getColumnsWritten() + "\n" +
+                "Columnas evitadas: " + getColumnsSkipped();
+    }
+}
@@ -1,46 +1,59 @@
 package libro;
 
+import exception.ConcurrencyException;
 import exception.ServiceException;
-import jdbc.DDL;
+import jdbc.ConnectionPool;
+import jdbc.WriteMetrics;
+import util.StringPool;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * The DAOLibro class handles CRUD operations for the Libro (Book) entity.
  *
- * @version 1.1
+ * @version 1.4
  */
 public class DAOLibro {
     private static final String CREATE = "INSERT INTO Libro (titulo, isbn) VALUES (?, ?)";
     private static final String READ = "SELECT * FROM Libro WHERE ID = ?";
     private static final String READ_ALL = "SELECT * FROM Libro";
-    private static final String UPDATE = "UPDATE Libro SET titulo = ?, isbn = ? WHERE ID = ?";
+    private static final String UPDATE_TITULO = "UPDATE Libro SET titulo = ?, version = version + 1 WHERE ID = ? AND version = ?";
+    private static final String UPDATE_ISBN = "UPDATE Libro SET isbn = ?, version = version + 1 WHERE ID = ? AND version = ?";
+    private static final String UPDATE = "UPDATE Libro SET titulo = ?, isbn = ?, version = version + 1 WHERE ID = ? AND version = ?";
+    private static final int UPDATABLE_COLUMNS = 2;
     private static final String DELETE = "DELETE FROM Libro WHERE ID = ?";
-    private static Connection conexion;
+    private static final int MAX_POOLED = 1 << 20;
+    // Canonical instances of the titles of the books, shared by the rows that repeat them
+    private static final StringPool TITULOS = new StringPool(MAX_POOLED);
+    private final WriteMetrics writeMetrics = new WriteMetrics();
 
     /**
-     * Initializes a new DAOLibro instance by establishing a database connection.
+     * Initializes a new DAOLibro instance. Each statement runs on its own connection, borrowed from the {@link ConnectionPool}.
      */
     public DAOLibro() {
-        this.conexion = DDL.getConnection();
     }
 
     /**
      * Creates a new book in the database.
      *
      * @param libro The book object containing the title and ISBN of the book.
+     * @return The stored book, with the ID generated by the database.
      * @throws ServiceException if there is an error during the creation.
      */
-    public void create(DTOLibro libro) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
-            pst.setString(1, libro.getTitulo());
-            pst.setString(2, libro.getIsbn());
+    public DTOLibro create(DTOLibro libro) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
+            pst.setString(1, libro.titulo());
+            pst.setString(2, libro.isbn());
             pst.executeUpdate();
             try (ResultSet rs = pst.getGeneratedKeys()) {
                 if (rs.next()) {
-                    libro.setId(rs.getInt(1)); // Set the generated ID
+                    return libro.withId(rs.getInt(1)); // Set the generated ID
                 }
             }
+            throw new ServiceException("Error al crear libro: no se ha generado el ID");
         } catch (SQLException e) {
             throw new ServiceException("Error al crear libro: " + e.getMessage());
         }
@@ -54,7 +67,8 @@ public class DAOLibro {
      * @throws ServiceException if there is an error during the read.
      */
     public DTOLibro read(int id) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(READ)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ)) {
             pst.setInt(1, id);
             ResultSet rs = pst.executeQuery();
             if (rs.next()) {
@@ -75,7 +89,8 @@ public class DAOLibro {
      */
     public ArrayList<DTOLibro> readAll() throws ServiceException {
         ArrayList<DTOLibro> libros = new ArrayList<>();
-        try (Statement st = conexion.createStatement();
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
              ResultSet rs = st.executeQuery(READ_ALL)) {
             while (rs.next()) {
                 libros.add(getLibro(rs)); // Convert each result to a DTOLibro
@@ -86,19 +101,74 @@ public class DAOLibro {
         return libros;
     }
 
+    /**
+     * Reads all books from the database, passing each one to a consumer as it is read
+     * instead of building a list, so indexes can be built without loading the whole catalog.
+     *
+     * @param consumer receives each book read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readAll(Consumer<DTOLibro> consumer) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement()) {
+            st.setFetchSize(1000); // Stream the rows instead of buffering the whole table
+            try (ResultSet rs = st.executeQuery(READ_ALL)) {
+                while (rs.next()) {
+                    consumer.accept(getLibro(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer todos los libros: " + e.getMessage());
+        }
+    }
+
     /**
      * Updates an existing book's information in the database.
+     * Only the columns that differ from the book as it was read are written, and no statement is sent
+     * at all when nothing changed. The row is only updated if its version still matches the one
+     * that was read, otherwise another instance modified it in the meantime.
      *
-     * @param libro The DTOLibro object containing the updated book information.
-     * @throws IllegalArgumentException if the book's ID is invalid (less than or equal to 0).
+     * @param anterior The book as it was read.
+     * @param libro    The DTOLibro object containing the updated book information.
+     * @return The stored book with its new version, or the book as it was read if nothing changed.
+     * @throws ConcurrencyException if the book was modified or deleted by another instance.
      * @throws ServiceException if there is an error during the update.
      */
-    public void update(DTOLibro libro) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
-            pst.setString(1, libro.getTitulo());
-            pst.setString(2, libro.getIsbn());
-            pst.setInt(3, libro.getId());
-            pst.executeUpdate();
+    public DTOLibro update(DTOLibro anterior, DTOLibro libro) throws ServiceException {
+        boolean tituloChanged = !Objects.equals(anterior.titulo(), libro.titulo());
+        boolean isbnChanged = !Objects.equals(anterior.isbn(), libro.isbn());
+        if (!tituloChanged && !isbnChanged) {
+            writeMetrics.recordSkipped(UPDATABLE_COLUMNS);
+            return anterior; // Nothing changed, skip the round trip
+        }
+        String sql;
+        int written;
+        if (tituloChanged && isbnChanged) {
+            sql = UPDATE;
+            written = 2;
+        } else if (tituloChanged) {
+            sql = UPDATE_TITULO;
+            written = 1;
+        } else {
+            sql = UPDATE_ISBN;
+            written = 1;
+        }
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(sql)) {
+            int index = 1;
+            if (tituloChanged) {
+                pst.setString(index++, libro.titulo());
+            }
+            if (isbnChanged) {
+                pst.setString(index++, libro.isbn());
+            }
+            pst.setInt(index++, libro.id());
+            pst.setInt(index, libro.version());
+            if (pst.executeUpdate() == 0) {
+                throw new ConcurrencyException("El libro ha sido modificado por otro usuario");
+            }
+            writeMetrics.recordUpdate(written, UPDATABLE_COLUMNS);
+            return libro.withVersion(libro.version() + 1);
         } catch (SQLException e) {
             throw new ServiceException("Error al actualizar libro: " + e.getMessage());
         }
@@ -112,17 +182,38 @@ public class DAOLibro {
      * @throws ServiceException if there is an error during the deletion.
      */
     public void delete(DTOLibro libro) throws ServiceException {
-        if (libro.getId() <= 0) {
+        if (libro.id() <= 0) {
             throw new IllegalArgumentException("ID de libro no válido");
         }
-        try (PreparedStatement pst = conexion.prepareStatement(DELETE)) {
-            pst.setInt(1, libro.getId());
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(DELETE)) {
+            pst.setInt(1, libro.id());
             pst.executeUpdate();
         } catch (SQLException e) {
             throw new ServiceException("Error al eliminar libro: " + e.getMessage());
         }
     }
 
+    /**
+     * Gets the write metrics of this DAO.
+     *
+     * @return the write metrics
+     */
+    public WriteMetrics getWriteMetrics() {
+        return writeMetrics;
+    }
+
+    /**
+     * Gets the canonical instance of a title, so rows read elsewhere (e.g. from a local snapshot)
+     * share it with the rows read from the database.
+     *
+     * @param titulo the title, may be null
+     * @return the pooled instance
+     */
+    public static String internTitulo(String titulo) {
+        return TITULOS.intern(titulo);
+    }
+
     /**
      * Converts a ResultSet row into a DTOLibro object.
      *
@@ -132,11 +223,9 @@ public class DAOLibro {
      */
     private DTOLibro getLibro(ResultSet rs) throws ServiceException {
         try {
-            String titulo = rs.getString("titulo");
+            String titulo = TITULOS.intern(rs.getString("titulo"));
             String isbn = rs.getString("isbn");
-            DTOLibro libro = new DTOLibro(titulo, isbn);
-            libro.setId(rs.getInt("id")); // Assign the ID from the database
-            return libro;
+            return new DTOLibro(rs.getInt("id"), titulo, isbn, rs.getInt("version")); // ID assigned by the database
         } catch (SQLException e) {
             throw new ServiceException("Error al leer ResultSet: " + e.getMessage());
         }
@@ -1,78 +1,66 @@
 package libro;
 
 /**
- * The type DTOLibro class encapsulate the details for the Libro (Book) entity.
+ * The type DTOLibro record encapsulate the details for the Libro (Book) entity.
+ * It is immutable, so cached books can be shared between threads; changes build a copy
+ * with the {@code with} methods, which the services store in place of the previous one.
  *
- * @version 1.2
+ * @param id      the id, 0 for a book not stored yet
+ * @param titulo  the title
+ * @param isbn    the isbn
+ * @param version the row version used for optimistic concurrency
+ * @version 2.0
  */
-public class DTOLibro {
-    private Integer id;
-    private String titulo;
-    private String isbn;
+public record DTOLibro(int id, String titulo, String isbn, int version) {
 
     /**
-     * Instantiates a new Dto libro (Book).
+     * Instantiates a new Dto libro (Book) not stored yet.
      *
      * @param titulo the title
      * @param isbn   the isbn
      */
     public DTOLibro(String titulo, String isbn) {
-        this.titulo = titulo;
-        this.isbn = isbn;
+        this(0, titulo, isbn, 0);
     }
 
     /**
-     * Gets id.
-     *
-     * @return the id
-     */
-    public Integer getId() {
-        return id;
-    }
-
-    /**
-     * Sets id.
+     * Copies the book with the id assigned by the database.
      *
      * @param id the id
+     * @return the copy
      */
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
-    /**
-     * Gets titulo.
-     *
-     * @return the title
-     */
-    public String getTitulo() {
-        return titulo;
+    public DTOLibro withId(int id) {
+        return new DTOLibro(id, titulo, isbn, version);
     }
 
     /**
-     * Sets titulo.
+     * Copies the book with another title.
      *
      * @param titulo the title
+     * @return the copy
      */
-    public void setTitulo(String titulo) {
-        this.titulo = titulo;
+    public DTOLibro withTitulo(String titulo) {
+        return new DTOLibro(id, titulo, isbn, version);
     }
 
     /**
-     * Gets isbn.
+     * Copies the book with another isbn.
      *
-     * @return the isbn
+     * @param isbn the isbn
+     * @return the copy
      */
-    public String getIsbn() {
-        return isbn;
+    public DTOLibro withIsbn(String isbn) {
+        return new DTOLibro(id, titulo, isbn, version);
     }
 
     /**
-     * Sets isbn.
+     * Copies the book with another row version.
      *
-     * @param isbn the isbn
+     * @param version the row version
+     * @return the copy
      */
-    public void setIsbn(String isbn) {
-        this.isbn = isbn;
+    public DTOLibro withVersion(int version) {
+        return new DTOLibro(id, titulo, isbn, version);
     }
 
     /**
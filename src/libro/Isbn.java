@@ -0,0 +1,113 @@
+package libro;
+
+import exception.ServiceException;
+
+/**
+ * Normalizes ISBN-10 and ISBN-13 codes into a packed long, so books can be indexed
+ * by ISBN without keeping or hashing the hyphenated strings.
+ * <p>
+ * Hyphens and spaces are ignored and ISBN-10 codes are converted to their ISBN-13 form
+ * ("978" prefix and recomputed check digit), so both forms of the same book pack to the same value.
+ * The check digit of ISBN-13 codes is not verified, since existing catalogs contain codes
+ * with wrong check digits that must still be found.
+ *
+ * @version 1.0
+ */
+public final class Isbn {
+
+    private Isbn() {
+    }
+
+    /**
+     * Packs an ISBN into a long holding its 13 digits.
+     *
+     * @param isbn the ISBN-10 or ISBN-13, with or without hyphens
+     * @return the packed ISBN-13
+     * @throws ServiceException if the ISBN does not have 10 or 13 digits
+     */
+    public static long pack(String isbn) throws ServiceException {
+        long packed = tryPack(isbn);
+        if (packed == 0) {
+            throw new ServiceException("ISBN no válido: " + isbn);
+        }
+        return packed;
+    }
+
+    /**
+     * Checks if a text is an ISBN-10 or ISBN-13 (e.g. read by a barcode scanner).
+     *
+     * @param text the text
+     * @return true if the text can be packed
+     */
+    public static boolean isWellFormed(String text) {
+        return tryPack(text) != 0;
+    }
+
+    /**
+     * Formats a packed ISBN as its 13 digits.
+     *
+     * @param packed the packed ISBN
+     * @return the ISBN-13 without hyphens
+     */
+    public static String format(long packed) {
+        return String.format("%013d", packed);
+    }
+
+    /**
+     * Packs an ISBN without throwing.
+     *
+     * @param isbn the ISBN-10 or ISBN-13, with or without hyphens
+     * @return the packed ISBN-13, or 0 if the ISBN is not well formed
+     */
+    static long tryPack(String isbn) {
+        if (isbn == null) {
+            return 0;
+        }
+        long value = 0;
+        int digits = 0;
+        boolean checkX = false;
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            if (c >= '0' && c <= '9' && !checkX) {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if ((c == 'X' || c == 'x') && digits == 9) {
+                checkX = true; // Check digit 10 of an ISBN-10
+                digits++;
+            } else {
+                return 0;
+            }
+            if (digits > 13) {
+                return 0;
+            }
+        }
+        if (digits == 13) {
+            return value;
+        }
+        if (digits == 10) {
+            long body = checkX ? value : value / 10; // Drop the ISBN-10 check digit
+            long isbn13 = 978_000_000_000L + body;
+            return isbn13 * 10 + checkDigit13(isbn13);
+        }
+        return 0;
+    }
+
+    /**
+     * Computes the ISBN-13 check digit of the first 12 digits.
+     *
+     * @param first12 the first 12 digits
+     * @return the check digit
+     */
+    private static int checkDigit13(long first12) {
+        int sum = 0;
+        for (int position = 12; position >= 1; position--) {
+            int digit = (int) (first12 % 10);
+            first12 /= 10;
+            sum += position % 2 == 0 ? digit * 3 : digit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,43 @@
+package libro;
+
+import cache.EntityCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of a book for the off-heap cache: id, version, title and ISBN as UTF-8.
+ *
+ * @version 1.0
+ */
+final class LibroCodec implements EntityCodec<DTOLibro> {
+
+    /**
+     * Encodes a book.
+     *
+     * @param libro the book
+     * @return the encoded bytes
+     */
+    @Override
+    public byte[] encode(DTOLibro libro) {
+        byte[] titulo = EntityCodec.utf8(libro.titulo());
+        byte[] isbn = EntityCodec.utf8(libro.isbn());
+        ByteBuffer buffer = ByteBuffer.allocate(8 + EntityCodec.sizeOf(titulo) + EntityCodec.sizeOf(isbn));
+        buffer.putInt(libro.id()).putInt(libro.version());
+        EntityCodec.putString(buffer, titulo);
+        EntityCodec.putString(buffer, isbn);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a book.
+     *
+     * @param record the encoded bytes
+     * @return the book
+     */
+    @Override
+    public DTOLibro decode(ByteBuffer record) {
+        int id = record.getInt();
+        int version = record.getInt();
+        return new DTOLibro(id, EntityCodec.getString(record), EntityCodec.getString(record), version);
+    }
+}
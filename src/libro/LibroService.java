@@ -1,19 +1,55 @@
 package libro;
 
+import cache.BoundedEntityCache;
+import cache.CacheStats;
+import cache.EntityCache;
+import cache.FullEntityCache;
+import cache.OffHeapEntityCache;
+import cache.ReadThroughCache;
+import cache.RowSource;
+import exception.ConcurrencyException;
 import exception.ServiceException;
+import jdbc.WriteMetrics;
 import libro_autor.LibroAutorService;
+import search.InvertedIndex;
+import search.PrefixIndex;
+import search.Suggestion;
+import search.TrigramIndex;
+import util.IntBitmap;
+import util.LockStripes;
+import util.LongIntHashMap;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service class for managing books (DTOLibro) and their relations with authors through LibroAutorService.
+ * <p>
+ * Safe for concurrent use: the caches and indexes can be read from any thread, the changes of a book,
+ * local or applied from the change log, are serialized by a lock striped by id, and the ISBN uniqueness
+ * check and the write that follows it by a lock striped by ISBN.
  *
- * @version 1.1
+ * @version 1.6
  */
 public class LibroService {
-    private List<DTOLibro> librosInMemory;
+    private static final Duration READ_TTL = Duration.ofSeconds(30);
+    private static final double FUZZY_THRESHOLD = 0.3;
+    private static final int LOCK_STRIPES = 64;
+    private EntityCache<DTOLibro> librosInMemory;
     private DAOLibro daoLibro;
+    private ReadThroughCache<DTOLibro> librosReadCache;
     private LibroAutorService libroAutorService;
+    private LongIntHashMap isbnIndex; // Packed ISBN -> book id, guarded by itself
+    private InvertedIndex tituloIndex = new InvertedIndex();
+    private IntBitmap libroIds = new IntBitmap(); // Ids of the whole catalog, also in bounded mode, guarded by itself
+    private TrigramIndex tituloTrigrams = new TrigramIndex(FUZZY_THRESHOLD);
+    private PrefixIndex tituloPrefixes = new PrefixIndex();
+    private final LockStripes libroLocks = new LockStripes(LOCK_STRIPES); // Serializes the changes of each book
+    private final LockStripes isbnLocks = new LockStripes(LOCK_STRIPES); // Serializes the books taking an ISBN
 
     /**
      * Initializes the service, loading all books into memory.
@@ -22,9 +58,86 @@ public class LibroService {
      * @throws ServiceException If an error occurs while loading books.
      */
     public LibroService(LibroAutorService libroAutorService) throws ServiceException {
+        this(libroAutorService, new DAOLibro().readAll());
+    }
+
+    /**
+     * Initializes the service with books already read, e.g. from a local snapshot.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param libros            Every book of the catalog.
+     */
+    public LibroService(LibroAutorService libroAutorService, List<DTOLibro> libros) {
+        this.daoLibro = new DAOLibro();
+        librosReadCache = new ReadThroughCache<>(READ_TTL, daoLibro::read);
+        this.libroAutorService = libroAutorService;
+        librosInMemory = new FullEntityCache<>(libros, DTOLibro::id); // Load all books into memory
+        isbnIndex = new LongIntHashMap(librosInMemory.size());
+        for (DTOLibro libro : librosInMemory.values()) {
+            indexIsbn(libro);
+            tituloIndex.put(libro.id(), libro.titulo());
+            libroIds.add(libro.id());
+            tituloTrigrams.put(libro.id(), libro.titulo());
+            tituloPrefixes.put(libro.id(), libro.titulo());
+        }
+    }
+
+    /**
+     * Initializes the service keeping every book outside the Java heap (see OffHeapEntityCache),
+     * for catalogs of millions of titles. The books are streamed from the source into the cache,
+     * so no list of books is built, e.g. {@code new LibroService(libroAutorService, new DAOLibro()::readAll)}.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param libros            Source of every book of the catalog.
+     * @throws ServiceException If an error occurs while reading the books.
+     */
+    public LibroService(LibroAutorService libroAutorService, RowSource<DTOLibro> libros) throws ServiceException {
         this.daoLibro = new DAOLibro();
+        librosReadCache = new ReadThroughCache<>(READ_TTL, daoLibro::read);
         this.libroAutorService = libroAutorService;
-        librosInMemory = daoLibro.readAll(); // Load all books into memory
+        librosInMemory = new OffHeapEntityCache<>(new LibroCodec());
+        isbnIndex = new LongIntHashMap(1024);
+        libros.readAll(libro -> {
+            librosInMemory.put(libro.id(), libro);
+            indexIsbn(libro);
+            tituloIndex.put(libro.id(), libro.titulo());
+            libroIds.add(libro.id());
+            tituloTrigrams.put(libro.id(), libro.titulo());
+            tituloPrefixes.put(libro.id(), libro.titulo());
+        });
+    }
+
+    /**
+     * Initializes the service with a bounded cache that keeps only the most frequently used books
+     * in memory and reads the rest from the database on demand, for catalogs too large to load fully.
+     * The ISBN and title indexes still cover the whole catalog, built by streaming the books once.
+     *
+     * @param libroAutorService Service for managing book-author relations.
+     * @param cacheSize         Maximum number of books kept in memory.
+     * @throws ServiceException If an error occurs while building the indexes.
+     */
+    public LibroService(LibroAutorService libroAutorService, int cacheSize) throws ServiceException {
+        this.daoLibro = new DAOLibro();
+        librosReadCache = new ReadThroughCache<>(READ_TTL, daoLibro::read);
+        this.libroAutorService = libroAutorService;
+        librosInMemory = new BoundedEntityCache<>(cacheSize, daoLibro::read); // Read-through, no full load
+        isbnIndex = new LongIntHashMap(cacheSize);
+        daoLibro.readAll(libro -> { // Only the packed ISBNs and the title indexes are kept
+            indexIsbn(libro);
+            tituloIndex.put(libro.id(), libro.titulo());
+            libroIds.add(libro.id());
+            tituloTrigrams.put(libro.id(), libro.titulo());
+            tituloPrefixes.put(libro.id(), libro.titulo());
+        });
+    }
+
+    /**
+     * Gets the books held in memory, e.g. to write a snapshot of the cache.
+     *
+     * @return The cached books; every book if the cache is complete.
+     */
+    public Collection<DTOLibro> getCachedLibros() {
+        return librosInMemory.values();
     }
 
     /**
@@ -32,12 +145,28 @@ public class LibroService {
      *
      * @param titulo The title of the book.
      * @param isbn   The ISBN of the book.
-     * @throws ServiceException If an error occurs during creation.
+     * @throws ServiceException If the ISBN is not valid, another book has the same ISBN, or an error occurs during creation.
      */
     public void createLibro(String titulo, String isbn) throws ServiceException {
-        DTOLibro dtoLibro = new DTOLibro(titulo, isbn);
-        daoLibro.create(dtoLibro);
-        librosInMemory.add(dtoLibro); // Sync with in-memory list
+        long packed = Isbn.pack(isbn);
+        ReentrantLock lock = isbnLocks.get(Long.hashCode(packed)); // Until the book is indexed
+        lock.lock();
+        try {
+            checkIsbnDisponible(packed, 0);
+            DTOLibro dtoLibro = new DTOLibro(titulo, isbn);
+            dtoLibro = daoLibro.create(dtoLibro); // The stored copy carries the generated ID
+            librosInMemory.put(dtoLibro.id(), dtoLibro); // Sync with in-memory list
+            indexIsbn(dtoLibro);
+            tituloIndex.put(dtoLibro.id(), dtoLibro.titulo());
+            synchronized (libroIds) {
+                libroIds.add(dtoLibro.id());
+            }
+            tituloTrigrams.put(dtoLibro.id(), dtoLibro.titulo());
+            tituloPrefixes.put(dtoLibro.id(), dtoLibro.titulo());
+            librosReadCache.invalidate(dtoLibro.id()); // Drop a cached "not found"
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -48,7 +177,7 @@ public class LibroService {
      * @throws ServiceException If the book is not found or an error occurs.
      */
     public DTOLibro readLibro(Integer id) throws ServiceException {
-        return daoLibro.read(id); // Read the book from the database
+        return librosReadCache.get(id); // Read-through, only queries the database on a miss or after the TTL
     }
 
     /**
@@ -57,23 +186,66 @@ public class LibroService {
      * @param id     The ID of the book.
      * @param titulo The new title of the book.
      * @param isbn   The new ISBN of the book.
-     * @throws ServiceException If the book is not found or an error occurs.
+     * @throws ServiceException If the book is not found, the new ISBN is not valid or belongs to another book, or an error occurs.
      */
     public void updateLibro(Integer id, String titulo, String isbn) throws ServiceException {
-        DTOLibro dtoLibro = findLibroById(id);
-        if (dtoLibro != null) {
-            if (titulo != null && !titulo.isBlank() && !titulo.isEmpty()){
-                dtoLibro.setTitulo(titulo);
-            }
-            if (isbn != null && !isbn.isBlank() && !isbn.isEmpty()) {
-                dtoLibro.setIsbn(isbn); // Update the book details
+        ReentrantLock lock = libroLocks.get(id);
+        lock.lock();
+        try {
+            DTOLibro dtoLibro = lookupLibro(id).orElse(null);
+            if (dtoLibro != null && isbn != null && !isbn.isBlank()) {
+                long packed = Isbn.pack(isbn);
+                ReentrantLock isbnLock = isbnLocks.get(Long.hashCode(packed)); // Always taken after the book's lock
+                isbnLock.lock();
+                try {
+                    checkIsbnDisponible(packed, dtoLibro.id());
+                    writeLibro(dtoLibro, titulo, isbn);
+                } finally {
+                    isbnLock.unlock();
+                }
+            } else if (dtoLibro != null) {
+                writeLibro(dtoLibro, titulo, null);
+            } else {
+                throw new ServiceException("El libro que intentas actualizar no existe", false);
             }
-            daoLibro.update(dtoLibro); // Sync with the database
-        } else {
-            throw new ServiceException("El libro que intentas actualizar no existe");
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Writes the new details of a book and replaces it in memory.
+     *
+     * @param dtoLibro The book in memory.
+     * @param titulo   The new title, or null/blank to keep it.
+     * @param isbn     The new ISBN, or null/blank to keep it.
+     * @throws ServiceException If the book was modified by another user or an error occurs.
+     */
+    private void writeLibro(DTOLibro dtoLibro, String titulo, String isbn) throws ServiceException {
+        String oldIsbn = dtoLibro.isbn();
+        DTOLibro nuevo = dtoLibro;
+        if (titulo != null && !titulo.isBlank() && !titulo.isEmpty()){
+            nuevo = nuevo.withTitulo(titulo);
+        }
+        if (isbn != null && !isbn.isBlank() && !isbn.isEmpty()) {
+            nuevo = nuevo.withIsbn(isbn); // Update the book details
+        }
+        try {
+            nuevo = daoLibro.update(dtoLibro, nuevo); // Sync changed columns with the database
+        } catch (ConcurrencyException e) {
+            refreshLibro(dtoLibro); // Drop the stale copy and reload only this book
+            throw new ConcurrencyException("El libro ha sido modificado por otro usuario; se han recargado sus datos");
+        }
+        dtoLibro = nuevo; // The cached copy is only replaced once the row is written
+        librosInMemory.put(dtoLibro.id(), dtoLibro); // An off-heap cache only holds a copy
+        unindexIsbn(dtoLibro.id(), oldIsbn);
+        indexIsbn(dtoLibro);
+        tituloIndex.put(dtoLibro.id(), dtoLibro.titulo());
+        tituloTrigrams.put(dtoLibro.id(), dtoLibro.titulo());
+        tituloPrefixes.put(dtoLibro.id(), dtoLibro.titulo());
+        librosReadCache.invalidate(dtoLibro.id());
+    }
+
     /**
      * Deletes a book and its associated relations with authors.
      *
@@ -81,16 +253,42 @@ public class LibroService {
      * @throws ServiceException If the book is not found or an error occurs.
      */
     public void deleteLibro(Integer id) throws ServiceException {
-        DTOLibro dtoLibro = findLibroById(id);
-        if (dtoLibro != null) {
-            daoLibro.delete(dtoLibro); // Delete from the database
-            librosInMemory.remove(dtoLibro); // Remove from the in-memory list
-            libroAutorService.deleteRelationsByLibroId(dtoLibro.getId()); // Remove relations with authors
-        } else {
-            throw new ServiceException("El libro que intentas eliminar no existe");
+        ReentrantLock lock = libroLocks.get(id);
+        lock.lock();
+        try {
+            DTOLibro dtoLibro = lookupLibro(id).orElse(null);
+            if (dtoLibro != null) {
+                daoLibro.delete(dtoLibro); // Delete from the database
+                librosInMemory.remove(dtoLibro.id()); // Remove from the in-memory list
+                unindexIsbn(dtoLibro.id(), dtoLibro.isbn());
+                tituloIndex.remove(dtoLibro.id());
+                synchronized (libroIds) {
+                    libroIds.remove(dtoLibro.id());
+                }
+                tituloTrigrams.remove(dtoLibro.id());
+                tituloPrefixes.remove(dtoLibro.id());
+                librosReadCache.invalidate(dtoLibro.id());
+                libroAutorService.deleteRelationsByLibroId(dtoLibro.id()); // Remove relations with authors
+            } else {
+                throw new ServiceException("El libro que intentas eliminar no existe", false);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Looks up a book by ID, for callers that expect it may not exist: a missing book is not an error,
+     * so no exception is built.
+     *
+     * @param id The ID of the book.
+     * @return The book, or empty if it does not exist.
+     * @throws ServiceException If an error occurs while reading.
+     */
+    public Optional<DTOLibro> lookupLibro(int id) throws ServiceException {
+        return Optional.ofNullable(librosInMemory.get(id));
+    }
+
     /**
      * Finds a book by ID from the in-memory list.
      *
@@ -99,11 +297,261 @@ public class LibroService {
      * @throws ServiceException If the book is not found.
      */
     public DTOLibro findLibroById(Integer id) throws ServiceException {
-        for (DTOLibro dtoLibro : librosInMemory) {
-            if (dtoLibro.getId().equals(id)) {
-                return dtoLibro;
+        return lookupLibro(id).orElseThrow(() -> new ServiceException("Libro no encontrado", false));
+    }
+
+    /**
+     * Finds a book by ISBN, e.g. read by a barcode scanner, through the in-memory ISBN index.
+     * ISBN-10 and ISBN-13 forms of the same code find the same book.
+     *
+     * @param isbn The ISBN, with or without hyphens.
+     * @return The DTOLibro object.
+     * @throws ServiceException If the ISBN is not valid or the book is not found.
+     */
+    public DTOLibro findLibroByIsbn(String isbn) throws ServiceException {
+        long packed = Isbn.pack(isbn);
+        DTOLibro dtoLibro = findIndexed(packed);
+        if (dtoLibro != null) {
+            return dtoLibro;
+        }
+        throw new ServiceException("Libro no encontrado", false);
+    }
+
+    /**
+     * Searches books by title. Accents, case and Spanish stop words are ignored, and only
+     * the books whose title contains all the words are returned, best matches first.
+     *
+     * @param texto  The words to search.
+     * @param limite The maximum number of books returned.
+     * @return The matching books, which may be empty.
+     * @throws ServiceException If an error occurs while reading the books.
+     */
+    public List<DTOLibro> searchLibros(String texto, int limite) throws ServiceException {
+        List<DTOLibro> libros = new ArrayList<>();
+        for (int id : tituloIndex.search(texto, limite)) {
+            DTOLibro dtoLibro = librosInMemory.get(id);
+            if (dtoLibro != null) {
+                libros.add(dtoLibro);
+            }
+        }
+        return libros;
+    }
+
+    /**
+     * Finds the books whose title is similar to a text, tolerating typos and missing accents
+     * (e.g. "Cien anos de soledat").
+     *
+     * @param texto  The approximate title.
+     * @param limite The maximum number of books returned.
+     * @return The similar books, most similar first, which may be empty.
+     * @throws ServiceException If an error occurs while reading the books.
+     */
+    public List<DTOLibro> findSimilarLibros(String texto, int limite) throws ServiceException {
+        List<DTOLibro> libros = new ArrayList<>();
+        for (int id : tituloTrigrams.search(texto, limite)) {
+            DTOLibro dtoLibro = librosInMemory.get(id);
+            if (dtoLibro != null) {
+                libros.add(dtoLibro);
+            }
+        }
+        return libros;
+    }
+
+    /**
+     * Suggests completions for the beginning of a title, or of any of its words, for autocomplete.
+     * It only uses the title index, so it can be called from background threads.
+     *
+     * @param prefijo The text typed so far.
+     * @param limite  The maximum number of suggestions.
+     * @return The ids and titles of the matching books, in alphabetical order.
+     */
+    public List<Suggestion> suggestLibros(String prefijo, int limite) {
+        return tituloPrefixes.complete(prefijo, limite);
+    }
+
+    /**
+     * Gets the ids of all the books in the catalog, including those not cached.
+     *
+     * @return a copy of the set of book ids
+     */
+    public IntBitmap getLibroIds() {
+        synchronized (libroIds) {
+            return libroIds.copy();
+        }
+    }
+
+    /**
+     * Gets the write metrics for book updates, including the updates skipped because nothing changed.
+     *
+     * @return the write metrics
+     */
+    public WriteMetrics getWriteMetrics() {
+        return daoLibro.getWriteMetrics();
+    }
+
+    /**
+     * Gets the statistics of the book cache (hit ratio and evictions).
+     *
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats() {
+        return librosInMemory.getStats();
+    }
+
+    /**
+     * Applies a change read from the database change log to the in-memory cache.
+     * Changes already reflected in memory (same version) are ignored, and a bounded cache
+     * does not load entities that are not in its hot set.
+     *
+     * @param id     The ID of the changed book.
+     * @param actual The current state of the book in the database, or null if it was deleted.
+     */
+    public void applyLibroChange(int id, DTOLibro actual) {
+        ReentrantLock lock = libroLocks.get(id);
+        lock.lock();
+        try {
+            librosReadCache.invalidate(id);
+            DTOLibro cached = librosInMemory.peek(id);
+            if (cached != null) {
+                unindexIsbn(id, cached.isbn());
+            }
+            if (actual == null) {
+                librosInMemory.remove(id);
+                tituloIndex.remove(id);
+                synchronized (libroIds) {
+                    libroIds.remove(id);
+                }
+                tituloTrigrams.remove(id);
+                tituloPrefixes.remove(id);
+            } else {
+                if (cached != null ? cached.version() != actual.version() : librosInMemory.isComplete()) {
+                    librosInMemory.put(id, actual); // Updated, or created by another instance
+                }
+                indexIsbn(actual); // Indexed even if not cached, the indexes cover the whole catalog
+                tituloIndex.put(id, actual.titulo());
+                synchronized (libroIds) {
+                    libroIds.add(id);
+                }
+                tituloTrigrams.put(id, actual.titulo());
+                tituloPrefixes.put(id, actual.titulo());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces a stale book in memory with its current state in the database,
+     * or removes it if it no longer exists.
+     *
+     * @param stale the outdated in-memory book
+     * @throws ServiceException if an error occurs while reading the book
+     */
+    private void refreshLibro(DTOLibro stale) throws ServiceException {
+        ReentrantLock lock = libroLocks.get(stale.id());
+        lock.lock();
+        try {
+            librosReadCache.invalidate(stale.id());
+            DTOLibro actual = daoLibro.read(stale.id());
+            unindexIsbn(stale.id(), stale.isbn());
+            if (actual == null) {
+                librosInMemory.remove(stale.id());
+                tituloIndex.remove(stale.id());
+                synchronized (libroIds) {
+                    libroIds.remove(stale.id());
+                }
+                tituloTrigrams.remove(stale.id());
+                tituloPrefixes.remove(stale.id());
+            } else {
+                librosInMemory.put(actual.id(), actual);
+                indexIsbn(actual);
+                tituloIndex.put(actual.id(), actual.titulo());
+                synchronized (libroIds) {
+                    libroIds.add(actual.id());
+                }
+                tituloTrigrams.put(actual.id(), actual.titulo());
+                tituloPrefixes.put(actual.id(), actual.titulo());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks that no other book has an ISBN.
+     *
+     * @param packed the packed ISBN
+     * @param id     the ID of the book that will have the ISBN, 0 for a new book
+     * @throws ServiceException if another book has the ISBN
+     */
+    private void checkIsbnDisponible(long packed, int id) throws ServiceException {
+        DTOLibro existente = findIndexed(packed);
+        if (existente != null && existente.id() != id) {
+            throw new ServiceException("Ya existe un libro con el ISBN " + existente.isbn() + " (ID " + existente.id() + ")");
+        }
+    }
+
+    /**
+     * Finds the book of a packed ISBN in the index. The book is read to confirm it still has
+     * the ISBN; stale entries (e.g. a change missed while the poller was behind) are dropped.
+     *
+     * @param packed the packed ISBN
+     * @return the book, or null if no book has the ISBN
+     * @throws ServiceException if an error occurs while reading the book
+     */
+    private DTOLibro findIndexed(long packed) throws ServiceException {
+        int id;
+        synchronized (isbnIndex) {
+            id = isbnIndex.get(packed);
+        }
+        if (id < 0) {
+            return null;
+        }
+        DTOLibro dtoLibro = librosInMemory.get(id); // Not under the index lock, it may read the database
+        if (dtoLibro != null && Isbn.tryPack(dtoLibro.isbn()) == packed) {
+            return dtoLibro;
+        }
+        unindexIsbn(id, packed);
+        return null;
+    }
+
+    /**
+     * Adds the ISBN of a book to the index. Books with a malformed ISBN are not indexed.
+     *
+     * @param libro the book
+     */
+    private void indexIsbn(DTOLibro libro) {
+        long packed = Isbn.tryPack(libro.isbn());
+        if (packed != 0) {
+            synchronized (isbnIndex) {
+                isbnIndex.put(packed, libro.id());
+            }
+        }
+    }
+
+    /**
+     * Removes an ISBN from the index if it still points to a book.
+     *
+     * @param id   the ID of the book
+     * @param isbn the ISBN the book had
+     */
+    private void unindexIsbn(int id, String isbn) {
+        unindexIsbn(id, Isbn.tryPack(isbn));
+    }
+
+    /**
+     * Removes a packed ISBN from the index if it still points to a book.
+     *
+     * @param id     the ID of the book
+     * @param packed the packed ISBN, 0 if it was not indexed
+     */
+    private void unindexIsbn(int id, long packed) {
+        if (packed != 0) {
+            synchronized (isbnIndex) {
+                if (isbnIndex.get(packed) == id) {
+                    isbnIndex.remove(packed);
+                }
             }
         }
-        throw new ServiceException("Libro no encontrado");
     }
 }
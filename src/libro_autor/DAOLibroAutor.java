@@ -1,7 +1,7 @@
 package libro_autor;
 
 import exception.ServiceException;
-import jdbc.DDL;
+import jdbc.ConnectionPool;
 import java.sql.*;
 import java.util.List;
 import java.util.ArrayList;
@@ -9,20 +9,18 @@ import java.util.ArrayList;
 /**
  * The DAOLibroAutor class handles CRUD operations for the Libro_Autor (Book_Author) relationship.
  *
- * @version 1.1.2
+ * @version 1.2.2
  */
 public class DAOLibroAutor {
     private static final String CREATE = "INSERT INTO Libro_Autor (idLibro, idAutor) VALUES (?, ?)";
     private static final String READ_BY_LIBRO = "SELECT * FROM Libro_Autor WHERE idLibro = ?";
     private static final String READ_BY_AUTOR = "SELECT * FROM Libro_Autor WHERE idAutor = ?";
     private static final String READ_ALL = "SELECT * FROM Libro_Autor";
-    private static Connection conexion;
 
     /**
-     * Initializes a new DAOLibroAutor instance by establishing a database connection.
+     * Initializes a new DAOLibroAutor instance. Each statement runs on its own connection, borrowed from the {@link ConnectionPool}.
      */
     public DAOLibroAutor() {
-        this.conexion = DDL.getConnection();
     }
 
     /**
@@ -32,7 +30,8 @@ public class DAOLibroAutor {
      * @throws ServiceException if there is an error during creation.
      */
         public void create(DTOLibroAutor libroAutor) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(CREATE)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(CREATE)) {
             pst.setInt(1, libroAutor.getLibroId());
             pst.setInt(2, libroAutor.getAutorId());
             pst.executeUpdate();
@@ -50,7 +49,8 @@ public class DAOLibroAutor {
      */
     public List<DTOLibroAutor> readByLibro(int libroId) throws ServiceException {
         List<DTOLibroAutor> relaciones = new ArrayList<>();
-        try (PreparedStatement pst = conexion.prepareStatement(READ_BY_LIBRO)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ_BY_LIBRO)) {
             pst.setInt(1, libroId);
             ResultSet rs = pst.executeQuery();
             while (rs.next()) {
@@ -71,7 +71,8 @@ public class DAOLibroAutor {
      */
     public List<DTOLibroAutor> readByAutor(int autorId) throws ServiceException {
         List<DTOLibroAutor> relaciones = new ArrayList<>();
-        try (PreparedStatement pst = conexion.prepareStatement(READ_BY_AUTOR)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ_BY_AUTOR)) {
             pst.setInt(1, autorId);
             ResultSet rs = pst.executeQuery();
             while (rs.next()) {
@@ -91,7 +92,8 @@ public class DAOLibroAutor {
      */
     public List<DTOLibroAutor> readAll() throws ServiceException {
         List<DTOLibroAutor> relaciones = new ArrayList<>();
-        try (Statement st = conexion.createStatement();
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
              ResultSet rs = st.executeQuery(READ_ALL)) {
             while (rs.next()) {
                 relaciones.add(getLibroAutor(rs));
@@ -3,15 +3,23 @@ package libro_autor;
 import exception.ServiceException;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service class for managing the many-to-many relationship between books and authors.
+ * <p>
+ * The relationships are kept by book and by author in concurrent maps, so they can be read from any
+ * thread while they change. The list of each book or author is never modified, a change replaces it
+ * atomically; a reader can briefly see a relationship in one map and not yet in the other.
  *
- * @version 1.1
+ * @version 1.3
  */
 public class LibroAutorService {
-    private List<DTOLibroAutor> libroAutorInMemory;
+    private final ConcurrentHashMap<Integer, List<DTOLibroAutor>> porLibro = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, List<DTOLibroAutor>> porAutor = new ConcurrentHashMap<>();
     private DAOLibroAutor daoLibroAutor;
     /**
      * Initializes the service by loading all book-author relationships into memory.
@@ -19,8 +27,24 @@ public class LibroAutorService {
      * @throws ServiceException If an error occurs while loading data.
      */
     public LibroAutorService() throws ServiceException {
+        this(new DAOLibroAutor().readAll());
+    }
+
+    /**
+     * Initializes the service with relationships already read, e.g. from a local snapshot.
+     *
+     * @param relaciones Every book-author relationship.
+     */
+    public LibroAutorService(List<DTOLibroAutor> relaciones) {
         this.daoLibroAutor = new DAOLibroAutor();
-        libroAutorInMemory = daoLibroAutor.readAll(); // Load all relations into memory
+        Map<Integer, List<DTOLibroAutor>> delLibro = new HashMap<>();
+        Map<Integer, List<DTOLibroAutor>> delAutor = new HashMap<>();
+        for (DTOLibroAutor dtoLibroAutor : relaciones) { // Load all relations into memory, grouped first
+            delLibro.computeIfAbsent(dtoLibroAutor.getLibroId(), k -> new ArrayList<>()).add(dtoLibroAutor);
+            delAutor.computeIfAbsent(dtoLibroAutor.getAutorId(), k -> new ArrayList<>()).add(dtoLibroAutor);
+        }
+        delLibro.forEach((libroId, lista) -> porLibro.put(libroId, List.copyOf(lista)));
+        delAutor.forEach((autorId, lista) -> porAutor.put(autorId, List.copyOf(lista)));
     }
 
     /**
@@ -33,7 +57,7 @@ public class LibroAutorService {
     public void createLibroAutor(int libroId, int autorId) throws ServiceException {
         DTOLibroAutor dtoLibroAutor = new DTOLibroAutor(libroId, autorId);
         daoLibroAutor.create(dtoLibroAutor);
-        libroAutorInMemory.add(dtoLibroAutor); // Sync with in-memory list
+        add(dtoLibroAutor); // Sync with in-memory list
     }
 
     /**
@@ -44,13 +68,7 @@ public class LibroAutorService {
      * @throws ServiceException If an error occurs during the search.
      */
     public List<DTOLibroAutor> findRelationsByLibroId(int libroId) throws ServiceException {
-        List<DTOLibroAutor> relaciones = new ArrayList<>();
-        for (DTOLibroAutor dtoLibroAutor : libroAutorInMemory) {
-            if (dtoLibroAutor.getLibroId() == libroId) {
-                relaciones.add(dtoLibroAutor);
-            }
-        }
-        return relaciones;
+        return new ArrayList<>(porLibro.getOrDefault(libroId, List.of()));
     }
 
     /**
@@ -61,11 +79,18 @@ public class LibroAutorService {
      * @throws ServiceException If an error occurs during the search.
      */
     public List<DTOLibroAutor> findRelationsByAutorId(int autorId) throws ServiceException {
+        return new ArrayList<>(porAutor.getOrDefault(autorId, List.of()));
+    }
+
+    /**
+     * Gets every book-author relationship.
+     *
+     * @return a copy of the relationships in memory.
+     */
+    public List<DTOLibroAutor> findAllRelations() {
         List<DTOLibroAutor> relaciones = new ArrayList<>();
-        for (DTOLibroAutor dtoLibroAutor : libroAutorInMemory) {
-            if (dtoLibroAutor.getAutorId() == autorId) {
-                relaciones.add(dtoLibroAutor);
-            }
+        for (List<DTOLibroAutor> delLibro : porLibro.values()) {
+            relaciones.addAll(delLibro);
         }
         return relaciones;
     }
@@ -76,7 +101,12 @@ public class LibroAutorService {
      * @param libroId The ID of the book.
      */
     public void deleteRelationsByLibroId(int libroId)  {
-        libroAutorInMemory.removeIf(dtoLibroAutor -> dtoLibroAutor.getLibroId() == libroId);
+        List<DTOLibroAutor> relaciones = porLibro.remove(libroId);
+        if (relaciones != null) {
+            for (DTOLibroAutor relacion : relaciones) {
+                without(porAutor, relacion.getAutorId(), libroId, relacion.getAutorId());
+            }
+        }
     }
 
     /**
@@ -85,6 +115,66 @@ public class LibroAutorService {
      * @param autorId The ID of the author.
      */
     public void deleteRelationsByAutorId(int autorId) {
-        libroAutorInMemory.removeIf(dtoLibroAutor -> dtoLibroAutor.getAutorId() == autorId);
+        List<DTOLibroAutor> relaciones = porAutor.remove(autorId);
+        if (relaciones != null) {
+            for (DTOLibroAutor relacion : relaciones) {
+                without(porLibro, relacion.getLibroId(), relacion.getLibroId(), autorId);
+            }
+        }
+    }
+
+    /**
+     * Applies a relationship change read from the database change log to the in-memory list.
+     *
+     * @param libroId The ID of the book.
+     * @param autorId The ID of the author.
+     * @param existe  true if the relationship was created, false if it was deleted.
+     */
+    public void applyRelationChange(int libroId, int autorId, boolean existe) {
+        without(porLibro, libroId, libroId, autorId);
+        without(porAutor, autorId, libroId, autorId);
+        if (existe) {
+            add(new DTOLibroAutor(libroId, autorId));
+        }
+    }
+
+    /**
+     * Adds a relationship to the lists of its book and its author.
+     *
+     * @param relacion the relationship
+     */
+    private void add(DTOLibroAutor relacion) {
+        porLibro.merge(relacion.getLibroId(), List.of(relacion), LibroAutorService::concat);
+        porAutor.merge(relacion.getAutorId(), List.of(relacion), LibroAutorService::concat);
+    }
+
+    /**
+     * Removes a relationship from the list of a key, replacing the list atomically.
+     *
+     * @param map     the relationships by book or by author
+     * @param key     the book or author id
+     * @param libroId the ID of the book of the relationship
+     * @param autorId the ID of the author of the relationship
+     */
+    private static void without(ConcurrentHashMap<Integer, List<DTOLibroAutor>> map, int key, int libroId, int autorId) {
+        map.computeIfPresent(key, (k, relaciones) -> {
+            List<DTOLibroAutor> restantes = new ArrayList<>(relaciones);
+            restantes.removeIf(r -> r.getLibroId() == libroId && r.getAutorId() == autorId);
+            return restantes.isEmpty() ? null : List.copyOf(restantes);
+        });
+    }
+
+    /**
+     * Joins two lists of relationships into a new unmodifiable one.
+     *
+     * @param relaciones the current list
+     * @param nuevas     the relationships added
+     * @return the joined list
+     */
+    private static List<DTOLibroAutor> concat(List<DTOLibroAutor> relaciones, List<DTOLibroAutor> nuevas) {
+        List<DTOLibroAutor> todas = new ArrayList<>(relaciones.size() + nuevas.size());
+        todas.addAll(relaciones);
+        todas.addAll(nuevas);
+        return List.copyOf(todas);
     }
 }
@@ -0,0 +1,32 @@
+package main;
+
+import catalogo.CatalogoWriter;
+import exception.ServiceException;
+import jdbc.DDL;
+
+import java.nio.file.Path;
+
+/**
+ * Exports the catalog of books and authors into the binary file read by the kiosks
+ * (-Dbiblioteca.catalogo). Meant to be run periodically, e.g. every night.
+ */
+public class ExportarCatalogo {
+    /**
+     * The entry point of the export.
+     *
+     * @param args the path of the catalog file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Uso: ExportarCatalogo <fichero>");
+            System.exit(2);
+        }
+        DDL.getConnection();
+        try {
+            CatalogoWriter.export(Path.of(args[0]));
+        } catch (ServiceException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
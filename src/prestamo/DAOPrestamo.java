@@ -1,48 +1,88 @@
 package prestamo;
 
+import exception.ConcurrencyException;
 import exception.ServiceException;
-import jdbc.DDL;
+import jdbc.ConnectionPool;
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 /**
  * The DAOPrestamo class handles CRUD operations for the Prestamo (Loan) entity.
  *
- * @version 2.1
+ * @version 2.8
  */
 public class DAOPrestamo {
     private static final String CREATE = "INSERT INTO Prestamo (fechaInicio, fechaFin, usuarioId, libroId) VALUES (?, ?, ?, ?)";
     private static final String READ = "SELECT * FROM Prestamo WHERE ID = ?";
-    private static final String READ_ALL = "SELECT * FROM Prestamo";
-    private static final String UPDATE = "UPDATE Prestamo SET fechaInicio = ?, fechaFin = ?, usuarioId = ?, libroId = ? WHERE ID = ?";
+    private static final String READ_ALL = "SELECT * FROM Prestamo ORDER BY id";
+    // Date range queries over the current and the archived loans, served by the indexes on fechaInicio and fechaFin.
+    // An archived copy of a loan still in Prestamo (extended while it was being archived) is skipped.
+    private static final String NOT_IN_PRESTAMO = " AND NOT EXISTS (SELECT 1 FROM Prestamo p WHERE p.id = h.id)";
+    private static final String READ_ACTIVOS = "SELECT * FROM Prestamo WHERE fechaInicio <= ? AND fechaFin >= ? "
+            + "UNION ALL SELECT * FROM Prestamo_Historico h WHERE fechaInicio <= ? AND fechaFin >= ?" + NOT_IN_PRESTAMO
+            + " ORDER BY fechaInicio, id";
+    private static final String READ_BY_FECHA_INICIO = "SELECT * FROM Prestamo WHERE fechaInicio BETWEEN ? AND ? "
+            + "UNION ALL SELECT * FROM Prestamo_Historico h WHERE fechaInicio BETWEEN ? AND ?" + NOT_IN_PRESTAMO
+            + " ORDER BY fechaInicio, id";
+    private static final String READ_BY_FECHA_FIN = "SELECT * FROM Prestamo WHERE fechaFin BETWEEN ? AND ? "
+            + "UNION ALL SELECT * FROM Prestamo_Historico h WHERE fechaFin BETWEEN ? AND ?" + NOT_IN_PRESTAMO
+            + " ORDER BY fechaFin, id";
+    // Counts of the archived loans for the reports, skipping the ones still in Prestamo (counted in memory)
+    private static final String ARCHIVED_ONLY = " FROM Prestamo_Historico h WHERE NOT EXISTS (SELECT 1 FROM Prestamo p WHERE p.id = h.id)";
+    private static final String COUNT_HISTORICO_BY_LIBRO = "SELECT libroId, COUNT(*)" + ARCHIVED_ONLY + " GROUP BY libroId";
+    private static final String COUNT_HISTORICO_BY_USUARIO = "SELECT usuarioId, COUNT(*)" + ARCHIVED_ONLY + " GROUP BY usuarioId";
+    private static final String COUNT_HISTORICO_BY_MES = "SELECT YEAR(fechaInicio), MONTH(fechaInicio), COUNT(*)" + ARCHIVED_ONLY
+            + " GROUP BY YEAR(fechaInicio), MONTH(fechaInicio)";
+    private static final String READ_HISTORICO_MAX_FIN = "SELECT MAX(fechaFin) FROM Prestamo_Historico";
+    private static final String READ_HISTORICO_BY_LIBRO = "SELECT * FROM Prestamo_Historico WHERE libroId = ? ORDER BY id";
+    private static final String READ_HISTORICO_BY_USUARIO = "SELECT * FROM Prestamo_Historico WHERE usuarioId = ? ORDER BY id";
+    // Archival in batches: copy the oldest ended loans, then delete the ones whose copy is current
+    private static final String ARCHIVE = "INSERT INTO Prestamo_Historico (id, fechaInicio, fechaFin, usuarioId, libroId, version) "
+            + "SELECT id, fechaInicio, fechaFin, usuarioId, libroId, version FROM Prestamo WHERE fechaFin < ? ORDER BY id LIMIT ? "
+            + "ON DUPLICATE KEY UPDATE fechaInicio = VALUES(fechaInicio), fechaFin = VALUES(fechaFin), "
+            + "usuarioId = VALUES(usuarioId), libroId = VALUES(libroId), version = VALUES(version)";
+    private static final String DELETE_ARCHIVED = "DELETE p FROM Prestamo p JOIN Prestamo_Historico h "
+            + "ON h.id = p.id AND h.version = p.version WHERE p.fechaFin < ?";
+    private static final String READ_BY_LIBRO = "SELECT * FROM Prestamo WHERE libroId = ? ORDER BY id";
+    private static final String READ_BY_USUARIO = "SELECT * FROM Prestamo WHERE usuarioId = ? ORDER BY id";
+    private static final String COUNT_BY_LIBRO = "SELECT libroId, COUNT(*) FROM Prestamo GROUP BY libroId";
+    private static final String COUNT_BY_USUARIO = "SELECT usuarioId, COUNT(*) FROM Prestamo GROUP BY usuarioId";
+    private static final String UPDATE = "UPDATE Prestamo SET fechaInicio = ?, fechaFin = ?, usuarioId = ?, libroId = ?, version = version + 1 WHERE ID = ? AND version = ?";
     private static final String DELETE = "DELETE FROM Prestamo WHERE ID = ?";
-    private static Connection conexion;
 
     /**
-     * Initializes a new DAOPrestamo instance by establishing a database connection.
+     * Initializes a new DAOPrestamo instance. Each statement runs on its own connection, borrowed from the {@link ConnectionPool}.
      */
     public DAOPrestamo() {
-        this.conexion = DDL.getConnection();
     }
 
     /**
      * Creates a new loan in the database.
      *
      * @param prestamo The loan object containing the start and end dates.
+     * @return The stored loan, with the ID generated by the database.
      * @throws ServiceException if there is an error during the creation.
      */
-    public void create(DTOPrestamo prestamo) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
-            pst.setDate(1, prestamo.getFechaInicio());
-            pst.setDate(2, prestamo.getFechaFin());
-            pst.setInt(3, prestamo.getUsuarioId());
-            pst.setInt(4, prestamo.getLibroId());
+    public DTOPrestamo create(DTOPrestamo prestamo) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
+            pst.setDate(1, Date.valueOf(prestamo.fechaInicio()));
+            pst.setDate(2, Date.valueOf(prestamo.fechaFin()));
+            pst.setInt(3, prestamo.usuarioId());
+            pst.setInt(4, prestamo.libroId());
             pst.executeUpdate();
             try (ResultSet rs = pst.getGeneratedKeys()) {
                 if (rs.next()) {
-                    prestamo.setId(rs.getInt(1)); // Set the generated ID
+                    return prestamo.withId(rs.getInt(1)); // Set the generated ID
                 }
             }
+            throw new ServiceException("Error al crear prestamo: no se ha generado el ID");
         } catch (SQLException e) {
             throw new ServiceException("Error al crear prestamo: " + e.getMessage());
         }
@@ -56,7 +96,8 @@ public class DAOPrestamo {
      * @throws ServiceException if there is an error during the read.
      */
     public DTOPrestamo read(int id) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(READ)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ)) {
             pst.setInt(1, id);
             ResultSet rs = pst.executeQuery();
             if (rs.next()) {
@@ -77,7 +118,8 @@ public class DAOPrestamo {
      */
     public ArrayList<DTOPrestamo> readAll() throws ServiceException {
         ArrayList<DTOPrestamo> prestamos = new ArrayList<>();
-        try (Statement st = conexion.createStatement();
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
              ResultSet rs = st.executeQuery(READ_ALL)) {
             while (rs.next()) {
                 prestamos.add(getPrestamo(rs)); // Convert each result to a DTOPrestamo
@@ -88,21 +130,231 @@ public class DAOPrestamo {
         return prestamos;
     }
 
+    /**
+     * Reads all loans from the database in id order, handing them over one by one
+     * instead of building a list, so large tables can be loaded into compact stores.
+     *
+     * @param consumer receives each loan read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readAll(Consumer<DTOPrestamo> consumer) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement()) {
+            st.setFetchSize(1000); // Stream the rows instead of buffering the whole table
+            try (ResultSet rs = st.executeQuery(READ_ALL)) {
+                while (rs.next()) {
+                    consumer.accept(getPrestamo(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer todos los prestamos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the archived loans of a book.
+     *
+     * @param libroId the book id.
+     * @return the archived loans of the book, in id order.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public ArrayList<DTOPrestamo> readHistoricoByLibroId(int libroId) throws ServiceException {
+        return readByKey(READ_HISTORICO_BY_LIBRO, libroId);
+    }
+
+    /**
+     * Reads the archived loans of a user.
+     *
+     * @param usuarioId the user id.
+     * @return the archived loans of the user, in id order.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public ArrayList<DTOPrestamo> readHistoricoByUsuarioId(int usuarioId) throws ServiceException {
+        return readByKey(READ_HISTORICO_BY_USUARIO, usuarioId);
+    }
+
+    /**
+     * Reads the latest end date of the archived loans.
+     *
+     * @return the latest end date, or null if no loan was archived.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public LocalDate readHistoricoMaxFechaFin() throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery(READ_HISTORICO_MAX_FIN)) {
+            Date fechaFin = rs.next() ? rs.getDate(1) : null;
+            return fechaFin == null ? null : fechaFin.toLocalDate();
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer prestamos archivados: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts the archived loans of every book, the ones still in the Prestamo table excluded.
+     *
+     * @return the number of archived loans indexed by book id, as long as the highest id with loans plus one.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public int[] countHistoricoByLibroId() throws ServiceException {
+        return countBy(COUNT_HISTORICO_BY_LIBRO);
+    }
+
+    /**
+     * Counts the archived loans of every user, the ones still in the Prestamo table excluded.
+     *
+     * @return the number of archived loans indexed by user id, as long as the highest id with loans plus one.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public int[] countHistoricoByUsuarioId() throws ServiceException {
+        return countBy(COUNT_HISTORICO_BY_USUARIO);
+    }
+
+    /**
+     * Counts the archived loans started each month, the ones still in the Prestamo table excluded.
+     *
+     * @return the number of archived loans of each month with any, in month order.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public SortedMap<YearMonth, Integer> countHistoricoByMes() throws ServiceException {
+        SortedMap<YearMonth, Integer> counts = new TreeMap<>();
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery(COUNT_HISTORICO_BY_MES)) {
+            while (rs.next()) {
+                counts.put(YearMonth.of(rs.getInt(1), rs.getInt(2)), rs.getInt(3));
+            }
+            return counts;
+        } catch (SQLException e) {
+            throw new ServiceException("Error al contar prestamos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves a batch of the oldest loans ended before a date to the Prestamo_Historico table.
+     * The loans are copied first and only deleted if the copy has their current version, so a loan
+     * updated in between stays in Prestamo and is copied again by a later batch. The deletions are
+     * recorded in the change log, which removes the loans from the caches of every instance.
+     *
+     * @param corte the date; loans ending on it or later are kept.
+     * @param lote  the maximum number of loans moved.
+     * @return the number of loans moved.
+     * @throws ServiceException if there is an error during the archival.
+     */
+    public int archiveBefore(LocalDate corte, int lote) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement copy = conexion.prepareStatement(ARCHIVE);
+             PreparedStatement delete = conexion.prepareStatement(DELETE_ARCHIVED)) {
+            copy.setDate(1, Date.valueOf(corte));
+            copy.setInt(2, lote);
+            copy.executeUpdate();
+            delete.setDate(1, Date.valueOf(corte));
+            return delete.executeUpdate();
+        } catch (SQLException e) {
+            throw new ServiceException("Error al archivar prestamos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the loans active on a day, archived ones included, started that day or before and ending that day or after.
+     *
+     * @param dia      the day.
+     * @param consumer receives each loan read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readActivos(LocalDate dia, Consumer<DTOPrestamo> consumer) throws ServiceException {
+        readRange(READ_ACTIVOS, dia, dia, consumer);
+    }
+
+    /**
+     * Reads the loans started between two dates, both included, archived ones included, in start date order.
+     *
+     * @param desde    the first day.
+     * @param hasta    the last day.
+     * @param consumer receives each loan read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readByFechaInicio(LocalDate desde, LocalDate hasta, Consumer<DTOPrestamo> consumer) throws ServiceException {
+        readRange(READ_BY_FECHA_INICIO, desde, hasta, consumer);
+    }
+
+    /**
+     * Reads the loans ending between two dates, both included, archived ones included, in end date order.
+     *
+     * @param desde    the first day.
+     * @param hasta    the last day.
+     * @param consumer receives each loan read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readByFechaFin(LocalDate desde, LocalDate hasta, Consumer<DTOPrestamo> consumer) throws ServiceException {
+        readRange(READ_BY_FECHA_FIN, desde, hasta, consumer);
+    }
+
+    /**
+     * Reads the loans of a book.
+     *
+     * @param libroId the book id.
+     * @return the loans of the book, in id order.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public ArrayList<DTOPrestamo> readByLibroId(int libroId) throws ServiceException {
+        return readByKey(READ_BY_LIBRO, libroId);
+    }
+
+    /**
+     * Reads the loans of a user.
+     *
+     * @param usuarioId the user id.
+     * @return the loans of the user, in id order.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public ArrayList<DTOPrestamo> readByUsuarioId(int usuarioId) throws ServiceException {
+        return readByKey(READ_BY_USUARIO, usuarioId);
+    }
+
+    /**
+     * Counts the loans of every book in the database.
+     *
+     * @return the number of loans indexed by book id, as long as the highest id with loans plus one.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public int[] countByLibroId() throws ServiceException {
+        return countBy(COUNT_BY_LIBRO);
+    }
+
+    /**
+     * Counts the loans of every user in the database.
+     *
+     * @return the number of loans indexed by user id, as long as the highest id with loans plus one.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public int[] countByUsuarioId() throws ServiceException {
+        return countBy(COUNT_BY_USUARIO);
+    }
+
     /**
      * Updates an existing loan's information in the database.
+     * The row is only updated if its version still matches the one that was read.
      *
      * @param prestamo The DTOPrestamo object containing the updated loan information.
+     * @return The stored loan, with its new version.
      * @throws IllegalArgumentException if the loan's ID is invalid (less than or equal to 0).
+     * @throws ConcurrencyException if the loan was modified or deleted by another instance.
      * @throws ServiceException if there is an error during the update.
      */
-    public void update(DTOPrestamo prestamo) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
-            pst.setDate(1, prestamo.getFechaInicio());
-            pst.setDate(2, prestamo.getFechaFin());
-            pst.setInt(3, prestamo.getUsuarioId());
-            pst.setInt(4, prestamo.getLibroId());
-            pst.setInt(5, prestamo.getId());
-            pst.executeUpdate();
+    public DTOPrestamo update(DTOPrestamo prestamo) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
+            pst.setDate(1, Date.valueOf(prestamo.fechaInicio()));
+            pst.setDate(2, Date.valueOf(prestamo.fechaFin()));
+            pst.setInt(3, prestamo.usuarioId());
+            pst.setInt(4, prestamo.libroId());
+            pst.setInt(5, prestamo.id());
+            pst.setInt(6, prestamo.version());
+            if (pst.executeUpdate() == 0) {
+                throw new ConcurrencyException("El préstamo ha sido modificado por otro usuario");
+            }
+            return prestamo.withVersion(prestamo.version() + 1);
         } catch (SQLException e) {
             throw new ServiceException("Error al actualizar prestamo: " + e.getMessage());
         }
@@ -116,17 +368,96 @@ public class DAOPrestamo {
      * @throws ServiceException if there is an error during the deletion.
      */
     public void delete(DTOPrestamo prestamo) throws ServiceException {
-        if (prestamo.getId() <= 0) {
+        if (prestamo.id() <= 0) {
             throw new IllegalArgumentException("ID de prestamo no válido");
         }
-        try (PreparedStatement pst = conexion.prepareStatement(DELETE)) {
-            pst.setInt(1, prestamo.getId());
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(DELETE)) {
+            pst.setInt(1, prestamo.id());
             pst.executeUpdate();
         } catch (SQLException e) {
             throw new ServiceException("Error al eliminar prestamo: " + e.getMessage());
         }
     }
 
+    /**
+     * Runs a query with one id parameter.
+     *
+     * @param sql the query.
+     * @param id  the id.
+     * @return the loans read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    private ArrayList<DTOPrestamo> readByKey(String sql, int id) throws ServiceException {
+        ArrayList<DTOPrestamo> prestamos = new ArrayList<>();
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(sql)) {
+            pst.setInt(1, id);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    prestamos.add(getPrestamo(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer prestamos: " + e.getMessage());
+        }
+        return prestamos;
+    }
+
+    /**
+     * Runs a query returning (id, count) rows into a dense array indexed by id.
+     *
+     * @param sql the query.
+     * @return the counts indexed by id.
+     * @throws ServiceException if there is an error during the read.
+     */
+    private int[] countBy(String sql) throws ServiceException {
+        int[] counts = new int[1024];
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            int length = 0;
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                if (id >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+                }
+                counts[id] = rs.getInt(2);
+                length = Math.max(length, id + 1);
+            }
+            return Arrays.copyOf(counts, length);
+        } catch (SQLException e) {
+            throw new ServiceException("Error al contar prestamos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a date range query over the current and the archived loans, streaming the rows.
+     *
+     * @param sql      the query.
+     * @param first    the first parameter.
+     * @param second   the second parameter.
+     * @param consumer receives each loan read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    private void readRange(String sql, LocalDate first, LocalDate second, Consumer<DTOPrestamo> consumer) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(sql)) {
+            pst.setDate(1, Date.valueOf(first));
+            pst.setDate(2, Date.valueOf(second));
+            pst.setDate(3, Date.valueOf(first)); // Same range over the archived loans
+            pst.setDate(4, Date.valueOf(second));
+            pst.setFetchSize(1000);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(getPrestamo(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer prestamos por fecha: " + e.getMessage());
+        }
+    }
+
     /**
      * Converts a ResultSet row into a DTOPrestamo object.
      *
@@ -136,13 +467,12 @@ public class DAOPrestamo {
      */
     private DTOPrestamo getPrestamo(ResultSet rs) throws ServiceException {
         try {
-            Date fechaInicio = rs.getDate("fechaInicio");
-            Date fechaFin = rs.getDate("fechaFin");
+            LocalDate fechaInicio = rs.getDate("fechaInicio").toLocalDate();
+            LocalDate fechaFin = rs.getDate("fechaFin").toLocalDate();
             int usuarioId = rs.getInt("usuarioId");
             int libroId = rs.getInt("libroId");
-            DTOPrestamo prestamo = new DTOPrestamo(fechaInicio, fechaFin, usuarioId, libroId);
-            prestamo.setId(rs.getInt("id")); // Assign the ID from the database
-            return prestamo;
+            return new DTOPrestamo(rs.getInt("id"), fechaInicio, fechaFin, usuarioId, libroId,
+                    rs.getInt("version")); // ID assigned by the database
         } catch (SQLException e) {
             throw new ServiceException("Error al leer ResultSet: " + e.getMessage());
         }
@@ -1,122 +1,64 @@
 package prestamo;
 
-import java.sql.Date;
+import java.time.LocalDate;
 
 /**
- * The type DTOPrestamo class encapsulate the details for the Prestamo (Loan) entity.
+ * The type DTOPrestamo record encapsulate the details for the Prestamo (Loan) entity.
+ * It is immutable, so cached loans can be shared between threads; changes build a copy
+ * with the {@code with} methods, which the services store in place of the previous one.
  *
- * @version 2.0
+ * @param id          the loan id, 0 for a loan not stored yet
+ * @param fechaInicio the loan start date
+ * @param fechaFin    the loan end date
+ * @param usuarioId   the user id borrowing the book
+ * @param libroId     the being borrowed book id
+ * @param version     the row version used for optimistic concurrency
+ * @version 3.0
  */
-public class DTOPrestamo {
-    private Integer id;
-    private Date fechaInicio;
-    private Date fechaFin;
-    private int usuarioId;
-    private int libroId;
+public record DTOPrestamo(int id, LocalDate fechaInicio, LocalDate fechaFin, int usuarioId, int libroId, int version) {
 
     /**
-     * Instantiates a new Dto prestamo (Loan).
+     * Instantiates a new Dto prestamo (Loan) not stored yet.
      *
      * @param fechaInicio the loan start date
      * @param fechaFin    the loan end date
-     * @param usuarioId  the user id borrowing the book
-     * @param libroId the being borrowed book id
+     * @param usuarioId   the user id borrowing the book
+     * @param libroId     the being borrowed book id
      */
-    public DTOPrestamo(Date fechaInicio, Date fechaFin, int usuarioId, int libroId) {
-        this.fechaInicio = fechaInicio;
-        this.fechaFin = fechaFin;
-        this.usuarioId = usuarioId;
-        this.libroId = libroId;
+    public DTOPrestamo(LocalDate fechaInicio, LocalDate fechaFin, int usuarioId, int libroId) {
+        this(0, fechaInicio, fechaFin, usuarioId, libroId, 0);
     }
 
     /**
-     * Gets id.
-     *
-     * @return the loan id
-     */
-    public Integer getId() {
-        return id;
-    }
-
-    /**
-     * Sets id.
+     * Copies the loan with the id assigned by the database.
      *
      * @param id the loan id
+     * @return the copy
      */
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
-    /**
-     * Gets fechaInicio.
-     *
-     * @return the loan start date
-     */
-    public Date getFechaInicio() {
-        return fechaInicio;
-    }
-
-    /**
-     * Sets fechaInicio.
-     *
-     * @param fechaInicio the loan start date
-     */
-    public void setFechaInicio(Date fechaInicio) {
-        this.fechaInicio = fechaInicio;
-    }
-
-    /**
-     * Gets fechaFin.
-     *
-     * @return the loan end date
-     */
-    public Date getFechaFin() {
-        return fechaFin;
-    }
-
-    /**
-     * Sets fechaFin.
-     *
-     * @param fechaFin the loan end date
-     */
-    public void setFechaFin(Date fechaFin) {
-        this.fechaFin = fechaFin;
-    }
-
-    /**
-     * Gets usuarioId.
-     *
-     * @return the user id borrowing the book
-     */
-    public int getUsuarioId() {
-        return usuarioId;
+    public DTOPrestamo withId(int id) {
+        return new DTOPrestamo(id, fechaInicio, fechaFin, usuarioId, libroId, version);
     }
 
     /**
-     * Sets usuarioId.
+     * Copies the loan with another end date, user and book.
      *
+     * @param fechaFin  the loan end date
      * @param usuarioId the user id borrowing the book
+     * @param libroId   the being borrowed book id
+     * @return the copy
      */
-    public void setUsuarioId(int usuarioId) {
-        this.usuarioId = usuarioId;
-    }
-
-    /**
-     * Gets libroId.
-     *
-     * @return the being borrowed book id
-     */
-    public int getLibroId() {
-        return libroId;
+    public DTOPrestamo withDatos(LocalDate fechaFin, int usuarioId, int libroId) {
+        return new DTOPrestamo(id, fechaInicio, fechaFin, usuarioId, libroId, version);
     }
 
     /**
-     * Sets libroId.
+     * Copies the loan with another row version.
      *
-     * @param libroId the being borrowed book id
+     * @param version the row version
+     * @return the copy
      */
-    public void setLibroId(int libroId) {
-        this.libroId = libroId;
+    public DTOPrestamo withVersion(int version) {
+        return new DTOPrestamo(id, fechaInicio, fechaFin, usuarioId, libroId, version);
     }
 
     /**
@@ -0,0 +1,201 @@
+package prestamo;
+
+import util.IntBitmap;
+import util.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Tracks the due dates of the loans to find the ones that become overdue without scanning them all.
+ * The pending loans are in a min-heap of primitive longs, each packing the due date (epoch day)
+ * in the high 32 bits and the loan id in the low ones, so the heap top is always the next loan
+ * to expire and a sweep only pops the expired ones: O(expired · log n).
+ * <p>
+ * Changed and removed loans are not searched in the heap; their old entries are skipped when popped
+ * (lazy deletion) because they no longer match the current due date of the loan, and the heap is
+ * rebuilt when such entries are half of it.
+ *
+ * @version 1.0
+ */
+public class OverdueTracker {
+    private long[] heap = new long[1024];
+    private int heapSize;
+    private final LongIntHashMap dueDates = new LongIntHashMap(1024); // Tracked loan id -> due epoch day
+    private final IntBitmap overdue = new IntBitmap();
+    private int overdueCount;
+
+    /**
+     * Starts tracking a loan, or updates its due date. A loan that was overdue is pending again
+     * until the next sweep if its due date changed (e.g. the loan was extended).
+     *
+     * @param id  the loan id
+     * @param fin the due date, as epoch day
+     */
+    public void track(int id, int fin) {
+        if (dueDates.get(id) == fin) {
+            return; // Already tracked with this due date, keeping its overdue mark
+        }
+        clearOverdue(id);
+        dueDates.put(id, fin);
+        push((long) fin << 32 | id);
+        compactIfNeeded();
+    }
+
+    /**
+     * Stops tracking a loan, e.g. because it was returned (deleted).
+     *
+     * @param id the loan id
+     */
+    public void untrack(int id) {
+        dueDates.remove(id);
+        clearOverdue(id);
+        compactIfNeeded();
+    }
+
+    /**
+     * Marks as overdue the pending loans whose due date is before a day.
+     *
+     * @param today    the current day, as epoch day
+     * @param consumer receives the id of each loan that became overdue
+     * @return the number of loans that became overdue
+     */
+    public int sweep(int today, IntConsumer consumer) {
+        int count = 0;
+        while (heapSize > 0 && (int) (heap[0] >>> 32) < today) {
+            long top = pop();
+            int id = (int) top;
+            int fin = (int) (top >>> 32);
+            if (isPending(id, fin)) { // Otherwise the loan changed or was removed
+                overdue.add(id);
+                overdueCount++;
+                consumer.accept(id);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks if a loan is overdue.
+     *
+     * @param id the loan id
+     * @return true if the loan was found overdue by a sweep and has not changed since
+     */
+    public boolean isOverdue(int id) {
+        return overdue.contains(id);
+    }
+
+    /**
+     * Gets the overdue loans.
+     *
+     * @return a copy of the set of overdue loan ids
+     */
+    public IntBitmap getOverdue() {
+        return overdue.copy();
+    }
+
+    /**
+     * Gets the number of loans not overdue yet.
+     *
+     * @return the number of pending loans
+     */
+    public int pendingCount() {
+        return dueDates.size() - overdueCount;
+    }
+
+    /**
+     * Removes the overdue mark of a loan, if it has one.
+     *
+     * @param id the loan id
+     */
+    private void clearOverdue(int id) {
+        if (overdue.contains(id)) {
+            overdue.remove(id);
+            overdueCount--;
+        }
+    }
+
+    /**
+     * Checks if a heap entry is current: its loan is still tracked with that due date and not overdue yet.
+     *
+     * @param id  the loan id of the entry
+     * @param fin the due date of the entry
+     * @return true if the entry is current
+     */
+    private boolean isPending(int id, int fin) {
+        return dueDates.get(id) == fin && !overdue.contains(id);
+    }
+
+    /**
+     * Adds an entry to the heap.
+     *
+     * @param entry the packed due date and loan id
+     */
+    private void push(long entry) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) >>> 1] > entry) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * Removes the lowest entry of the heap.
+     *
+     * @return the packed due date and loan id
+     */
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        if (heapSize > 0) {
+            siftDown(0, last);
+        }
+        return top;
+    }
+
+    /**
+     * Places an entry at a position, moving it down until its children are greater.
+     *
+     * @param i     the position
+     * @param entry the entry
+     */
+    private void siftDown(int i, long entry) {
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (entry <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * Drops the stale entries once they are half of the heap, and rebuilds it.
+     */
+    private void compactIfNeeded() {
+        if (heapSize < 1024 || heapSize < 2 * pendingCount()) {
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < heapSize; i++) {
+            if (isPending((int) heap[i], (int) (heap[i] >>> 32))) {
+                heap[n++] = heap[i];
+            }
+        }
+        heapSize = n;
+        for (int i = (heapSize >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, heap[i]);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package prestamo;
+
+import java.util.Arrays;
+
+/**
+ * Circulation counters kept up to date with every loan stored or removed, so the dashboards read
+ * them in O(1) instead of scanning the loans: total loans, loans per book, loans per user and loans
+ * active on the current day.
+ * They count the loans of the in-memory store, which are the ones not archived yet: the loans moved to
+ * Prestamo_Historico are no longer counted (see {@code InformeService} for counts over every loan).
+ * <p>
+ * The loans per book and per user are primitive arrays indexed by id. The active loans are the
+ * loans started by today minus the ones ended before today; both totals are kept for one day and,
+ * when the day changes, moved by the loans starting or ending on the days in between, which are
+ * counted per day.
+ * <p>
+ * Not thread-safe: the counters are plain fields, guarded by the {@code storeLock} of {@link PrestamoService}
+ * like the store they count. Mutations ({@link #add}, {@link #remove}, {@link #advanceTo}) must hold its
+ * write lock and reads its read lock, whichever thread they come from.
+ *
+ * @version 1.3
+ */
+public class PrestamoCounters {
+    private int total;
+    private int[] porLibro = new int[1024];
+    private int[] porUsuario = new int[1024];
+    private int[] iniciosPorDia = new int[0];
+    private int[] finesPorDia = new int[0];
+    private int firstDay; // Epoch day of the first position of the per-day arrays
+    private int hoy;
+    private long iniciados; // Loans started on hoy or before
+    private long terminados; // Loans ended before hoy
+
+    /**
+     * Instantiates empty counters.
+     *
+     * @param hoy the current day, as epoch day
+     */
+    public PrestamoCounters(int hoy) {
+        this.hoy = hoy;
+        this.firstDay = hoy;
+    }
+
+    /**
+     * Counts a loan.
+     *
+     * @param libroId   the book id
+     * @param usuarioId the user id
+     * @param inicio    the start date, as epoch day
+     * @param fin       the end date, as epoch day
+     */
+    public void add(int libroId, int usuarioId, int inicio, int fin) {
+        update(libroId, usuarioId, inicio, fin, 1);
+    }
+
+    /**
+     * Stops counting a loan that was removed or changed.
+     *
+     * @param libroId   the book id
+     * @param usuarioId the user id
+     * @param inicio    the start date, as epoch day
+     * @param fin       the end date, as epoch day
+     */
+    public void remove(int libroId, int usuarioId, int inicio, int fin) {
+        update(libroId, usuarioId, inicio, fin, -1);
+    }
+
+    /**
+     * Gets the number of loans.
+     *
+     * @return the number of loans
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the number of loans of a book.
+     *
+     * @param libroId the book id
+     * @return the number of loans
+     */
+    public int getPrestamosLibro(int libroId) {
+        return libroId >= 0 && libroId < porLibro.length ? porLibro[libroId] : 0;
+    }
+
+    /**
+     * Gets the number of loans of a user.
+     *
+     * @param usuarioId the user id
+     * @return the number of loans
+     */
+    public int getPrestamosUsuario(int usuarioId) {
+        return usuarioId >= 0 && usuarioId < porUsuario.length ? porUsuario[usuarioId] : 0;
+    }
+
+    /**
+     * Gets the number of book counters, to iterate them by id.
+     *
+     * @return one more than the highest book id counted so far, at least
+     */
+    public int libroCapacity() {
+        return porLibro.length;
+    }
+
+    /**
+     * Gets the number of user counters, to iterate them by id.
+     *
+     * @return one more than the highest user id counted so far, at least
+     */
+    public int usuarioCapacity() {
+        return porUsuario.length;
+    }
+
+    /**
+     * Gets the number of loans active on a day: started that day or before and ending that day or after.
+     * Only reads the counters: a day other than the current one is reached by visiting the days in between
+     * without moving the current day, see {@link #advanceTo(int)}.
+     *
+     * @param dia the day, as epoch day
+     * @return the number of active loans
+     */
+    public int getActivos(int dia) {
+        long inicios = iniciados;
+        long fines = terminados;
+        for (int day = hoy; day < dia; day++) {
+            inicios += countOn(iniciosPorDia, day + 1);
+            fines += countOn(finesPorDia, day);
+        }
+        for (int day = hoy; day > dia; day--) {
+            inicios -= countOn(iniciosPorDia, day);
+            fines -= countOn(finesPorDia, day - 1);
+        }
+        return (int) (inicios - fines);
+    }
+
+    /**
+     * Moves the current day, so reading the active loans of that day does not visit the days in between.
+     * Changes the counters, so it must not run concurrently with the reads.
+     *
+     * @param dia the new current day, as epoch day
+     */
+    public void advanceTo(int dia) {
+        while (hoy < dia) {
+            hoy++;
+            iniciados += countOn(iniciosPorDia, hoy);
+            terminados += countOn(finesPorDia, hoy - 1);
+        }
+        while (hoy > dia) {
+            iniciados -= countOn(iniciosPorDia, hoy);
+            terminados -= countOn(finesPorDia, hoy - 1);
+            hoy--;
+        }
+    }
+
+    /**
+     * Resets every counter.
+     */
+    public void clear() {
+        total = 0;
+        Arrays.fill(porLibro, 0);
+        Arrays.fill(porUsuario, 0);
+        iniciosPorDia = new int[0];
+        finesPorDia = new int[0];
+        firstDay = hoy;
+        iniciados = 0;
+        terminados = 0;
+    }
+
+    /**
+     * Adds or subtracts a loan from every counter.
+     *
+     * @param libroId   the book id
+     * @param usuarioId the user id
+     * @param inicio    the start date, as epoch day
+     * @param fin       the end date, as epoch day
+     * @param delta     1 to count the loan, -1 to stop counting it
+     */
+    private void update(int libroId, int usuarioId, int inicio, int fin, int delta) {
+        total += delta;
+        porLibro = ensureCapacity(porLibro, libroId);
+        porLibro[libroId] += delta;
+        porUsuario = ensureCapacity(porUsuario, usuarioId);
+        porUsuario[usuarioId] += delta;
+        cover(Math.min(inicio, fin), Math.max(inicio, fin));
+        iniciosPorDia[inicio - firstDay] += delta;
+        finesPorDia[fin - firstDay] += delta;
+        if (inicio <= hoy) {
+            iniciados += delta;
+        }
+        if (fin < hoy) {
+            terminados += delta;
+        }
+    }
+
+    /**
+     * Gets the count of a day from a per-day array.
+     *
+     * @param perDay the per-day array
+     * @param day    the epoch day
+     * @return the count, 0 if the day is not covered
+     */
+    private int countOn(int[] perDay, int day) {
+        int i = day - firstDay;
+        return i >= 0 && i < perDay.length ? perDay[i] : 0;
+    }
+
+    /**
+     * Grows the per-day arrays to cover a range, with some room on both sides.
+     *
+     * @param inicio the first day, as epoch day
+     * @param fin    the last day, as epoch day
+     */
+    private void cover(int inicio, int fin) {
+        if (iniciosPorDia.length == 0) {
+            firstDay = inicio;
+            iniciosPorDia = new int[Math.max(fin - inicio + 1, 366)];
+            finesPorDia = new int[iniciosPorDia.length];
+        } else if (inicio < firstDay) {
+            int shift = Math.max(firstDay - inicio, iniciosPorDia.length / 2);
+            iniciosPorDia = shift(iniciosPorDia, shift);
+            finesPorDia = shift(finesPorDia, shift);
+            firstDay -= shift;
+        }
+        if (fin >= firstDay + iniciosPorDia.length) {
+            int length = Math.max(fin - firstDay + 1, iniciosPorDia.length + iniciosPorDia.length / 2);
+            iniciosPorDia = Arrays.copyOf(iniciosPorDia, length);
+            finesPorDia = Arrays.copyOf(finesPorDia, length);
+        }
+    }
+
+    /**
+     * Copies an array into a larger one, leaving room at the start.
+     *
+     * @param array the array
+     * @param shift the positions added at the start
+     * @return the new array
+     */
+    private static int[] shift(int[] array, int shift) {
+        int[] grown = new int[array.length + shift];
+        System.arraycopy(array, 0, grown, shift, array.length);
+        return grown;
+    }
+
+    /**
+     * Grows a counter array so it has a position for an id.
+     *
+     * @param counters the counter array
+     * @param id       the id
+     * @return the same array, or a larger copy
+     */
+    private static int[] ensureCapacity(int[] counters, int id) {
+        if (id < counters.length) {
+            return counters;
+        }
+        return Arrays.copyOf(counters, Math.max(id + 1, counters.length * 2));
+    }
+}
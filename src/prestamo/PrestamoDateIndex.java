@@ -0,0 +1,228 @@
+package prestamo;
+
+import util.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Sorted index of the loans by one of their dates. Each entry packs the date (epoch day) in the
+ * high 32 bits and the loan id in the low ones into a primitive long, so the entries of a date range
+ * are a contiguous run of a sorted array, found with two binary searches and read in date order.
+ * <p>
+ * New entries are inserted in order into a small pending buffer, merged into the main array once it
+ * holds about the square root of the index (so both the shifts of the insertions and the merges stay
+ * cheap per entry). Removed entries are tombstones skipped while iterating, dropped at the next merge
+ * once they are a quarter of the index, so neither operation shifts the main array.
+ * <p>
+ * Only {@link #add}, {@link #remove} and {@link #clear} change the index; the queries only read it,
+ * so they can run concurrently under a shared lock while the changes are made under an exclusive one.
+ *
+ * @version 1.1
+ */
+public class PrestamoDateIndex {
+    private static final int MIN_MERGE = 1024;
+
+    private long[] entries = new long[0];
+    private int size;
+    private long[] pending = new long[MIN_MERGE];
+    private int pendingSize;
+    private final LongIntHashMap removed = new LongIntHashMap(MIN_MERGE);
+
+    /**
+     * Adds a loan to the index.
+     *
+     * @param day the indexed date, as epoch day
+     * @param id  the loan id
+     */
+    public void add(int day, int id) {
+        long entry = pack(day, id);
+        if (removed.remove(entry) >= 0) {
+            return; // Removed and added again, the entry is still in the arrays
+        }
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize * 2);
+        }
+        int at = lowerBound(pending, pendingSize, entry); // At the end for most new loans
+        System.arraycopy(pending, at, pending, at + 1, pendingSize - at);
+        pending[at] = entry;
+        pendingSize++;
+        mergeIfNeeded();
+    }
+
+    /**
+     * Removes a loan from the index.
+     *
+     * @param day the indexed date of the loan, as epoch day
+     * @param id  the loan id
+     */
+    public void remove(int day, int id) {
+        removed.put(pack(day, id), 1);
+        mergeIfNeeded();
+    }
+
+    /**
+     * Counts the entries of a date range, tombstones included, to estimate the cost of iterating it.
+     *
+     * @param desde the first day, as epoch day
+     * @param hasta the last day, as epoch day
+     * @return the upper bound of loans in the range
+     */
+    public int estimateCount(int desde, int hasta) {
+        if (hasta < desde) {
+            return 0;
+        }
+        return lowerBound(entries, size, pack(hasta + 1, 0)) - lowerBound(entries, size, pack(desde, 0))
+                + lowerBound(pending, pendingSize, pack(hasta + 1, 0)) - lowerBound(pending, pendingSize, pack(desde, 0));
+    }
+
+    /**
+     * Iterates the ids of the loans in a date range, in date order. The ids are read from the index
+     * while iterating, so the iterator must be consumed before the index changes.
+     *
+     * @param desde the first day, as epoch day
+     * @param hasta the last day, as epoch day
+     * @return the loan ids
+     */
+    public PrimitiveIterator.OfInt range(int desde, int hasta) {
+        long from = pack(desde, 0);
+        long to = hasta < desde ? from : pack(hasta + 1, 0);
+        return new RangeIterator(lowerBound(entries, size, from), lowerBound(entries, size, to),
+                lowerBound(pending, pendingSize, from), lowerBound(pending, pendingSize, to));
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        entries = new long[0];
+        size = 0;
+        pendingSize = 0;
+        removed.clear();
+    }
+
+    /**
+     * Packs a date and a loan id so that entries sort by date, then by id.
+     *
+     * @param day the date, as epoch day
+     * @param id  the loan id
+     * @return the packed entry
+     */
+    private static long pack(int day, int id) {
+        return (long) day << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finds the first position of a sorted array holding an entry not lower than a key.
+     *
+     * @param array the sorted array
+     * @param n     the number of entries used
+     * @param key   the key
+     * @return the position, n if every entry is lower
+     */
+    private static int lowerBound(long[] array, int n, long key) {
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merges the pending entries into the main array and drops the tombstones, once the pending
+     * entries reach the square root of the index or the tombstones a quarter of it.
+     */
+    private void mergeIfNeeded() {
+        if (pendingSize < Math.max(MIN_MERGE, (int) Math.sqrt(size)) && removed.size() < Math.max(MIN_MERGE, size / 4)) {
+            return;
+        }
+        long[] merged = new long[size + pendingSize];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < pendingSize) {
+            long entry = j == pendingSize || (i < size && entries[i] < pending[j]) ? entries[i++] : pending[j++];
+            if (removed.size() == 0 || !removed.containsKey(entry)) {
+                merged[n++] = entry;
+            }
+        }
+        entries = n == merged.length ? merged : Arrays.copyOf(merged, n);
+        size = n;
+        pendingSize = 0;
+        removed.clear();
+    }
+
+    /**
+     * Iterator merging the matching runs of the main array and of the pending buffer, skipping tombstones.
+     */
+    private final class RangeIterator implements PrimitiveIterator.OfInt {
+        private int i;
+        private final int iEnd;
+        private int j;
+        private final int jEnd;
+        private long next;
+        private boolean hasNext;
+
+        /**
+         * Instantiates a new iterator over two runs.
+         *
+         * @param i    start of the run in the main array
+         * @param iEnd end of the run in the main array, exclusive
+         * @param j    start of the run in the pending buffer
+         * @param jEnd end of the run in the pending buffer, exclusive
+         */
+        private RangeIterator(int i, int iEnd, int j, int jEnd) {
+            this.i = i;
+            this.iEnd = iEnd;
+            this.j = j;
+            this.jEnd = jEnd;
+            advance();
+        }
+
+        /**
+         * Checks if there are more ids.
+         *
+         * @return true if there are more ids
+         */
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        /**
+         * Gets the next id.
+         *
+         * @return the loan id
+         */
+        @Override
+        public int nextInt() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            int id = (int) next;
+            advance();
+            return id;
+        }
+
+        /**
+         * Moves to the next entry that is not a tombstone.
+         */
+        private void advance() {
+            while (i < iEnd || j < jEnd) {
+                next = j == jEnd || (i < iEnd && entries[i] < pending[j]) ? entries[i++] : pending[j++];
+                if (removed.size() == 0 || !removed.containsKey(next)) {
+                    hasNext = true;
+                    return;
+                }
+            }
+            hasNext = false;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package prestamo;
+
+import util.IntBitmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Availability index with, for each day, the compressed bitmap of the books loaned that day.
+ * Whether a book is free in a date range is a lookup in the bitmaps of those days, and the books
+ * loaned in a range are the union of its days, instead of checking every loan of every book.
+ * <p>
+ * The bitmaps are kept in an array indexed by day, which grows to cover the loaned days.
+ * A book with overlapping loans on the same day (e.g. created by another instance) keeps its bit
+ * until the last of them is removed.
+ *
+ * @version 1.0
+ */
+public class PrestamoDayIndex {
+    private IntBitmap[] days = new IntBitmap[0];
+    private int firstDay; // Epoch day of days[0]
+    private final Map<Long, Integer> overlaps = new HashMap<>(); // (day, book) -> extra loans that day
+
+    /**
+     * Marks a book as loaned every day of a loan.
+     *
+     * @param libroId the book id
+     * @param inicio  the start date, as epoch day
+     * @param fin     the end date, as epoch day
+     */
+    public void add(int libroId, int inicio, int fin) {
+        cover(inicio, fin);
+        for (int day = inicio; day <= fin; day++) {
+            IntBitmap loaned = days[day - firstDay];
+            if (loaned == null) {
+                loaned = days[day - firstDay] = new IntBitmap();
+            }
+            if (loaned.contains(libroId)) {
+                overlaps.merge(key(day, libroId), 1, Integer::sum);
+            } else {
+                loaned.add(libroId);
+            }
+        }
+    }
+
+    /**
+     * Unmarks a book the days of a loan that was removed or changed.
+     *
+     * @param libroId the book id
+     * @param inicio  the start date, as epoch day
+     * @param fin     the end date, as epoch day
+     */
+    public void remove(int libroId, int inicio, int fin) {
+        for (int day = Math.max(inicio, firstDay); day <= fin && day < firstDay + days.length; day++) {
+            IntBitmap loaned = days[day - firstDay];
+            if (loaned == null) {
+                continue;
+            }
+            if (!overlaps.isEmpty() && overlaps.containsKey(key(day, libroId))) {
+                overlaps.computeIfPresent(key(day, libroId), (k, count) -> count > 1 ? count - 1 : null);
+                continue; // Another loan of the book covers the day
+            }
+            loaned.remove(libroId);
+            if (loaned.isEmpty()) {
+                days[day - firstDay] = null;
+            }
+        }
+    }
+
+    /**
+     * Checks if a book is loaned any day of a range.
+     *
+     * @param libroId the book id
+     * @param inicio  the first day, as epoch day
+     * @param fin     the last day, as epoch day
+     * @return true if the book is loaned some day of the range
+     */
+    public boolean isLoaned(int libroId, int inicio, int fin) {
+        for (int day = Math.max(inicio, firstDay); day <= fin && day < firstDay + days.length; day++) {
+            IntBitmap loaned = days[day - firstDay];
+            if (loaned != null && loaned.contains(libroId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the books loaned any day of a range.
+     *
+     * @param inicio the first day, as epoch day
+     * @param fin    the last day, as epoch day
+     * @return the ids of the loaned books
+     */
+    public IntBitmap loaned(int inicio, int fin) {
+        IntBitmap union = new IntBitmap();
+        for (int day = Math.max(inicio, firstDay); day <= fin && day < firstDay + days.length; day++) {
+            if (days[day - firstDay] != null) {
+                union.or(days[day - firstDay]);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Counts the books loaned on a day.
+     *
+     * @param day the epoch day
+     * @return the number of loaned books
+     */
+    public int countLoaned(int day) {
+        if (day < firstDay || day >= firstDay + days.length || days[day - firstDay] == null) {
+            return 0;
+        }
+        return days[day - firstDay].cardinality();
+    }
+
+    /**
+     * Removes every mark.
+     */
+    public void clear() {
+        days = new IntBitmap[0];
+        overlaps.clear();
+    }
+
+    /**
+     * Grows the array of days to cover a range, with some room on both sides.
+     *
+     * @param inicio the first day, as epoch day
+     * @param fin    the last day, as epoch day
+     */
+    private void cover(int inicio, int fin) {
+        if (days.length == 0) {
+            firstDay = inicio;
+            days = new IntBitmap[Math.max(fin - inicio + 1, 366)];
+        } else if (inicio < firstDay) {
+            int shift = Math.max(firstDay - inicio, days.length / 2);
+            IntBitmap[] grown = new IntBitmap[days.length + shift];
+            System.arraycopy(days, 0, grown, shift, days.length);
+            days = grown;
+            firstDay -= shift;
+        }
+        if (fin >= firstDay + days.length) {
+            days = Arrays.copyOf(days, Math.max(fin - firstDay + 1, days.length + days.length / 2));
+        }
+    }
+
+    /**
+     * Builds the key of a book on a day.
+     *
+     * @param day     the epoch day
+     * @param libroId the book id
+     * @return the key
+     */
+    private static long key(int day, int libroId) {
+        return (long) day << 32 | libroId;
+    }
+}
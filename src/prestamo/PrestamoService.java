@@ -1,38 +1,118 @@
 package prestamo;
 
 import autor.AutorService;
+import cache.ReadThroughCache;
+import cache.RowSource;
+import exception.ConcurrencyException;
 import exception.ServiceException;
+import libro.DTOLibro;
 import libro.LibroService;
 import usuario.UsuarioService;
+import util.IntBitmap;
 
-import java.sql.Date;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * Service class for managing loans (prestamos).
  * Provides methods for creating, reading, updating, and deleting loans.
+ * <p>
+ * Safe for concurrent use. Before a loan is written its book and days are claimed in {@link ReservaLibros},
+ * atomically with the overlap check, and released once the loan is in the in-memory store, so two requests
+ * cannot book the same days while no lock is held during the database write. The in-memory store and its
+ * indexes are guarded by a read-write lock held only for the in-memory part of each operation, never while
+ * the database is queried. Long reads of the store take a {@link PrestamoSnapshot} instead of holding the lock.
  *
- * @version 1.2
+ * @version 2.5
  */
 public class PrestamoService {
+    private static final Duration READ_TTL = Duration.ofSeconds(30);
+    private static final int ARCHIVE_BATCH = 1000;
     private LibroService libroService;
     private UsuarioService usuarioService;
-    private List<DTOPrestamo> prestamosInMemory;
+    private PrestamoStore prestamosInMemory;
+    private PrestamoDayIndex diasPrestados;
+    private PrestamoDateIndex prestamosPorInicio;
+    private PrestamoDateIndex prestamosPorFin;
+    private int maxDuracion; // Longest loan stored, in days, bounds the date index ranges of the active loans
+    private final AtomicInteger archivadoHasta = new AtomicInteger(Integer.MIN_VALUE); // Loans ending before it may be archived
+    private OverdueTracker vencimientos;
+    private final List<PrestamoVencidoListener> vencidoListeners = new CopyOnWriteArrayList<>();
+    private PrestamoCounters contadores;
+    private ScheduledExecutorService scheduler;
     private DAOPrestamo daoPrestamo;
+    private ReadThroughCache<DTOPrestamo> prestamosReadCache;
+    private final ReservaLibros reservas = new ReservaLibros(); // Days of the books being loaned right now
+    private final ReentrantReadWriteLock storeLock = new ReentrantReadWriteLock(); // Guards the store, its indexes and counters
 
     /**
      * Initializes a new instance of PrestamoService.
-     * Loads all loans from the data source into memory.
+     * Loads all loans from the data source into a columnar in-memory store and indexes the days each book is loaned
+     * and the start and end dates.
      *
      * @throws ServiceException if there is an error while reading loans from the data source
      */
     public PrestamoService(LibroService libroService, UsuarioService usuarioService) throws ServiceException {
+        this(libroService, usuarioService, new DAOPrestamo()::readAll);
+    }
+
+    /**
+     * Initializes a new instance of PrestamoService with the loans of a source, e.g. a local snapshot.
+     *
+     * @param prestamos source of every loan, streamed into the in-memory store
+     * @throws ServiceException if there is an error while reading the loans
+     */
+    public PrestamoService(LibroService libroService, UsuarioService usuarioService, RowSource<DTOPrestamo> prestamos) throws ServiceException {
+        this(libroService, usuarioService, prestamos, new DAOPrestamo());
+    }
+
+    /**
+     * Initializes a new instance of PrestamoService with the loans of a source and the DAO the loans are read and
+     * written through, e.g. a stub that needs no database in the reservation stress check.
+     *
+     * @param prestamos   source of every loan, streamed into the in-memory store
+     * @param daoPrestamo the DAO of the loans, also asked for the latest archived end date
+     * @throws ServiceException if there is an error while reading the loans
+     */
+    PrestamoService(LibroService libroService, UsuarioService usuarioService, RowSource<DTOPrestamo> prestamos,
+                    DAOPrestamo daoPrestamo) throws ServiceException {
         this.libroService = libroService;
         this.usuarioService = usuarioService;
-        this.daoPrestamo = new DAOPrestamo();
-        prestamosInMemory = daoPrestamo.readAll();
+        this.daoPrestamo = daoPrestamo;
+        prestamosReadCache = new ReadThroughCache<>(READ_TTL, daoPrestamo::read);
+        prestamosInMemory = new PrestamoStore();
+        diasPrestados = new PrestamoDayIndex();
+        prestamosPorInicio = new PrestamoDateIndex();
+        prestamosPorFin = new PrestamoDateIndex();
+        vencimientos = new OverdueTracker();
+        contadores = new PrestamoCounters((int) LocalDate.now().toEpochDay());
+        prestamos.readAll(this::storePrestamo); // Stream the loans into the store
+        prestamosInMemory.trimToSize();
+        LocalDate archivado = daoPrestamo.readHistoricoMaxFechaFin();
+        if (archivado != null) {
+            archivadoHasta.set(PrestamoStore.toEpochDay(archivado) + 1);
+        }
     }
 
     /**
@@ -41,36 +121,42 @@ public class PrestamoService {
      *
      * @param usuarioId the ID of the user borrowing the book
      * @param libroId the ID of the book being borrowed
-     * @throws ServiceException if the end date is before the start date or if the book is already loaned
+     * @throws ServiceException if the user or the book does not exist, or if the book is already loaned
      */
     public void createPrestamo(int usuarioId, int libroId) throws ServiceException {
-        // Check if user and book exists
-        try {
-            usuarioService.findUsuarioById(usuarioId);
-            libroService.findLibroById(libroId);
-        } catch (ServiceException e){
-            throw new ServiceException(e.getMessage());
+        // Check if user and book exists, without building an exception for each lookup
+        if (usuarioService.lookupUsuario(usuarioId).isEmpty()) {
+            throw new ServiceException("Usuario no encontrado", false);
+        }
+        if (libroService.lookupLibro(libroId).isEmpty()) {
+            throw new ServiceException("Libro no encontrado", false);
         }
         // Get today's date as the start date
-        Date fechaInicio = Date.valueOf(LocalDate.now());
+        LocalDate fechaInicio = LocalDate.now();
 
         // Calculate the end date, which is 15 days after the start date
-        Date fechaFin = Date.valueOf(LocalDate.now().plusDays(15));
+        LocalDate fechaFin = LocalDate.now().plusDays(15);
 
         // Validate that the end date is after the start date
-        if (fechaFin.before(fechaInicio)) {
+        if (fechaFin.isBefore(fechaInicio)) {
             throw new ServiceException("La fecha de fin no puede ser antígua a la de inicio.");
         }
 
-        // Check if the book is already loaned between the start and end dates
-        if (isLibroPrestado(libroId, fechaInicio, fechaFin)) {
-            throw new ServiceException("El libro ya está prestado");
+        // Check if the book is already loaned between the start and end dates, claiming the days if it is not
+        int inicio = PrestamoStore.toEpochDay(fechaInicio);
+        int fin = PrestamoStore.toEpochDay(fechaFin);
+        if (!reservas.reserve(libroId, inicio, fin, () -> isLibroPrestado(libroId, fechaInicio, fechaFin))) {
+            throw new ServiceException("El libro ya está prestado", false);
+        }
+        try {
+            // Create the new loan if there are no overlaps
+            DTOPrestamo dtoPrestamo = new DTOPrestamo(fechaInicio, fechaFin, usuarioId, libroId);
+            dtoPrestamo = daoPrestamo.create(dtoPrestamo); // The stored copy carries the generated ID
+            storePrestamo(dtoPrestamo);  // Synchronize with the in-memory store
+            prestamosReadCache.invalidate(dtoPrestamo.id()); // Drop a cached "not found"
+        } finally {
+            reservas.release(libroId, inicio, fin); // Stored, or the insert failed
         }
-
-        // Create the new loan if there are no overlaps
-        DTOPrestamo dtoPrestamo = new DTOPrestamo(fechaInicio, fechaFin, usuarioId, libroId);
-        daoPrestamo.create(dtoPrestamo);
-        prestamosInMemory.add(dtoPrestamo);  // Synchronize with the in-memory list
     }
 
     /**
@@ -81,7 +167,7 @@ public class PrestamoService {
      * @throws ServiceException if the loan does not exist
      */
     public DTOPrestamo readPrestamo(Integer id) throws ServiceException {
-        return daoPrestamo.read(id); // Return the read loan
+        return prestamosReadCache.get(id); // Read-through, only queries the database on a miss or after the TTL
     }
 
     /**
@@ -93,24 +179,32 @@ public class PrestamoService {
      * @param libroId the ID of the book being borrowed
      * @throws ServiceException if the loan does not exist or if the new end date is invalid
      */
-    public void updatePrestamo(Integer id, Date fechaFin, int usuarioId, int libroId) throws ServiceException {
-        DTOPrestamo dtoPrestamo = findPrestamoById(id);
+    public void updatePrestamo(Integer id, LocalDate fechaFin, int usuarioId, int libroId) throws ServiceException {
+        DTOPrestamo dtoPrestamo = lookupPrestamo(id).orElse(null);
         if (dtoPrestamo != null) {
             // Validate that the end date is after the start date
-            if (fechaFin.before(dtoPrestamo.getFechaInicio())) {
+            if (fechaFin.isBefore(dtoPrestamo.fechaInicio())) {
                 throw new ServiceException("La fecha de fin no puede ser antígua a la de inicio.");
             }
 
-            // Check if the book is already loaned between the start and end dates
-            if (isLibroPrestado(libroId, dtoPrestamo.getFechaInicio(), fechaFin)) {
-                throw new ServiceException("El libro ya está prestado.");
+            // Check if the book is already loaned between the start and end dates, claiming the days if it is not
+            LocalDate fechaInicio = dtoPrestamo.fechaInicio();
+            int inicio = PrestamoStore.toEpochDay(fechaInicio);
+            int fin = PrestamoStore.toEpochDay(fechaFin);
+            if (!reservas.reserve(libroId, inicio, fin, () -> isLibroPrestado(libroId, fechaInicio, fechaFin))) {
+                throw new ServiceException("El libro ya está prestado.", false);
+            }
+            try {
+                storePrestamo(daoPrestamo.update(dtoPrestamo.withDatos(fechaFin, usuarioId, libroId))); // The stored copy, with its new version
+            } catch (ConcurrencyException e) {
+                refreshPrestamo(dtoPrestamo); // Drop the stale copy and reload only this loan
+                throw new ConcurrencyException("El préstamo ha sido modificado por otro usuario; se han recargado sus datos");
+            } finally {
+                reservas.release(libroId, inicio, fin);
             }
-            dtoPrestamo.setFechaFin(fechaFin);
-            dtoPrestamo.setUsuarioId(usuarioId);
-            dtoPrestamo.setLibroId(libroId);
-            daoPrestamo.update(dtoPrestamo);
+            prestamosReadCache.invalidate(dtoPrestamo.id());
         } else {
-            throw new ServiceException("El préstamo que intentas actualizar no existe.");
+            throw new ServiceException("El préstamo que intentas actualizar no existe.", false);
         }
     }
 
@@ -121,12 +215,29 @@ public class PrestamoService {
      * @throws ServiceException if the loan does not exist
      */
     public void deletePrestamo(Integer id) throws ServiceException {
-        DTOPrestamo dtoPrestamo = findPrestamoById(id);
+        DTOPrestamo dtoPrestamo = lookupPrestamo(id).orElse(null);
         if (dtoPrestamo != null) {
             daoPrestamo.delete(dtoPrestamo);
-            prestamosInMemory.remove(dtoPrestamo);
+            unstorePrestamo(dtoPrestamo.id());
+            prestamosReadCache.invalidate(dtoPrestamo.id());
         } else {
-            throw new ServiceException("El préstamo que intentas eliminar no existe.");
+            throw new ServiceException("El préstamo que intentas eliminar no existe.", false);
+        }
+    }
+
+    /**
+     * Looks up a loan by ID, for callers that expect it may not exist: a missing loan is not an error,
+     * so no exception is built.
+     *
+     * @param id the ID of the loan
+     * @return the loan, or empty if it does not exist
+     */
+    public Optional<DTOPrestamo> lookupPrestamo(int id) {
+        storeLock.readLock().lock();
+        try {
+            return Optional.ofNullable(prestamosInMemory.get(id));
+        } finally {
+            storeLock.readLock().unlock();
         }
     }
 
@@ -138,28 +249,27 @@ public class PrestamoService {
      * @throws ServiceException if the loan is not found
      */
     public DTOPrestamo findPrestamoById(Integer id) throws ServiceException {
-        for (DTOPrestamo dtoPrestamo : prestamosInMemory) {
-            if (dtoPrestamo.getId().equals(id)) {
-                return dtoPrestamo;
-            }
-        }
-        throw new ServiceException("Préstamo no encontrado.");
+        return lookupPrestamo(id).orElseThrow(() -> new ServiceException("Préstamo no encontrado.", false));
     }
 
     /**
-     * Finds all loans by the user id.
+     * Finds all loans by the user id, the archived ones included.
      *
      * @param usuarioId the user id
      * @return a list of all loan DTOs with this user id
      * @throws ServiceException if no loans are found for the given user id
      */
     public List<DTOPrestamo> findPrestamosByUsuarioId(Integer usuarioId) throws ServiceException {
-        List<DTOPrestamo> prestamosPorUsuario = new ArrayList<>();
-        for (DTOPrestamo dtoPrestamo : prestamosInMemory) {
-            if (dtoPrestamo.getUsuarioId() == usuarioId) {
-                prestamosPorUsuario.add(dtoPrestamo);
+        List<DTOPrestamo> prestamosPorUsuario = read(() -> {
+            List<DTOPrestamo> prestamos = new ArrayList<>();
+            for (int row = 0; row < prestamosInMemory.rowCount(); row++) {
+                if (prestamosInMemory.getUsuarioId(row) == usuarioId && prestamosInMemory.isLive(row)) {
+                    prestamos.add(prestamosInMemory.toDTO(row));
+                }
             }
-        }
+            return prestamos;
+        });
+        addArchivados(prestamosPorUsuario, daoPrestamo.readHistoricoByUsuarioId(usuarioId));
 
         // Throw exception if no loans are found
         if (prestamosPorUsuario.isEmpty()) {
@@ -170,19 +280,23 @@ public class PrestamoService {
     }
 
     /**
-     * Finds all loans by the book id.
+     * Finds all loans by the book id, the archived ones included.
      *
      * @param libroId the book id
      * @return a list of all loan DTOs with this book id
      * @throws ServiceException if no loans are found for the given book id
      */
     public List<DTOPrestamo> findPrestamosByLibroId(Integer libroId) throws ServiceException {
-        List<DTOPrestamo> prestamosPorLibro = new ArrayList<>();
-        for (DTOPrestamo dtoPrestamo : prestamosInMemory) {
-            if (dtoPrestamo.getLibroId() == libroId) {
-                prestamosPorLibro.add(dtoPrestamo);
+        List<DTOPrestamo> prestamosPorLibro = read(() -> {
+            List<DTOPrestamo> prestamos = new ArrayList<>();
+            for (int row = 0; row < prestamosInMemory.rowCount(); row++) {
+                if (prestamosInMemory.getLibroId(row) == libroId && prestamosInMemory.isLive(row)) {
+                    prestamos.add(prestamosInMemory.toDTO(row));
+                }
             }
-        }
+            return prestamos;
+        });
+        addArchivados(prestamosPorLibro, daoPrestamo.readHistoricoByLibroId(libroId));
 
         // Throw exception if no loans are found
         if (prestamosPorLibro.isEmpty()) {
@@ -192,6 +306,477 @@ public class PrestamoService {
         return prestamosPorLibro;
     }
 
+    /**
+     * Takes a snapshot of the in-memory loan store, for reports that scan its columns. Only taking it
+     * holds the read lock: the snapshot is then read without blocking the writes, which do not change it.
+     * It must be closed once read.
+     *
+     * @return the open snapshot of the loans stored now
+     */
+    public PrestamoSnapshot openSnapshot() {
+        return read(prestamosInMemory::snapshot);
+    }
+
+    /**
+     * Counts the archived loans of every book, which the in-memory store does not hold, so reports over
+     * every loan add them to the counts of a snapshot. The archived loans still in memory are not counted.
+     *
+     * @return the number of archived loans indexed by book id
+     * @throws ServiceException if the archive cannot be read
+     */
+    public int[] countArchivadosByLibroId() throws ServiceException {
+        return daoPrestamo.countHistoricoByLibroId();
+    }
+
+    /**
+     * Counts the archived loans of every user, see {@link #countArchivadosByLibroId()}.
+     *
+     * @return the number of archived loans indexed by user id
+     * @throws ServiceException if the archive cannot be read
+     */
+    public int[] countArchivadosByUsuarioId() throws ServiceException {
+        return daoPrestamo.countHistoricoByUsuarioId();
+    }
+
+    /**
+     * Counts the archived loans started each month, see {@link #countArchivadosByLibroId()}.
+     *
+     * @return the number of archived loans of each month with any, in month order
+     * @throws ServiceException if the archive cannot be read
+     */
+    public SortedMap<YearMonth, Integer> countArchivadosByMes() throws ServiceException {
+        return daoPrestamo.countHistoricoByMes();
+    }
+
+    /**
+     * Finds the books that are not loaned any day between two dates, both included.
+     *
+     * @param desde the first day
+     * @param hasta the last day
+     * @return the available books
+     * @throws ServiceException if the last day is before the first one or a book cannot be read
+     */
+    public List<DTOLibro> findLibrosDisponibles(LocalDate desde, LocalDate hasta) throws ServiceException {
+        if (hasta.isBefore(desde)) {
+            throw new ServiceException("La fecha de fin no puede ser antígua a la de inicio.");
+        }
+        IntBitmap libres = libroService.getLibroIds();
+        libres.andNot(read(() -> diasPrestados.loaned(PrestamoStore.toEpochDay(desde), PrestamoStore.toEpochDay(hasta))));
+        List<DTOLibro> disponibles = new ArrayList<>(libres.cardinality());
+        for (int libroId : libres.toArray()) {
+            disponibles.add(libroService.findLibroById(libroId));
+        }
+        return disponibles;
+    }
+
+    /**
+     * Finds the loans active on a day: started that day or before and ending that day or after.
+     * No loan lasts longer than the longest one stored, so the candidates are the loans started at most
+     * that many days before, or ending at most that many days after, whichever date index has fewer.
+     * The ids are taken when called and the loans read while iterating, so a loan changed in between
+     * is seen in its current state and a deleted one is skipped. A day some archived loan ended on or after
+     * is read from the database instead, archived loans included.
+     *
+     * @param dia the day
+     * @return the active loans, iterated lazily if read from memory
+     * @throws ServiceException if the loans cannot be read from the database
+     */
+    public Iterable<DTOPrestamo> findPrestamosActivos(LocalDate dia) throws ServiceException {
+        int day = PrestamoStore.toEpochDay(dia);
+        if (day < archivadoHasta.get()) {
+            List<DTOPrestamo> prestamos = new ArrayList<>();
+            daoPrestamo.readActivos(dia, prestamos::add);
+            return prestamos;
+        }
+        storeLock.readLock().lock();
+        try {
+            int duracion = maxDuracion;
+            if (prestamosPorInicio.estimateCount(day - duracion, day) <= prestamosPorFin.estimateCount(day, day + duracion)) {
+                return lazily(prestamosPorInicio.range(day - duracion, day),
+                        prestamo -> !prestamo.fechaFin().isBefore(dia));
+            }
+            return lazily(prestamosPorFin.range(day, day + duracion),
+                    prestamo -> !prestamo.fechaInicio().isAfter(dia));
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the loans started between two dates, both included, in start date order.
+     * The ids are taken when called and the loans read while iterating, so a loan changed in between
+     * is seen in its current state and a deleted one is skipped. A range starting before the end of some
+     * archived loan is read from the database instead, archived loans included.
+     *
+     * @param desde the first day
+     * @param hasta the last day
+     * @return the loans, iterated lazily if read from memory
+     * @throws ServiceException if the last day is before the first one, or the loans cannot be read from the database
+     */
+    public Iterable<DTOPrestamo> findPrestamosByFechaInicio(LocalDate desde, LocalDate hasta) throws ServiceException {
+        if (hasta.isBefore(desde)) {
+            throw new ServiceException("La fecha de fin no puede ser antígua a la de inicio.");
+        }
+        if (PrestamoStore.toEpochDay(desde) < archivadoHasta.get()) { // Archived loans started before they ended
+            List<DTOPrestamo> prestamos = new ArrayList<>();
+            daoPrestamo.readByFechaInicio(desde, hasta, prestamos::add);
+            return prestamos;
+        }
+        return read(() -> lazily(prestamosPorInicio.range(PrestamoStore.toEpochDay(desde), PrestamoStore.toEpochDay(hasta)),
+                prestamo -> true));
+    }
+
+    /**
+     * Finds the loans ending between two dates, both included, in end date order.
+     * The ids are taken when called and the loans read while iterating, so a loan changed in between
+     * is seen in its current state and a deleted one is skipped. A range starting before the end of some
+     * archived loan is read from the database instead, archived loans included.
+     *
+     * @param desde the first day
+     * @param hasta the last day
+     * @return the loans, iterated lazily if read from memory
+     * @throws ServiceException if the last day is before the first one, or the loans cannot be read from the database
+     */
+    public Iterable<DTOPrestamo> findPrestamosByFechaFin(LocalDate desde, LocalDate hasta) throws ServiceException {
+        if (hasta.isBefore(desde)) {
+            throw new ServiceException("La fecha de fin no puede ser antígua a la de inicio.");
+        }
+        if (PrestamoStore.toEpochDay(desde) < archivadoHasta.get()) {
+            List<DTOPrestamo> prestamos = new ArrayList<>();
+            daoPrestamo.readByFechaFin(desde, hasta, prestamos::add);
+            return prestamos;
+        }
+        return read(() -> lazily(prestamosPorFin.range(PrestamoStore.toEpochDay(desde), PrestamoStore.toEpochDay(hasta)),
+                prestamo -> true));
+    }
+
+    /**
+     * Registers a listener notified of the loans that become overdue.
+     *
+     * @param listener the listener
+     */
+    public void addPrestamoVencidoListener(PrestamoVencidoListener listener) {
+        vencidoListeners.add(listener);
+    }
+
+    /**
+     * Finds the loans whose end date passed since the last sweep and notifies the listeners.
+     * Only the expired loans are visited, not every loan. Also moves the circulation counters to today.
+     *
+     * @return the loans that became overdue
+     */
+    public List<DTOPrestamo> sweepPrestamosVencidos() {
+        List<DTOPrestamo> vencidos = new ArrayList<>();
+        int today = (int) LocalDate.now().toEpochDay();
+        write(() -> {
+            contadores.advanceTo(today); // The day of the active loan counter moves here, not on the reads
+            vencimientos.sweep(today, id -> vencidos.add(prestamosInMemory.get(id)));
+        });
+        if (!vencidos.isEmpty()) {
+            for (PrestamoVencidoListener listener : vencidoListeners) {
+                listener.onPrestamosVencidos(vencidos);
+            }
+        }
+        return vencidos;
+    }
+
+    /**
+     * Finds the loans found overdue by the sweeps that have not been returned or extended.
+     *
+     * @return the overdue loans
+     */
+    public List<DTOPrestamo> findPrestamosVencidos() {
+        List<DTOPrestamo> vencidos = new ArrayList<>();
+        read(() -> {
+            vencimientos.getOverdue().forEach(id -> vencidos.add(prestamosInMemory.get(id)));
+            return vencidos;
+        });
+        return vencidos;
+    }
+
+    /**
+     * Starts sweeping the overdue loans periodically, the first time right away.
+     *
+     * @param applier  Executor on which the sweeps run, the same one that applies the in-memory changes
+     *                 (e.g. the Swing event thread).
+     * @param interval time between sweeps
+     */
+    public void startOverdueSweep(Executor applier, Duration interval) {
+        scheduler().scheduleAtFixedRate(() -> applier.execute(this::sweepPrestamosVencidos),
+                0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the number of loans, from the circulation counters. Like every counter, it only covers the loans
+     * not archived yet (those in the Prestamo table).
+     *
+     * @return the number of loans not archived
+     */
+    public int countPrestamos() {
+        return read(() -> contadores.getTotal());
+    }
+
+    /**
+     * Gets the number of loans active today, from the circulation counters.
+     *
+     * @return the number of active loans
+     */
+    public int countPrestamosActivos() {
+        return read(() -> contadores.getActivos((int) LocalDate.now().toEpochDay()));
+    }
+
+    /**
+     * Gets the number of loans of a book not archived yet, from the circulation counters.
+     *
+     * @param libroId the book id
+     * @return the number of loans not archived
+     */
+    public int countPrestamosByLibroId(int libroId) {
+        return read(() -> contadores.getPrestamosLibro(libroId));
+    }
+
+    /**
+     * Gets the number of loans of a user not archived yet, from the circulation counters.
+     *
+     * @param usuarioId the user id
+     * @return the number of loans not archived
+     */
+    public int countPrestamosByUsuarioId(int usuarioId) {
+        return read(() -> contadores.getPrestamosUsuario(usuarioId));
+    }
+
+    /**
+     * Gets the number of books out today, from the bitmap of the day.
+     *
+     * @return the number of loaned books
+     */
+    public int countLibrosPrestados() {
+        return read(() -> diasPrestados.countLoaned((int) LocalDate.now().toEpochDay()));
+    }
+
+    /**
+     * Starts reconciling the circulation counters with the database periodically. The counts are
+     * queried in the background; the books and users whose counters differ get their loans reloaded
+     * on the applier, which fixes both the counters and the in-memory loans.
+     *
+     * @param applier  Executor on which the reloads run, the same one that applies the in-memory changes
+     *                 (e.g. the Swing event thread).
+     * @param interval time between reconciliations
+     */
+    public void startCounterReconciliation(Executor applier, Duration interval) {
+        scheduler().scheduleWithFixedDelay(() -> {
+            try {
+                int[] porLibro = daoPrestamo.countByLibroId();
+                int[] porUsuario = daoPrestamo.countByUsuarioId();
+                applier.execute(() -> reconcileCounters(porLibro, porUsuario));
+            } catch (ServiceException e) {
+                System.err.println("Error al conciliar los contadores de préstamos: " + e.getMessage());
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Moves the loans ended before a date to the archive table, in batches. The database records
+     * the deletions in the change log, so the loans leave the in-memory store of every instance
+     * when the change is polled, and later queries by book or user read them from the archive.
+     *
+     * @param corte the date; loans ending on it or later are kept
+     * @return the number of loans archived
+     * @throws ServiceException if the date is after today or an error occurs during the archival
+     */
+    public int archivePrestamos(LocalDate corte) throws ServiceException {
+        if (corte.isAfter(LocalDate.now())) {
+            throw new ServiceException("La fecha de corte no puede ser posterior a hoy.");
+        }
+        int total = 0;
+        int archivados;
+        do {
+            archivados = daoPrestamo.archiveBefore(corte, ARCHIVE_BATCH);
+            total += archivados;
+        } while (archivados == ARCHIVE_BATCH);
+        archivadoHasta.accumulateAndGet(PrestamoStore.toEpochDay(corte), Math::max);
+        return total;
+    }
+
+    /**
+     * Starts archiving periodically, in the background, the loans that ended longer ago than a retention period.
+     *
+     * @param retencion time an ended loan stays in the Prestamo table
+     * @param interval  time between archivals
+     */
+    public void startArchival(Period retencion, Duration interval) {
+        scheduler().scheduleWithFixedDelay(() -> {
+            try {
+                archivePrestamos(LocalDate.now().minus(retencion));
+            } catch (ServiceException e) {
+                System.err.println("Error al archivar préstamos: " + e.getMessage());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic sweeps of overdue loans, the counter reconciliation and the archival.
+     */
+    public synchronized void stopScheduledTasks() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the executor of the periodic tasks, creating it on first use. Its tasks only query the database;
+     * the in-memory changes they cause run on the applier.
+     *
+     * @return the scheduler
+     */
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "prestamo-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Compares the circulation counters with the counts in the database and reloads the loans
+     * of the books and users that differ. A difference caused by a change not polled yet only
+     * costs a reload, since storing a loan again is harmless.
+     *
+     * @param porLibro   the loans per book in the database
+     * @param porUsuario the loans per user in the database
+     */
+    private void reconcileCounters(int[] porLibro, int[] porUsuario) {
+        int recargados = 0;
+        int[] libros = read(() -> differing(porLibro, contadores.libroCapacity(), contadores::getPrestamosLibro));
+        int[] usuarios = read(() -> differing(porUsuario, contadores.usuarioCapacity(), contadores::getPrestamosUsuario));
+        try {
+            for (int libroId : libros) { // The loans are read outside the lock, then swapped in under it
+                reloadPrestamos(row -> prestamosInMemory.getLibroId(row) == libroId, daoPrestamo.readByLibroId(libroId));
+                recargados++;
+            }
+            for (int usuarioId : usuarios) {
+                reloadPrestamos(row -> prestamosInMemory.getUsuarioId(row) == usuarioId, daoPrestamo.readByUsuarioId(usuarioId));
+                recargados++;
+            }
+        } catch (ServiceException e) {
+            System.err.println("Error al conciliar los contadores de préstamos: " + e.getMessage());
+        }
+        if (recargados > 0) {
+            System.err.println("Contadores de préstamos desajustados, recargados " + recargados + " libros/usuarios");
+        }
+    }
+
+    /**
+     * Adds the archived loans to the loans found in memory, skipping the ones that are in both
+     * (archived while being extended, which keeps them in the Prestamo table).
+     *
+     * @param prestamos  the loans found in memory
+     * @param archivados the archived loans
+     */
+    private void addArchivados(List<DTOPrestamo> prestamos, List<DTOPrestamo> archivados) {
+        for (DTOPrestamo archivado : archivados) {
+            if (lookupPrestamo(archivado.id()).isEmpty()) {
+                prestamos.add(archivado);
+            }
+        }
+    }
+
+    /**
+     * Finds the ids whose count in the database differs from the circulation counter.
+     *
+     * @param counts   the counts in the database, indexed by id
+     * @param capacity the number of ids the counters hold
+     * @param counter  the circulation counter of an id
+     * @return the ids that differ
+     */
+    private static int[] differing(int[] counts, int capacity, IntUnaryOperator counter) {
+        IntStream.Builder ids = IntStream.builder();
+        for (int id = 0; id < Math.max(counts.length, capacity); id++) {
+            if (countAt(counts, id) != counter.applyAsInt(id)) {
+                ids.add(id);
+            }
+        }
+        return ids.build().toArray();
+    }
+
+    /**
+     * Gets a count from a dense array of counts.
+     *
+     * @param counts the counts indexed by id
+     * @param id     the id
+     * @return the count, 0 if the id is beyond the array
+     */
+    private static int countAt(int[] counts, int id) {
+        return id < counts.length ? counts[id] : 0;
+    }
+
+    /**
+     * Replaces in memory the loans matching a condition with their current state in the database.
+     *
+     * @param rowFilter condition over the stored rows to replace
+     * @param actuales  the current loans in the database
+     */
+    private void reloadPrestamos(IntPredicate rowFilter, List<DTOPrestamo> actuales) {
+        write(() -> {
+            prestamosInMemory.removeIf(row -> rowFilter.test(row) && unindexRow(row));
+            actuales.forEach(this::storeLocked);
+        });
+        prestamosReadCache.invalidateAll();
+    }
+
+    /**
+     * Wraps the ids of a date index range into loans, read from the store only as they are iterated.
+     * The ids are copied, since the index may change while the loans are iterated; it must be called
+     * under the read lock.
+     *
+     * @param ids    iterator over the loan ids
+     * @param filter condition the loans must meet
+     * @return the loans
+     */
+    private Iterable<DTOPrestamo> lazily(PrimitiveIterator.OfInt ids, Predicate<DTOPrestamo> filter) {
+        IntStream.Builder copia = IntStream.builder();
+        ids.forEachRemaining((int id) -> copia.add(id));
+        int[] prestamoIds = copia.build().toArray();
+        return () -> new Iterator<>() {
+            private final PrimitiveIterator.OfInt it = IntStream.of(prestamoIds).iterator();
+            private DTOPrestamo next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public DTOPrestamo next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                DTOPrestamo prestamo = next;
+                next = advance();
+                return prestamo;
+            }
+
+            /**
+             * Reads the next loan that meets the condition.
+             *
+             * @return the loan, or null if there are no more
+             */
+            private DTOPrestamo advance() {
+                while (it.hasNext()) {
+                    DTOPrestamo prestamo = lookupPrestamo(it.nextInt()).orElse(null);
+                    if (prestamo != null && filter.test(prestamo)) {
+                        return prestamo;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
     /**
      * Checks if a book is currently loaned between the specified dates.
      *
@@ -200,14 +785,180 @@ public class PrestamoService {
      * @param fechaFin the end date to check
      * @return true if the book is loaned during the specified period, false otherwise
      */
-    private boolean isLibroPrestado(int libroId, Date fechaInicio, Date fechaFin) {
-        for (DTOPrestamo dtoPrestamo : prestamosInMemory) {
-            // Check for overlaps
-            if (dtoPrestamo.getLibroId() == libroId &&
-                    !(dtoPrestamo.getFechaFin().before(fechaInicio) || dtoPrestamo.getFechaInicio().after(fechaFin))) {
-                return true; // The book is loaned in the date range
+    private boolean isLibroPrestado(int libroId, LocalDate fechaInicio, LocalDate fechaFin) {
+        // Only looks at the bitmaps of the days in the range, not at every loan
+        return read(() -> diasPrestados.isLoaned(libroId, PrestamoStore.toEpochDay(fechaInicio), PrestamoStore.toEpochDay(fechaFin)));
+    }
+
+    /**
+     * Applies a change read from the database change log to the in-memory store.
+     *
+     * @param id     The ID of the changed loan.
+     * @param actual The current state of the loan in the database, or null if it was deleted.
+     */
+    public void applyPrestamoChange(int id, DTOPrestamo actual) {
+        prestamosReadCache.invalidate(id);
+        if (actual == null) {
+            DTOPrestamo stored = read(() -> prestamosInMemory.get(id));
+            if (stored != null && stored.fechaFin().isBefore(LocalDate.now())) {
+                // Deleted or archived, by any instance: date ranges up to its end now read the archive too
+                archivadoHasta.accumulateAndGet(PrestamoStore.toEpochDay(stored.fechaFin()) + 1, Math::max);
+            }
+            unstorePrestamo(id);
+        } else {
+            storePrestamo(actual); // Updated, or created by another instance
+        }
+    }
+
+    /**
+     * Removes from memory all loans of a book, used when the book was deleted and the database
+     * removed its loans in cascade.
+     *
+     * @param libroId the book id
+     */
+    public void evictPrestamosByLibroId(int libroId) {
+        write(() -> prestamosInMemory.removeIf(row -> prestamosInMemory.getLibroId(row) == libroId && unindexRow(row)));
+        prestamosReadCache.invalidateAll();
+    }
+
+    /**
+     * Removes from memory all loans of a user, used when the user was deleted and the database
+     * removed their loans in cascade.
+     *
+     * @param usuarioId the user id
+     */
+    public void evictPrestamosByUsuarioId(int usuarioId) {
+        write(() -> prestamosInMemory.removeIf(row -> prestamosInMemory.getUsuarioId(row) == usuarioId && unindexRow(row)));
+        prestamosReadCache.invalidateAll();
+    }
+
+    /**
+     * Replaces a stale loan in memory with its current state in the database,
+     * or removes it if it no longer exists.
+     *
+     * @param stale the outdated in-memory loan
+     * @throws ServiceException if an error occurs while reading the loan
+     */
+    private void refreshPrestamo(DTOPrestamo stale) throws ServiceException {
+        prestamosReadCache.invalidate(stale.id());
+        DTOPrestamo actual = daoPrestamo.read(stale.id());
+        if (actual == null) {
+            unstorePrestamo(stale.id());
+        } else {
+            storePrestamo(actual);
+        }
+    }
+
+    /**
+     * Adds or replaces a loan in the in-memory store, keeping the date indexes, the circulation counters
+     * and the overdue tracker in sync.
+     *
+     * @param prestamo the loan
+     */
+    private void storePrestamo(DTOPrestamo prestamo) {
+        storeLock.writeLock().lock();
+        try {
+            storeLocked(prestamo);
+        } finally {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces a loan in the in-memory store, under the write lock.
+     *
+     * @param prestamo the loan
+     */
+    private void storeLocked(DTOPrestamo prestamo) {
+        DTOPrestamo stored = prestamosInMemory.get(prestamo.id());
+        if (stored != null) {
+            unindexDates(stored); // The days of the previous version are no longer loaned
+        }
+        prestamosInMemory.put(prestamo);
+        int inicio = PrestamoStore.toEpochDay(prestamo.fechaInicio());
+        int fin = PrestamoStore.toEpochDay(prestamo.fechaFin());
+        diasPrestados.add(prestamo.libroId(), inicio, fin);
+        contadores.add(prestamo.libroId(), prestamo.usuarioId(), inicio, fin);
+        prestamosPorInicio.add(inicio, prestamo.id());
+        prestamosPorFin.add(fin, prestamo.id());
+        maxDuracion = Math.max(maxDuracion, fin - inicio);
+        // Keeps the overdue mark if the due date did not change
+        vencimientos.track(prestamo.id(), fin);
+    }
+
+    /**
+     * Removes a loan from the in-memory store, its dates from the indexes and its due date from the overdue tracker.
+     *
+     * @param id the loan id
+     */
+    private void unstorePrestamo(int id) {
+        write(() -> {
+            DTOPrestamo stored = prestamosInMemory.get(id);
+            if (stored != null) {
+                unindexDates(stored);
+                vencimientos.untrack(id);
+                prestamosInMemory.remove(id);
             }
+        });
+    }
+
+    /**
+     * Removes the dates of a stored loan from the day index, the date indexes and the circulation counters.
+     *
+     * @param stored the stored loan
+     */
+    private void unindexDates(DTOPrestamo stored) {
+        int inicio = PrestamoStore.toEpochDay(stored.fechaInicio());
+        int fin = PrestamoStore.toEpochDay(stored.fechaFin());
+        diasPrestados.remove(stored.libroId(), inicio, fin);
+        contadores.remove(stored.libroId(), stored.usuarioId(), inicio, fin);
+        prestamosPorInicio.remove(inicio, stored.id());
+        prestamosPorFin.remove(fin, stored.id());
+    }
+
+    /**
+     * Removes the dates and the due date of a stored row from the indexes and the counters, before the row is removed.
+     *
+     * @param row the row index
+     * @return always true, so it can be chained in a removal condition
+     */
+    private boolean unindexRow(int row) {
+        diasPrestados.remove(prestamosInMemory.getLibroId(row), prestamosInMemory.getInicio(row), prestamosInMemory.getFin(row));
+        prestamosPorInicio.remove(prestamosInMemory.getInicio(row), prestamosInMemory.getId(row));
+        prestamosPorFin.remove(prestamosInMemory.getFin(row), prestamosInMemory.getId(row));
+        contadores.remove(prestamosInMemory.getLibroId(row), prestamosInMemory.getUsuarioId(row),
+                prestamosInMemory.getInicio(row), prestamosInMemory.getFin(row));
+        vencimientos.untrack(prestamosInMemory.getId(row));
+        return true;
+    }
+
+    /**
+     * Runs a read of the in-memory store, its indexes or its counters under the read lock.
+     *
+     * @param reader the read
+     * @param <T>    the type of the result
+     * @return the result of the read
+     */
+    private <T> T read(Supplier<T> reader) {
+        storeLock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a change of the in-memory store, its indexes or its counters under the write lock.
+     *
+     * @param writer the change
+     */
+    private void write(Runnable writer) {
+        storeLock.writeLock().lock();
+        try {
+            writer.run();
+        } finally {
+            storeLock.writeLock().unlock();
         }
-        return false; // No overlap found
     }
 }
@@ -0,0 +1,63 @@
+package prestamo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only view of the loan store as it was at one version, taken by {@link PrestamoStore#snapshot()}.
+ * Long reads (reports, the cache snapshot on disk) scan it without holding the lock of the store, while
+ * loans keep being written: the first write made while it is open copies the columns of the store,
+ * so this view keeps the old ones.
+ * <p>
+ * It must be closed once read, e.g. with try-with-resources; the store is not valid after that. Closing
+ * it releases the old columns, which are collected once no other snapshot uses them.
+ *
+ * @version 1.0
+ */
+public final class PrestamoSnapshot implements AutoCloseable {
+    private final PrestamoStore store;
+    private final long version;
+    private final AtomicInteger readers;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Instantiates a new open snapshot.
+     *
+     * @param store   the read-only store sharing the columns
+     * @param version the version of the store when the snapshot was taken
+     * @param readers the open snapshots of the columns, already counting this one
+     */
+    PrestamoSnapshot(PrestamoStore store, long version, AtomicInteger readers) {
+        this.store = store;
+        this.version = version;
+        this.readers = readers;
+    }
+
+    /**
+     * Gets the loans of the snapshot.
+     *
+     * @return the read-only store
+     */
+    public PrestamoStore getStore() {
+        return store;
+    }
+
+    /**
+     * Gets the version of the store the snapshot was taken at.
+     *
+     * @return the number of changes made to the store before the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Releases the snapshot. Closing it again does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            readers.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package prestamo;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * Columnar in-memory store for loans. Each column is a parallel primitive array, dates are kept
+ * as epoch days, and rows are sorted by id so a lookup is a binary search over the id column.
+ * A loan takes 24 bytes (six ints) plus one bit for the deletion mark, instead of the boxed
+ * id and the two LocalDate objects of a DTOPrestamo, and scans over one column
+ * (e.g. all the book ids) read contiguous memory.
+ * <p>
+ * Deleted rows are only marked and are compacted once they are a quarter of the store,
+ * so deletions do not shift the arrays every time.
+ * <p>
+ * Readers that need a stable view while writes continue take a {@link #snapshot()}: a read-only store
+ * sharing the current columns. The columns are copied on write: the first change made while snapshots
+ * of the current columns are open writes to copies, so the snapshots keep the columns they started with,
+ * which are freed once the last of them is closed and collected. Without open snapshots the changes are
+ * made in place, as before. Every change also increments a version number, recorded by the snapshots.
+ *
+ * @version 1.2
+ */
+public class PrestamoStore {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] ids;
+    private int[] usuarioIds;
+    private int[] libroIds;
+    private int[] inicios;
+    private int[] fines;
+    private int[] versions;
+    private long[] deleted;
+    private int rows;
+    private int deletedRows;
+    private long version; // Changes made so far
+    private AtomicInteger readers = new AtomicInteger(); // Open snapshots sharing the current columns
+    private final boolean readOnly;
+
+    /**
+     * Instantiates a new empty store.
+     */
+    public PrestamoStore() {
+        allocate(INITIAL_CAPACITY);
+        readOnly = false;
+    }
+
+    /**
+     * Instantiates a read-only store sharing the columns of another one.
+     *
+     * @param store the store to share
+     */
+    private PrestamoStore(PrestamoStore store) {
+        ids = store.ids;
+        usuarioIds = store.usuarioIds;
+        libroIds = store.libroIds;
+        inicios = store.inicios;
+        fines = store.fines;
+        versions = store.versions;
+        deleted = store.deleted;
+        rows = store.rows;
+        deletedRows = store.deletedRows;
+        version = store.version;
+        readOnly = true;
+    }
+
+    /**
+     * Takes a snapshot of the loans stored now. The snapshot is not changed by later writes and does
+     * not block them; it must be closed once read, so the next write does not copy the columns for it.
+     * Not thread-safe with the writes: the caller must keep them out while the snapshot is taken.
+     *
+     * @return the open snapshot
+     */
+    public PrestamoSnapshot snapshot() {
+        readers.incrementAndGet();
+        return new PrestamoSnapshot(new PrestamoStore(this), version, readers);
+    }
+
+    /**
+     * Gets the number of changes made to the store.
+     *
+     * @return the version of the store
+     */
+    public long getStoreVersion() {
+        return version;
+    }
+
+    /**
+     * Adds a loan, or replaces it if a loan with the same id is already stored.
+     *
+     * @param prestamo the loan
+     */
+    public void put(DTOPrestamo prestamo) {
+        prepareWrite();
+        int id = prestamo.id();
+        int row;
+        if (rows == 0 || ids[rows - 1] < id) {
+            row = appendRow(); // Ids grow with AUTO_INCREMENT, so this is the common path
+        } else {
+            row = find(id);
+            if (row < 0) {
+                row = insertRow(-row - 1);
+            } else if (isDeleted(row)) {
+                setDeletedBit(row, false); // Stored again after being deleted
+                deletedRows--;
+            }
+        }
+        ids[row] = id;
+        usuarioIds[row] = prestamo.usuarioId();
+        libroIds[row] = prestamo.libroId();
+        inicios[row] = toEpochDay(prestamo.fechaInicio());
+        fines[row] = toEpochDay(prestamo.fechaFin());
+        versions[row] = prestamo.version();
+    }
+
+    /**
+     * Gets a loan by id.
+     *
+     * @param id the loan id
+     * @return a new DTOPrestamo with the stored values, or null if the loan is not stored
+     */
+    public DTOPrestamo get(int id) {
+        int row = find(id);
+        return row >= 0 && !isDeleted(row) ? toDTO(row) : null;
+    }
+
+    /**
+     * Removes a loan by id.
+     *
+     * @param id the loan id
+     * @return true if the loan was stored
+     */
+    public boolean remove(int id) {
+        int row = find(id);
+        if (row < 0 || isDeleted(row)) {
+            return false;
+        }
+        prepareWrite();
+        markDeleted(row);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Removes every loan whose row matches a condition.
+     *
+     * @param rowFilter condition over the row index, using the column getters
+     * @return the number of removed loans
+     */
+    public int removeIf(IntPredicate rowFilter) {
+        int removed = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!isDeleted(row) && rowFilter.test(row)) {
+                if (removed == 0) {
+                    prepareWrite(); // Only once, and only if a loan is removed
+                }
+                markDeleted(row);
+                removed++;
+            }
+        }
+        compactIfNeeded();
+        return removed;
+    }
+
+    /**
+     * Gets the number of stored loans.
+     *
+     * @return the number of loans
+     */
+    public int size() {
+        return rows - deletedRows;
+    }
+
+    /**
+     * Gets the number of rows to scan, including the deleted ones not compacted yet.
+     * Scans must skip the rows for which {@link #isLive(int)} is false.
+     *
+     * @return the number of rows
+     */
+    public int rowCount() {
+        return rows;
+    }
+
+    /**
+     * Checks if a row holds a loan.
+     *
+     * @param row the row index
+     * @return true if the row was not deleted
+     */
+    public boolean isLive(int row) {
+        return !isDeleted(row);
+    }
+
+    /**
+     * Gets the loan id of a row.
+     *
+     * @param row the row index
+     * @return the loan id
+     */
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Gets the user id of a row.
+     *
+     * @param row the row index
+     * @return the user id
+     */
+    public int getUsuarioId(int row) {
+        return usuarioIds[row];
+    }
+
+    /**
+     * Gets the book id of a row.
+     *
+     * @param row the row index
+     * @return the book id
+     */
+    public int getLibroId(int row) {
+        return libroIds[row];
+    }
+
+    /**
+     * Gets the start date of a row.
+     *
+     * @param row the row index
+     * @return the start date, as epoch day
+     */
+    public int getInicio(int row) {
+        return inicios[row];
+    }
+
+    /**
+     * Gets the end date of a row.
+     *
+     * @param row the row index
+     * @return the end date, as epoch day
+     */
+    public int getFin(int row) {
+        return fines[row];
+    }
+
+    /**
+     * Gets the version of a row.
+     *
+     * @param row the row index
+     * @return the version, for optimistic locking
+     */
+    public int getVersion(int row) {
+        return versions[row];
+    }
+
+    /**
+     * Builds a DTOPrestamo with the values of a row.
+     *
+     * @param row the row index
+     * @return the loan
+     */
+    public DTOPrestamo toDTO(int row) {
+        return new DTOPrestamo(ids[row], toDate(inicios[row]), toDate(fines[row]), usuarioIds[row], libroIds[row],
+                versions[row]);
+    }
+
+    /**
+     * Shrinks the columns to the number of rows, e.g. after the initial load.
+     */
+    public void trimToSize() {
+        prepareWrite();
+        compactIfNeeded();
+        int capacity = Math.max(rows, INITIAL_CAPACITY);
+        if (capacity < ids.length) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * Gets the approximate heap used by the columns.
+     *
+     * @return the bytes allocated by the arrays
+     */
+    public long footprintBytes() {
+        return 6L * 4 * ids.length + 8L * deleted.length;
+    }
+
+    /**
+     * Converts a date to epoch days.
+     *
+     * @param date the date
+     * @return the epoch day
+     */
+    static int toEpochDay(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+
+    /**
+     * Converts epoch days to a date.
+     *
+     * @param epochDay the epoch day
+     * @return the date
+     */
+    static LocalDate toDate(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Finds the row of an id with a binary search over the id column.
+     *
+     * @param id the loan id
+     * @return the row index, or (-(insertion point) - 1) if the id is not stored
+     */
+    private int find(int id) {
+        return Arrays.binarySearch(ids, 0, rows, id);
+    }
+
+    /**
+     * Prepares the columns for a change: counts it and, if open snapshots share the columns, copies them,
+     * so the snapshots keep reading the old ones and the next changes are made in place again.
+     *
+     * @throws UnsupportedOperationException if the store is a snapshot
+     */
+    private void prepareWrite() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("La instantánea de préstamos es de solo lectura");
+        }
+        version++;
+        if (readers.get() > 0) {
+            ids = ids.clone();
+            usuarioIds = usuarioIds.clone();
+            libroIds = libroIds.clone();
+            inicios = inicios.clone();
+            fines = fines.clone();
+            versions = versions.clone();
+            deleted = deleted.clone();
+            readers = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Adds a row at the end, growing the columns if needed.
+     *
+     * @return the new row index
+     */
+    private int appendRow() {
+        if (rows == ids.length) {
+            grow();
+        }
+        return rows++;
+    }
+
+    /**
+     * Inserts a row in the middle to keep the id order (ids created by other instances).
+     *
+     * @param row the insertion point
+     * @return the new row index
+     */
+    private int insertRow(int row) {
+        if (rows == ids.length) {
+            grow();
+        }
+        int moved = rows - row;
+        System.arraycopy(ids, row, ids, row + 1, moved);
+        System.arraycopy(usuarioIds, row, usuarioIds, row + 1, moved);
+        System.arraycopy(libroIds, row, libroIds, row + 1, moved);
+        System.arraycopy(inicios, row, inicios, row + 1, moved);
+        System.arraycopy(fines, row, fines, row + 1, moved);
+        System.arraycopy(versions, row, versions, row + 1, moved);
+        for (int i = rows; i > row; i--) {
+            setDeletedBit(i, isDeleted(i - 1)); // Shift the deletion marks as well
+        }
+        setDeletedBit(row, false);
+        rows++;
+        return row;
+    }
+
+    /**
+     * Removes the deleted rows once they are a quarter of the store.
+     */
+    private void compactIfNeeded() {
+        if (deletedRows == 0 || deletedRows < rows / 4) {
+            return;
+        }
+        int target = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!isDeleted(row)) {
+                ids[target] = ids[row];
+                usuarioIds[target] = usuarioIds[row];
+                libroIds[target] = libroIds[row];
+                inicios[target] = inicios[row];
+                fines[target] = fines[row];
+                versions[target] = versions[row];
+                target++;
+            }
+        }
+        Arrays.fill(deleted, 0L);
+        rows = target;
+        deletedRows = 0;
+    }
+
+    /**
+     * Doubles the capacity of every column.
+     */
+    private void grow() {
+        resize(ids.length * 2);
+    }
+
+    /**
+     * Changes the capacity of every column.
+     *
+     * @param capacity the new number of rows
+     */
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        usuarioIds = Arrays.copyOf(usuarioIds, capacity);
+        libroIds = Arrays.copyOf(libroIds, capacity);
+        inicios = Arrays.copyOf(inicios, capacity);
+        fines = Arrays.copyOf(fines, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        deleted = Arrays.copyOf(deleted, (capacity + 63) / 64);
+    }
+
+    /**
+     * Allocates empty columns.
+     *
+     * @param capacity the number of rows
+     */
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        usuarioIds = new int[capacity];
+        libroIds = new int[capacity];
+        inicios = new int[capacity];
+        fines = new int[capacity];
+        versions = new int[capacity];
+        deleted = new long[(capacity + 63) / 64];
+    }
+
+    /**
+     * Checks the deletion mark of a row.
+     *
+     * @param row the row index
+     * @return true if the row was deleted
+     */
+    private boolean isDeleted(int row) {
+        return (deleted[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Marks a row as deleted.
+     *
+     * @param row the row index
+     */
+    private void markDeleted(int row) {
+        if (!isDeleted(row)) {
+            setDeletedBit(row, true);
+            deletedRows++;
+        }
+    }
+
+    /**
+     * Sets or clears the deletion mark of a row, without updating the deleted rows count.
+     *
+     * @param row   the row index
+     * @param value the new mark
+     */
+    private void setDeletedBit(int row, boolean value) {
+        if (value) {
+            deleted[row >>> 6] |= 1L << row;
+        } else {
+            deleted[row >>> 6] &= ~(1L << row);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package prestamo;
+
+import java.util.List;
+
+/**
+ * Listener notified when loans become overdue, after each sweep of the loans past their end date.
+ *
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface PrestamoVencidoListener {
+
+    /**
+     * Called with the loans found overdue by a sweep. Each loan is notified once,
+     * unless its end date changes and it becomes overdue again.
+     *
+     * @param vencidos the loans that became overdue
+     */
+    void onPrestamosVencidos(List<DTOPrestamo> vencidos);
+}
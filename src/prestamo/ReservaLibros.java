@@ -0,0 +1,118 @@
+package prestamo;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Date ranges of the books being loaned right now, claimed before the loan is written to the database
+ * and released once it is in the in-memory store (or the write failed). Two requests for overlapping
+ * days of the same book cannot both pass the availability check: the check and the claim are one
+ * atomic step per book, done in {@link ConcurrentHashMap#compute}, which only locks the entry of the
+ * book, so requests for other books never wait and no lock is held during the database write.
+ * <p>
+ * Each book maps to an immutable array of packed ranges (start day in the high int, end day in the
+ * low int), replaced on every claim and release; a book without claims has no entry.
+ *
+ * @version 1.0
+ */
+public class ReservaLibros {
+    private static final long[] NINGUNA = new long[0];
+
+    private final ConcurrentHashMap<Integer, long[]> reservas = new ConcurrentHashMap<>();
+
+    /**
+     * Claims the days of a book if no other claim overlaps them and the book is not loaned those days.
+     *
+     * @param libroId  the book id
+     * @param inicio   the first day, as epoch day
+     * @param fin      the last day, as epoch day
+     * @param prestado checks the loans already stored; it runs inside the atomic step, so it must be short
+     *                 and must not claim or release
+     * @return true if the days were claimed, false if they are taken
+     */
+    public boolean reserve(int libroId, int inicio, int fin, BooleanSupplier prestado) {
+        boolean[] reservado = new boolean[1];
+        reservas.compute(libroId, (id, rangos) -> {
+            long[] actuales = rangos == null ? NINGUNA : rangos;
+            for (long rango : actuales) {
+                if (inicio <= fin(rango) && inicio(rango) <= fin) {
+                    return rangos; // Claimed by a request still being written
+                }
+            }
+            if (prestado.getAsBoolean()) {
+                return rangos;
+            }
+            long[] nuevos = Arrays.copyOf(actuales, actuales.length + 1);
+            nuevos[actuales.length] = pack(inicio, fin);
+            reservado[0] = true;
+            return nuevos;
+        });
+        return reservado[0];
+    }
+
+    /**
+     * Releases the days claimed by {@link #reserve}.
+     *
+     * @param libroId the book id
+     * @param inicio  the first day, as epoch day
+     * @param fin     the last day, as epoch day
+     */
+    public void release(int libroId, int inicio, int fin) {
+        long packed = pack(inicio, fin);
+        reservas.computeIfPresent(libroId, (id, rangos) -> {
+            for (int i = 0; i < rangos.length; i++) {
+                if (rangos[i] == packed) {
+                    if (rangos.length == 1) {
+                        return null; // No claims left, the entry is removed
+                    }
+                    long[] restantes = new long[rangos.length - 1];
+                    System.arraycopy(rangos, 0, restantes, 0, i);
+                    System.arraycopy(rangos, i + 1, restantes, i, rangos.length - i - 1);
+                    return restantes;
+                }
+            }
+            return rangos;
+        });
+    }
+
+    /**
+     * Gets the number of books with claims in progress.
+     *
+     * @return the number of books
+     */
+    public int size() {
+        return reservas.size();
+    }
+
+    /**
+     * Packs a range of days.
+     *
+     * @param inicio the first day
+     * @param fin    the last day
+     * @return the packed range
+     */
+    private static long pack(int inicio, int fin) {
+        return (long) inicio << 32 | (fin & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the first day of a packed range.
+     *
+     * @param rango the packed range
+     * @return the first day
+     */
+    private static int inicio(long rango) {
+        return (int) (rango >> 32);
+    }
+
+    /**
+     * Gets the last day of a packed range.
+     *
+     * @param rango the packed range
+     * @return the last day
+     */
+    private static int fin(long rango) {
+        return (int) rango;
+    }
+}
@@ -0,0 +1,238 @@
+package search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory inverted index from normalized words to the ids of the entities whose text contains them.
+ * Each word keeps a sorted primitive array of ids, together with the number of times the word appears
+ * and the length of the text, so an AND query intersects the shortest lists first with binary searches
+ * and ranks only the matching entities (BM25, favoring rare words and short texts) without looking
+ * the entities up. The index is updated incrementally when an entity is created, changed or deleted.
+ * <p>
+ * Methods are synchronized so searches can run on background threads while the services update it.
+ *
+ * @version 1.0
+ */
+public class InvertedIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Integer, String[]> documents = new HashMap<>();
+    private long totalWords;
+
+    /**
+     * Indexes the text of an entity, replacing its previous text.
+     *
+     * @param id   the entity id
+     * @param text the text to index
+     */
+    public synchronized void put(int id, String text) {
+        remove(id);
+        List<String> words = TextNormalizer.tokenize(text);
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (String word : words) {
+            frequencies.merge(word, 1, Integer::sum);
+        }
+        String[] terms = new String[frequencies.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            Postings list = postings.computeIfAbsent(entry.getKey(), Postings::new);
+            list.add(id, entry.getValue(), words.size());
+            terms[i++] = list.term; // Share one String per word across entities
+        }
+        documents.put(id, terms);
+        totalWords += words.size();
+    }
+
+    /**
+     * Removes an entity from the index.
+     *
+     * @param id the entity id
+     */
+    public synchronized void remove(int id) {
+        String[] terms = documents.remove(id);
+        if (terms == null) {
+            return;
+        }
+        int length = 0;
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            length = list.remove(id); // Every list stores the same text length
+            if (list.size == 0) {
+                postings.remove(term);
+            }
+        }
+        totalWords -= length;
+    }
+
+    /**
+     * Finds the entities whose text contains all the words of a query, best matches first.
+     *
+     * @param query the words to search, in any case and with or without accents
+     * @param limit the maximum number of results
+     * @return the ids of the matching entities, ranked by relevance
+     */
+    public synchronized int[] search(String query, int limit) {
+        String[] terms = new LinkedHashSet<>(TextNormalizer.tokenize(query)).toArray(new String[0]);
+        if (terms.length == 0 || limit <= 0) {
+            return new int[0];
+        }
+        Postings[] lists = new Postings[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            lists[i] = postings.get(terms[i]);
+            if (lists[i] == null) {
+                return new int[0]; // A word no entity has, the AND is empty
+            }
+        }
+        Arrays.sort(lists, (x, y) -> Integer.compare(x.size, y.size));
+
+        // positions[l][c] is where candidate c is in list l; intersect starting with the rarest word,
+        // so the candidates only shrink
+        int count = lists[0].size;
+        int[][] positions = new int[lists.length][];
+        positions[0] = new int[count];
+        for (int c = 0; c < count; c++) {
+            positions[0][c] = c;
+        }
+        for (int l = 1; l < lists.length && count > 0; l++) {
+            positions[l] = new int[count];
+            int kept = 0;
+            int from = 0;
+            for (int c = 0; c < count; c++) {
+                int pos = gallop(lists[l], from, lists[0].ids[positions[0][c]]);
+                if (pos >= 0) {
+                    for (int k = 0; k < l; k++) {
+                        positions[k][kept] = positions[k][c];
+                    }
+                    positions[l][kept++] = pos;
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1; // Candidates are sorted, continue from the insertion point
+                }
+            }
+            count = kept;
+        }
+        return rank(lists, positions, count, limit);
+    }
+
+    /**
+     * Gets the number of indexed entities.
+     *
+     * @return the number of entities
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Finds an id in a list from a position, probing 1, 2, 4... entries ahead before the binary
+     * search, so walking a list with increasing ids costs about the distance between them.
+     *
+     * @param list the posting list
+     * @param from the first position to look at
+     * @param id   the entity id
+     * @return the position of the id, or (-(insertion point) - 1) if it is not in the list
+     */
+    private static int gallop(Postings list, int from, int id) {
+        int step = 1;
+        while (from + step < list.size && list.ids[from + step] < id) {
+            step <<= 1;
+        }
+        return Arrays.binarySearch(list.ids, from + (step >> 1), Math.min(from + step + 1, list.size), id);
+    }
+
+    /**
+     * Keeps the best scored candidates.
+     *
+     * @param lists     the posting lists of the query words
+     * @param positions the position of each candidate in each list
+     * @param count     the number of candidates
+     * @param limit     the maximum number of results
+     * @return the best ids, highest score first
+     */
+    private int[] rank(Postings[] lists, int[][] positions, int count, int limit) {
+        double averageLength = documents.isEmpty() ? 1 : (double) totalWords / documents.size();
+        double[] idf = new double[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            idf[i] = Math.log(1 + (documents.size() - lists[i].size + 0.5) / (lists[i].size + 0.5));
+        }
+        TopK best = new TopK(Math.min(limit, count));
+        for (int c = 0; c < count; c++) {
+            int first = positions[0][c];
+            double lengthNorm = K1 * (1 - B + B * lists[0].lengths[first] / averageLength);
+            double score = 0;
+            for (int i = 0; i < lists.length; i++) {
+                int tf = lists[i].frequencies[positions[i][c]];
+                score += idf[i] * tf * (K1 + 1) / (tf + lengthNorm);
+            }
+            best.offer(score, lists[0].ids[first]);
+        }
+        return best.drain();
+    }
+
+    /**
+     * Sorted ids of the entities that contain a word, with the word frequency and
+     * the text length of each entity.
+     */
+    private static class Postings {
+        private final String term;
+        private int[] ids = new int[2];
+        private short[] frequencies = new short[2];
+        private short[] lengths = new short[2];
+        private int size;
+
+        /**
+         * Instantiates an empty list.
+         *
+         * @param term the word
+         */
+        private Postings(String term) {
+            this.term = term;
+        }
+
+        /**
+         * Adds an id, keeping the order. Ids usually grow, so it is normally an append.
+         *
+         * @param id        the entity id
+         * @param frequency the times the word appears in the text
+         * @param length    the number of words of the text
+         */
+        private void add(int id, int frequency, int length) {
+            int pos = size == 0 || ids[size - 1] < id ? size : -Arrays.binarySearch(ids, 0, size, id) - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(frequencies, pos, frequencies, pos + 1, size - pos);
+            System.arraycopy(lengths, pos, lengths, pos + 1, size - pos);
+            ids[pos] = id;
+            frequencies[pos] = (short) Math.min(frequency, Short.MAX_VALUE);
+            lengths[pos] = (short) Math.min(length, Short.MAX_VALUE);
+            size++;
+        }
+
+        /**
+         * Removes an id.
+         *
+         * @param id the entity id
+         * @return the text length stored for the id
+         */
+        private int remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            int length = lengths[pos];
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            System.arraycopy(frequencies, pos + 1, frequencies, pos, size - pos - 1);
+            System.arraycopy(lengths, pos + 1, lengths, pos, size - pos - 1);
+            size--;
+            return length;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Autocomplete index over titles or names. Every word start of a normalized text is an entry
+ * (so "marq" completes "Gabriel García Márquez"), kept in sorted parallel arrays and found
+ * with a binary search, and the completions are the entries that follow it: O(log n + k) per query.
+ * <p>
+ * Entries point into the normalized text instead of copying suffixes. Changes go to a small pending
+ * list, sorted when queried, that is merged into the arrays once it grows past a quarter of them,
+ * so updates do not shift the large arrays every time; entries of replaced or removed texts are
+ * skipped and dropped on merge.
+ * <p>
+ * Methods are synchronized so completions can run on background threads while the services update it.
+ *
+ * @version 1.0
+ */
+public class PrefixIndex {
+    private static final int MIN_PENDING = 1024;
+
+    private final Map<Integer, Text> texts = new HashMap<>();
+    private String[] keys = new String[0]; // Normalized text of each entry
+    private int[] offsets = new int[0]; // Word start of each entry in its text
+    private int[] ids = new int[0];
+    private List<Entry> pending = new ArrayList<>();
+    private boolean pendingSorted = true;
+    private int staleTexts; // Replaced or removed since the last merge
+
+    /**
+     * Indexes the text of an entity, replacing its previous text.
+     *
+     * @param id   the entity id
+     * @param text the title or name
+     */
+    public synchronized void put(int id, String text) {
+        if (text == null) {
+            remove(id);
+            return;
+        }
+        String normalized = TextNormalizer.normalize(text);
+        if (texts.put(id, new Text(text, normalized)) != null) {
+            staleTexts++; // Entries of the previous text are no longer valid
+        }
+        List<String> stopWords = TextNormalizer.tokenize(normalized);
+        for (int i = 0; i < normalized.length(); i++) {
+            if (Character.isLetterOrDigit(normalized.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(normalized.charAt(i - 1)))) {
+                if (i == 0 || startsIndexedWord(normalized, i, stopWords)) {
+                    pending.add(new Entry(normalized, i, id));
+                    pendingSorted = false;
+                }
+            }
+        }
+        mergeIfNeeded();
+    }
+
+    /**
+     * Removes an entity from the index.
+     *
+     * @param id the entity id
+     */
+    public synchronized void remove(int id) {
+        if (texts.remove(id) != null) {
+            staleTexts++;
+            mergeIfNeeded();
+        }
+    }
+
+    /**
+     * Completes a prefix with the texts that have a word starting with it, in alphabetical order.
+     *
+     * @param prefix the beginning of the title or name, in any case and with or without accents
+     * @param limit  the maximum number of completions
+     * @return the completions, each entity once
+     */
+    public synchronized List<Suggestion> complete(String prefix, int limit) {
+        List<Suggestion> suggestions = new ArrayList<>();
+        String normalized = TextNormalizer.normalize(prefix.strip());
+        if (normalized.isEmpty() || limit <= 0) {
+            return suggestions;
+        }
+        Set<Integer> seen = new HashSet<>();
+        int row = lowerBound(normalized);
+        sortPending();
+        int delta = pendingLowerBound(normalized);
+        Entry next = delta < pending.size() ? pending.get(delta++) : null;
+        // Merge the arrays and the pending set in order, both start at the first entry >= prefix
+        while (suggestions.size() < limit) {
+            boolean fromArrays = row < ids.length && matches(keys[row], offsets[row], normalized);
+            boolean fromPending = next != null && matches(next.key, next.offset, normalized);
+            if (!fromArrays && !fromPending) {
+                break;
+            }
+            String key;
+            int id;
+            if (fromArrays && (!fromPending || compare(keys[row], offsets[row], ids[row], next) <= 0)) {
+                key = keys[row];
+                id = ids[row++];
+            } else {
+                key = next.key;
+                id = next.id;
+                next = delta < pending.size() ? pending.get(delta++) : null;
+            }
+            Text text = texts.get(id);
+            if (text != null && text.normalized == key && seen.add(id)) { // Skip stale entries and repeated ids
+                suggestions.add(new Suggestion(id, text.original));
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Gets the number of indexed entities.
+     *
+     * @return the number of entities
+     */
+    public synchronized int size() {
+        return texts.size();
+    }
+
+    /**
+     * Checks if the word at a position is indexed, i.e. it is not a stop word.
+     *
+     * @param normalized the normalized text
+     * @param start      the start of the word
+     * @param words      the words of the text that are not stop words
+     * @return true if the word is not a stop word
+     */
+    private static boolean startsIndexedWord(String normalized, int start, List<String> words) {
+        int end = start;
+        while (end < normalized.length() && Character.isLetterOrDigit(normalized.charAt(end))) {
+            end++;
+        }
+        return words.contains(normalized.substring(start, end));
+    }
+
+    /**
+     * Merges the pending entries into the arrays once they, or the stale entries, are a quarter of them.
+     */
+    private void mergeIfNeeded() {
+        int limit = Math.max(MIN_PENDING, ids.length / 4);
+        if (pending.size() > limit || staleTexts > limit) {
+            merge();
+        }
+    }
+
+    /**
+     * Merges the pending entries into the arrays, dropping the stale ones.
+     */
+    private void merge() {
+        int capacity = ids.length + pending.size();
+        String[] mergedKeys = new String[capacity];
+        int[] mergedOffsets = new int[capacity];
+        int[] mergedIds = new int[capacity];
+        int n = 0;
+        int row = 0;
+        sortPending();
+        int delta = 0;
+        Entry next = delta < pending.size() ? pending.get(delta++) : null;
+        while (row < ids.length || next != null) {
+            if (next == null || (row < ids.length && compare(keys[row], offsets[row], ids[row], next) <= 0)) {
+                if (isCurrent(keys[row], ids[row])) {
+                    mergedKeys[n] = keys[row];
+                    mergedOffsets[n] = offsets[row];
+                    mergedIds[n++] = ids[row];
+                }
+                row++;
+            } else {
+                if (isCurrent(next.key, next.id)) {
+                    mergedKeys[n] = next.key;
+                    mergedOffsets[n] = next.offset;
+                    mergedIds[n++] = next.id;
+                }
+                next = delta < pending.size() ? pending.get(delta++) : null;
+            }
+        }
+        keys = Arrays.copyOf(mergedKeys, n);
+        offsets = Arrays.copyOf(mergedOffsets, n);
+        ids = Arrays.copyOf(mergedIds, n);
+        pending = new ArrayList<>();
+        staleTexts = 0;
+    }
+
+    /**
+     * Checks if an entry belongs to the current text of its entity.
+     *
+     * @param key the normalized text of the entry
+     * @param id  the entity id
+     * @return true if the entity still has that text
+     */
+    private boolean isCurrent(String key, int id) {
+        Text text = texts.get(id);
+        return text != null && text.normalized == key;
+    }
+
+    /**
+     * Sorts the pending entries if some were added since the last sort.
+     */
+    private void sortPending() {
+        if (!pendingSorted) {
+            pending.sort(null);
+            pendingSorted = true;
+        }
+    }
+
+    /**
+     * Finds the first pending entry that is not lower than a prefix.
+     *
+     * @param prefix the normalized prefix
+     * @return the index in the pending list
+     */
+    private int pendingLowerBound(String prefix) {
+        int low = 0;
+        int high = pending.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffix(pending.get(mid).key, pending.get(mid).offset, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first entry of the arrays that is not lower than a prefix.
+     *
+     * @param prefix the normalized prefix
+     * @return the row index
+     */
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = ids.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffix(keys[mid], offsets[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Checks if the suffix of a text starts with a prefix.
+     *
+     * @param key    the normalized text
+     * @param offset the start of the suffix
+     * @param prefix the normalized prefix
+     * @return true if the suffix starts with the prefix
+     */
+    private static boolean matches(String key, int offset, String prefix) {
+        return key.startsWith(prefix, offset);
+    }
+
+    /**
+     * Compares the suffix of a text with another string, without copying the suffix.
+     *
+     * @param key    the normalized text
+     * @param offset the start of the suffix
+     * @param other  the other string
+     * @return a negative number, zero or a positive number if the suffix is lower, equal or greater
+     */
+    private static int compareSuffix(String key, int offset, String other) {
+        return compareSuffixes(key, offset, other, 0);
+    }
+
+    /**
+     * Compares the suffixes of two texts, without copying them.
+     *
+     * @param key         the first normalized text
+     * @param offset      the start of the first suffix
+     * @param other       the second normalized text
+     * @param otherOffset the start of the second suffix
+     * @return a negative number, zero or a positive number if the first suffix is lower, equal or greater
+     */
+    private static int compareSuffixes(String key, int offset, String other, int otherOffset) {
+        int length = Math.min(key.length() - offset, other.length() - otherOffset);
+        for (int i = 0; i < length; i++) {
+            int diff = key.charAt(offset + i) - other.charAt(otherOffset + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (key.length() - offset) - (other.length() - otherOffset);
+    }
+
+    /**
+     * Compares an entry of the arrays with a pending entry, by suffix and then by id.
+     *
+     * @param key    the normalized text of the array entry
+     * @param offset the word start of the array entry
+     * @param id     the entity id of the array entry
+     * @param entry  the pending entry
+     * @return a negative number, zero or a positive number if the array entry goes first, is equal or goes after
+     */
+    private static int compare(String key, int offset, int id, Entry entry) {
+        int diff = compareSuffixes(key, offset, entry.key, entry.offset);
+        return diff != 0 ? diff : Integer.compare(id, entry.id);
+    }
+
+    /**
+     * Original and normalized text of an entity.
+     *
+     * @param original   the text as shown to the user
+     * @param normalized the text used for matching
+     */
+    private record Text(String original, String normalized) {
+    }
+
+    /**
+     * Entry not merged into the arrays yet.
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final String key;
+        private final int offset;
+        private final int id;
+
+        /**
+         * Instantiates an entry.
+         *
+         * @param key    the normalized text
+         * @param offset the word start
+         * @param id     the entity id
+         */
+        private Entry(String key, int offset, int id) {
+            this.key = key;
+            this.offset = offset;
+            this.id = id;
+        }
+
+        /**
+         * Orders the entries by suffix and then by id.
+         *
+         * @param other the other entry
+         * @return the comparison result
+         */
+        @Override
+        public int compareTo(Entry other) {
+            int diff = compareSuffixes(key, offset, other.key, other.offset);
+            return diff != 0 ? diff : Integer.compare(id, other.id);
+        }
+    }
+}
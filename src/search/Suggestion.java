@@ -0,0 +1,21 @@
+package search;
+
+/**
+ * Completion returned by a prefix search: the id of the entity and the text it was found by.
+ *
+ * @param id    the entity id
+ * @param texto the title or name of the entity
+ * @version 1.0
+ */
+public record Suggestion(int id, String texto) {
+
+    /**
+     * Formats the suggestion as shown in the form fields.
+     *
+     * @return the id and the text
+     */
+    @Override
+    public String toString() {
+        return id + " - " + texto;
+    }
+}
@@ -0,0 +1,69 @@
+package search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Normalizes Spanish text for searching: accents are folded ("Márquez" matches "marquez"),
+ * case is folded, and the text is split into words without the most common stop words
+ * ("de", "la", "los"...), which appear in most titles and would not narrow a search.
+ *
+ * @version 1.0
+ */
+public final class TextNormalizer {
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "al", "con", "de", "del", "e", "el", "en", "la", "las", "lo", "los",
+            "o", "para", "por", "que", "se", "u", "un", "una", "unas", "unos", "y");
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Folds the accents and case of a text.
+     *
+     * @param text the text
+     * @return the text in lower case, without diacritics
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(c);
+            }
+        }
+        return folded.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a text into normalized words, skipping stop words.
+     *
+     * @param text the text
+     * @return the words, in order and with repetitions
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = normalized.substring(start, i);
+                if (!STOP_WORDS.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,104 @@
+package search;
+
+/**
+ * Min-heap keeping the best scored ids of a search, with the worst of them on top,
+ * so ranking many candidates needs no boxing and no sort of all of them.
+ *
+ * @version 1.0
+ */
+class TopK {
+    private final double[] scores;
+    private final int[] ids;
+    private int size;
+
+    /**
+     * Instantiates an empty heap.
+     *
+     * @param capacity the number of ids to keep
+     */
+    TopK(int capacity) {
+        scores = new double[capacity];
+        ids = new int[capacity];
+    }
+
+    /**
+     * Keeps an id if it is better than the worst one kept.
+     *
+     * @param score the score
+     * @param id    the entity id
+     */
+    void offer(double score, int id) {
+        if (size < scores.length) {
+            scores[size] = score;
+            ids[size] = id;
+            siftUp(size++);
+        } else if (size > 0 && score > scores[0]) {
+            scores[0] = score;
+            ids[0] = id;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Empties the heap.
+     *
+     * @return the ids kept, highest score first
+     */
+    int[] drain() {
+        int[] ranked = new int[size];
+        while (size > 0) {
+            ranked[size - 1] = ids[0];
+            swap(0, --size);
+            siftDown(0);
+        }
+        return ranked;
+    }
+
+    /**
+     * Moves an entry up until its parent has a lower score.
+     *
+     * @param i the entry index
+     */
+    private void siftUp(int i) {
+        while (i > 0 && scores[i] < scores[(i - 1) / 2]) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    /**
+     * Moves an entry down until its children have higher scores.
+     *
+     * @param i the entry index
+     */
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (scores[child] < scores[smallest]) {
+                    smallest = child;
+                }
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    /**
+     * Swaps two entries.
+     *
+     * @param i the first entry index
+     * @param j the second entry index
+     */
+    private void swap(int i, int j) {
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+}
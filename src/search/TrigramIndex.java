@@ -0,0 +1,240 @@
+package search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typo-tolerant index that finds texts similar to a query by their shared trigrams
+ * (sequences of three characters, e.g. "Cortazar" and "Cortázar" share all of them and
+ * "Marques" and "Márquez" most of them). Similarity is the Jaccard coefficient of the
+ * trigram sets of the normalized texts.
+ * <p>
+ * Trigrams are encoded as 18-bit ints (6 bits per folded character), so each one indexes
+ * directly a sorted primitive array of ids. A query only collects candidates from its rarest
+ * trigrams (a text missing all of them cannot reach the threshold), counting the shared trigrams
+ * in an array indexed by id, instead of comparing the query with every text.
+ * <p>
+ * Methods are synchronized so searches can run on background threads while the services update it.
+ *
+ * @version 1.0
+ */
+public class TrigramIndex {
+    private static final int BITS_PER_CHAR = 6;
+    private static final int TRIGRAMS = 1 << (3 * BITS_PER_CHAR);
+
+    private final double threshold;
+    private final int[][] ids = new int[TRIGRAMS][];
+    private final int[] counts = new int[TRIGRAMS];
+    private final Map<Integer, int[]> documents = new HashMap<>();
+    private short[] trigramCounts = new short[1024]; // By id, for the Jaccard union
+    private short[] shared = new short[1024]; // By id, scratch counters of a search
+    private int[] candidates = new int[1024];
+
+    /**
+     * Instantiates an empty index.
+     *
+     * @param threshold the minimum similarity, between 0 and 1, of the texts returned
+     */
+    public TrigramIndex(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Indexes the text of an entity, replacing its previous text.
+     *
+     * @param id   the entity id, not negative
+     * @param text the text to index
+     */
+    public synchronized void put(int id, String text) {
+        remove(id);
+        int[] trigrams = trigrams(text);
+        for (int trigram : trigrams) {
+            add(trigram, id);
+        }
+        if (id >= trigramCounts.length) {
+            int capacity = Math.max(id + 1, trigramCounts.length * 2);
+            trigramCounts = Arrays.copyOf(trigramCounts, capacity);
+            shared = Arrays.copyOf(shared, capacity);
+        }
+        trigramCounts[id] = (short) Math.min(trigrams.length, Short.MAX_VALUE);
+        documents.put(id, trigrams);
+    }
+
+    /**
+     * Removes an entity from the index.
+     *
+     * @param id the entity id
+     */
+    public synchronized void remove(int id) {
+        int[] trigrams = documents.remove(id);
+        if (trigrams == null) {
+            return;
+        }
+        for (int trigram : trigrams) {
+            int pos = Arrays.binarySearch(ids[trigram], 0, counts[trigram], id);
+            System.arraycopy(ids[trigram], pos + 1, ids[trigram], pos, counts[trigram] - pos - 1);
+            if (--counts[trigram] == 0) {
+                ids[trigram] = null;
+            }
+        }
+        trigramCounts[id] = 0;
+    }
+
+    /**
+     * Finds the entities whose text is most similar to a query, even with typos or missing accents.
+     *
+     * @param query the text to search
+     * @param limit the maximum number of results
+     * @return the ids of the entities with a similarity of at least the threshold, most similar first
+     */
+    public synchronized int[] search(String query, int limit) {
+        int[] trigrams = trigrams(query);
+        if (trigrams.length == 0 || limit <= 0) {
+            return new int[0];
+        }
+        // Rarest trigrams first; the shared trigrams needed by Jaccard >= t are at least t * |query|,
+        // so a text must have one of the first |query| - t * |query| + 1 trigrams to be a candidate
+        Integer[] order = new Integer[trigrams.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = trigrams[i];
+        }
+        Arrays.sort(order, (x, y) -> Integer.compare(counts[x], counts[y]));
+        int minShared = Math.max(1, (int) Math.ceil(threshold * trigrams.length));
+        int prefix = trigrams.length - minShared + 1;
+
+        int n = 0;
+        for (int i = 0; i < prefix; i++) {
+            int trigram = order[i];
+            for (int p = 0; p < counts[trigram]; p++) {
+                int id = ids[trigram][p];
+                if (shared[id]++ == 0) {
+                    if (n == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, n * 2);
+                    }
+                    candidates[n++] = id;
+                }
+            }
+        }
+        // The frequent trigrams only count for the candidates: probe them when there are few,
+        // otherwise walking the whole list is cheaper than the binary searches
+        for (int i = prefix; i < trigrams.length; i++) {
+            int trigram = order[i];
+            if ((long) n * 32 < counts[trigram]) {
+                for (int c = 0; c < n; c++) {
+                    if (Arrays.binarySearch(ids[trigram], 0, counts[trigram], candidates[c]) >= 0) {
+                        shared[candidates[c]]++;
+                    }
+                }
+            } else {
+                for (int p = 0; p < counts[trigram]; p++) {
+                    int id = ids[trigram][p];
+                    if (shared[id] > 0) {
+                        shared[id]++;
+                    }
+                }
+            }
+        }
+
+        TopK best = new TopK(limit);
+        for (int c = 0; c < n; c++) {
+            int id = candidates[c];
+            int common = shared[id];
+            shared[id] = 0; // Leave the counters clean for the next search
+            double similarity = (double) common / (trigrams.length + trigramCounts[id] - common);
+            if (similarity >= threshold) {
+                best.offer(similarity, id);
+            }
+        }
+        return best.drain();
+    }
+    /**
+     * Gets the number of indexed entities.
+     *
+     * @return the number of entities
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Computes the distinct trigrams of a text. Each normalized word is padded with two spaces
+     * before and one after, so the beginning of the words weighs more.
+     *
+     * @param text the text
+     * @return the sorted trigram codes
+     */
+    static int[] trigrams(String text) {
+        if (text == null) {
+            return new int[0];
+        }
+        String normalized = TextNormalizer.normalize(text);
+        int[] trigrams = new int[normalized.length() * 3 + 3];
+        int n = 0;
+        int a = 0;
+        int b = 0;
+        boolean inWord = false;
+        for (int i = 0; i <= normalized.length(); i++) {
+            char c = i < normalized.length() ? normalized.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord) {
+                    a = 0; // Two leading spaces
+                    b = 0;
+                    inWord = true;
+                }
+                int code = encode(c);
+                trigrams[n++] = a << (2 * BITS_PER_CHAR) | b << BITS_PER_CHAR | code;
+                a = b;
+                b = code;
+            } else if (inWord) {
+                trigrams[n++] = a << (2 * BITS_PER_CHAR) | b << BITS_PER_CHAR; // Trailing space
+                inWord = false;
+            }
+        }
+        int[] distinct = Arrays.copyOf(trigrams, n);
+        Arrays.sort(distinct);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[unique++] = distinct[i];
+            }
+        }
+        return Arrays.copyOf(distinct, unique);
+    }
+
+    /**
+     * Encodes a normalized character in 6 bits: 0 is the padding space, then letters and digits.
+     * Other characters share the remaining codes.
+     *
+     * @param c the character
+     * @return the code, from 1 to 63
+     */
+    private static int encode(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 1;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 27;
+        }
+        return 37 + c % 27;
+    }
+
+    /**
+     * Adds an id to the list of a trigram, keeping the order.
+     *
+     * @param trigram the trigram code
+     * @param id      the entity id
+     */
+    private void add(int trigram, int id) {
+        int count = counts[trigram];
+        if (ids[trigram] == null) {
+            ids[trigram] = new int[2];
+        } else if (count == ids[trigram].length) {
+            ids[trigram] = Arrays.copyOf(ids[trigram], count * 2);
+        }
+        int pos = count == 0 || ids[trigram][count - 1] < id ? count : -Arrays.binarySearch(ids[trigram], 0, count, id) - 1;
+        System.arraycopy(ids[trigram], pos, ids[trigram], pos + 1, count - pos);
+        ids[trigram][pos] = id;
+        counts[trigram]++;
+    }
+}
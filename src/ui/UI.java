@@ -1,22 +1,37 @@
 package ui;
 
 import autor.AutorService;
+import autor.DAOAutor;
 import autor.DTOAutor;
+import catalogo.CatalogoFile;
+import cambio.CacheState;
+import cambio.CambioService;
+import cambio.SnapshotService;
 import exception.ServiceException;
+import libro.DAOLibro;
 import libro.DTOLibro;
+import libro.Isbn;
 import libro.LibroService;
 import libro_autor.DTOLibroAutor;
 import libro_autor.LibroAutorService;
 import prestamo.DTOPrestamo;
 import prestamo.PrestamoService;
+import search.Suggestion;
 import usuario.DTOUsuario;
 import usuario.UsuarioService;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Period;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
 
 /**
  * User interface for managing books, authors, users, and loans.
@@ -30,6 +45,26 @@ import java.util.List;
  */
 public class UI extends JFrame {
 
+    // Maximum number of results shown by a text search
+    private static final int SEARCH_LIMIT = 20;
+    // Autocomplete of the ID fields: suggestions shown and pause in typing before looking them up
+    private static final int SUGGESTION_LIMIT = 8;
+    private static final int SUGGESTION_DELAY_MS = 150;
+    // Time between the checks for loans past their end date
+    private static final Duration OVERDUE_SWEEP_INTERVAL = Duration.ofHours(1);
+    // Time between the checks of the circulation counters against the database
+    private static final Duration COUNTER_RECONCILIATION_INTERVAL = Duration.ofMinutes(10);
+    // Ended loans stay in the Prestamo table this long before they are archived, checked once a day
+    private static final Period ARCHIVE_RETENTION = Period.ofYears(1);
+    private static final Duration ARCHIVE_INTERVAL = Duration.ofDays(1);
+    // Local snapshot of the full caches, so a restart does not read every table (-Dbiblioteca.snapshotDir)
+    private static final Path SNAPSHOT_DIR = Path.of(System.getProperty("biblioteca.snapshotDir",
+            System.getProperty("user.home") + "/.biblioteca"));
+    // Exported catalog file for kiosks (-Dbiblioteca.catalogo): book lookups by ID or ISBN read it
+    // in place without loading the services
+    private static final String CATALOGO_FILE = System.getProperty("biblioteca.catalogo");
+    // Books and authors kept outside the Java heap, for catalogs of millions of titles (-Dbiblioteca.offHeap)
+    private static final boolean OFF_HEAP = Boolean.getBoolean("biblioteca.offHeap");
     private final CardLayout cardLayout;
     private final JPanel contentPane;
     // key: input field name, value: field
@@ -46,6 +81,8 @@ public class UI extends JFrame {
     private UsuarioService usuarioService;
     private PrestamoService prestamoService;
     private LibroAutorService libroAutorService;
+    private CambioService cambioService;
+    private CatalogoFile catalogo;
 
     /**
      * Instantiates a new Ui.
@@ -343,6 +380,120 @@ public class UI extends JFrame {
         inputFields.put(labelText, field); // Almacena el campo en el mapa
         fieldsPanel.add(label);
         fieldsPanel.add(field);
+        installAutocomplete(labelText, field);
+    }
+
+    /**
+     * Adds autocomplete to an ID field: when a name or title is typed instead of a number,
+     * the matching entities are suggested and choosing one fills in its ID.
+     * The lookup waits for a pause in typing and runs in the background, so typing never blocks.
+     *
+     * @param labelText the label of the field
+     * @param field the input field
+     */
+    private void installAutocomplete(String labelText, JTextField field) {
+        BiFunction<String, Integer, List<Suggestion>> source = suggestionSource(labelText);
+        if (source == null) {
+            return;
+        }
+        JPopupMenu popup = new JPopupMenu();
+        popup.setFocusable(false); // Keep typing in the field while it is shown
+        Timer debounce = new Timer(SUGGESTION_DELAY_MS, e -> {
+            String text = field.getText().trim();
+            if (text.isEmpty() || isNumeric(text)) {
+                popup.setVisible(false);
+                return;
+            }
+            new SwingWorker<List<Suggestion>, Void>() {
+                @Override
+                protected List<Suggestion> doInBackground() {
+                    return source.apply(text, SUGGESTION_LIMIT);
+                }
+
+                @Override
+                protected void done() {
+                    if (!field.isShowing() || !text.equals(field.getText().trim())) {
+                        return; // The user kept typing, a newer lookup is on its way
+                    }
+                    try {
+                        showSuggestions(popup, field, get());
+                    } catch (InterruptedException | ExecutionException ex) {
+                        popup.setVisible(false);
+                    }
+                }
+            }.execute();
+        });
+        debounce.setRepeats(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                debounce.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                debounce.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                debounce.restart();
+            }
+        });
+    }
+
+    /**
+     * Gets the lookup of suggestions for an ID field, based on its label and the current entity.
+     *
+     * @param labelText the label of the field
+     * @return the lookup, or null if the field does not identify a book, author or user, or the book is
+     *         looked up in the mapped catalog
+     */
+    private BiFunction<String, Integer, List<Suggestion>> suggestionSource(String labelText) {
+        String entity = switch (labelText) {
+            case "ID Libro" -> "LIBRO";
+            case "ID Autor" -> "AUTOR";
+            case "ID Usuario" -> "USUARIO";
+            case "ID" -> switch (currentAction) {
+                case "Buscar por Libro" -> "LIBRO";
+                case "Buscar por Autor" -> "AUTOR";
+                default -> currentEntity;
+            };
+            default -> "";
+        };
+        if (CATALOGO_FILE != null && "LIBRO".equals(currentEntity) && "Buscar".equals(currentAction)) {
+            return null; // Answered by the mapped catalog, which has no text search: the services are not loaded
+        }
+        if (!List.of("LIBRO", "AUTOR", "USUARIO").contains(entity) || !initServices()) {
+            return null; // Load the services now so suggestions are ready while typing
+        }
+        return switch (entity) {
+            case "LIBRO" -> libroService::suggestLibros;
+            case "AUTOR" -> autorService::suggestAutores;
+            case "USUARIO" -> usuarioService::suggestUsuarios;
+            default -> null;
+        };
+    }
+
+    /**
+     * Shows the suggestions under a field; choosing one replaces the text with its ID.
+     *
+     * @param popup the popup of the field
+     * @param field the input field
+     * @param suggestions the suggestions to show
+     */
+    private void showSuggestions(JPopupMenu popup, JTextField field, List<Suggestion> suggestions) {
+        popup.setVisible(false);
+        popup.removeAll();
+        if (suggestions.isEmpty()) {
+            return;
+        }
+        for (Suggestion suggestion : suggestions) {
+            JMenuItem item = new JMenuItem(suggestion.toString());
+            item.addActionListener(e -> field.setText(String.valueOf(suggestion.id())));
+            popup.add(item);
+        }
+        popup.show(field, 0, field.getHeight());
     }
     /**
      * Resets the management panel by clearing all input fields and hiding the confirm button.
@@ -362,15 +513,11 @@ public class UI extends JFrame {
      * messages based on the success or the failure of this operations.
      */
     private void doCrudAction() {
-        try {
-            libroAutorService = new LibroAutorService();
-            libroService = new LibroService(libroAutorService);
-            autorService = new AutorService(libroAutorService);
-            usuarioService = new UsuarioService();
-            prestamoService = new PrestamoService(libroService,usuarioService);
-
-        } catch (ServiceException e) {
-            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        if ("LIBRO".equals(currentEntity) && "Buscar".equals(currentAction) && showLibroFromCatalogo()) {
+            return;  // Answered by the mapped catalog
+        }
+        if (!initServices()) {
+            return;  // stop
         }
 
         switch (currentEntity) {
@@ -400,8 +547,19 @@ public class UI extends JFrame {
                             return;  // stop
                         }
                         try {
-                            Integer id = Integer.parseInt(inputFields.get("ID").getText());
-                            DTOLibro libro = libroService.findLibroById(id);
+                            String texto = inputFields.get("ID").getText().trim();
+                            if (!isNumeric(texto) && !Isbn.isWellFormed(texto)) {
+                                List<DTOLibro> libros = libroService.searchLibros(texto, SEARCH_LIMIT);
+                                if (libros.isEmpty()) {
+                                    libros = libroService.findSimilarLibros(texto, SEARCH_LIMIT); // Maybe misspelled
+                                }
+                                showSearchResults(libros, "Libros encontrados");
+                                return;
+                            }
+                            // A scanned barcode is looked up by ISBN, anything else by ID
+                            DTOLibro libro = Isbn.isWellFormed(texto)
+                                    ? libroService.findLibroByIsbn(texto)
+                                    : libroService.findLibroById(Integer.parseInt(texto));
                             if (libro != null) {
                                 JOptionPane.showMessageDialog(this, libro.toString(), "Libro encontrado", JOptionPane.INFORMATION_MESSAGE);
                             }
@@ -469,7 +627,16 @@ public class UI extends JFrame {
                         }
 
                         try {
-                            Integer id = Integer.parseInt(inputFields.get("ID").getText());
+                            String texto = inputFields.get("ID").getText().trim();
+                            if (!isNumeric(texto)) {
+                                List<DTOAutor> autores = autorService.searchAutores(texto, SEARCH_LIMIT);
+                                if (autores.isEmpty()) {
+                                    autores = autorService.findSimilarAutores(texto, SEARCH_LIMIT); // Maybe misspelled
+                                }
+                                showSearchResults(autores, "Autores encontrados");
+                                return;
+                            }
+                            Integer id = Integer.parseInt(texto);
                             DTOAutor autor = autorService.findAutorById(id);
                             if (autor != null) {
                                 JOptionPane.showMessageDialog(this, autor.toString(), "Autor encontrado", JOptionPane.INFORMATION_MESSAGE);
@@ -536,7 +703,12 @@ public class UI extends JFrame {
                             return;
                         }
                         try {
-                            Integer id = Integer.parseInt(inputFields.get("ID").getText());
+                            String texto = inputFields.get("ID").getText().trim();
+                            if (!isNumeric(texto)) {
+                                showSearchResults(usuarioService.findSimilarUsuarios(texto, SEARCH_LIMIT), "Usuarios encontrados");
+                                return;
+                            }
+                            Integer id = Integer.parseInt(texto);
                             DTOUsuario usuario = usuarioService.findUsuarioById(id);
                             if (usuario != null) {
                                 JOptionPane.showMessageDialog(this, usuario.toString(), "Usuario encontrado", JOptionPane.INFORMATION_MESSAGE);
@@ -723,6 +895,117 @@ public class UI extends JFrame {
 
     }
 
+    /**
+     * Instantiates the service classes on first use, loading the caches once and keeping them
+     * in sync with other instances through the change log.
+     *
+     * @return true if the services are available; false if they could not be loaded
+     */
+    private boolean initServices() {
+        if (prestamoService != null) {
+            return true;
+        }
+        try {
+            cambioService = new CambioService(EventQueue::invokeLater); // Before loading the caches
+            // Bounded read-through caches when -Dbiblioteca.cacheSize is set, full caches otherwise
+            Integer cacheSize = Integer.getInteger("biblioteca.cacheSize");
+            SnapshotService snapshotService = null;
+            CacheState cache = null;
+            if (cacheSize == null) {
+                snapshotService = new SnapshotService(SNAPSHOT_DIR);
+                cache = snapshotService.load(cambioService.getFirstSeq(), cambioService.getLastSeq());
+            }
+            if (cache != null) {
+                // Restored from the snapshot, the changes made since are polled from its sequence number
+                libroAutorService = new LibroAutorService(cache.relaciones());
+                if (OFF_HEAP) {
+                    libroService = new LibroService(libroAutorService, cache.libros()::forEach);
+                    autorService = new AutorService(libroAutorService, cache.autores()::forEach);
+                } else {
+                    libroService = new LibroService(libroAutorService, cache.libros());
+                    autorService = new AutorService(libroAutorService, cache.autores());
+                }
+                usuarioService = new UsuarioService(cache.usuarios());
+                prestamoService = new PrestamoService(libroService, usuarioService, cache::readPrestamos);
+                cambioService.resumeFrom(cache.seq());
+            } else {
+                libroAutorService = new LibroAutorService();
+                if (cacheSize != null) {
+                    libroService = new LibroService(libroAutorService, cacheSize);
+                    autorService = new AutorService(libroAutorService, cacheSize);
+                    usuarioService = new UsuarioService(cacheSize);
+                } else if (OFF_HEAP) {
+                    libroService = new LibroService(libroAutorService, new DAOLibro()::readAll);
+                    autorService = new AutorService(libroAutorService, new DAOAutor()::readAll);
+                    usuarioService = new UsuarioService();
+                } else {
+                    libroService = new LibroService(libroAutorService);
+                    autorService = new AutorService(libroAutorService);
+                    usuarioService = new UsuarioService();
+                }
+                prestamoService = new PrestamoService(libroService, usuarioService);
+            }
+            cambioService.start(libroAutorService, libroService, autorService, usuarioService, prestamoService, snapshotService);
+            prestamoService.addPrestamoVencidoListener(vencidos -> showWarningMessage(
+                    "Hay " + vencidos.size() + " préstamo(s) vencido(s), el primero con ID " + vencidos.get(0).id(),
+                    "Préstamos vencidos"));
+            prestamoService.startOverdueSweep(EventQueue::invokeLater, OVERDUE_SWEEP_INTERVAL);
+            prestamoService.startCounterReconciliation(EventQueue::invokeLater, COUNTER_RECONCILIATION_INTERVAL);
+            prestamoService.startArchival(ARCHIVE_RETENTION, ARCHIVE_INTERVAL);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::logWriteMetrics, "metricas-escritura"));
+            return true;
+        } catch (ServiceException e) {
+            prestamoService = null;
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+    }
+
+    /**
+     * Logs the UPDATE statements and columns that change tracking saved for each entity since the services
+     * were loaded. Runs when the application exits.
+     */
+    private void logWriteMetrics() {
+        System.out.println("Escrituras de libros:\n" + libroService.getWriteMetrics());
+        System.out.println("Escrituras de autores:\n" + autorService.getWriteMetrics());
+        System.out.println("Escrituras de usuarios:\n" + usuarioService.getWriteMetrics());
+    }
+
+    /**
+     * Shows the book typed in the ID field (an ID or a scanned ISBN) from the mapped catalog file,
+     * when one is configured. Text searches are left to the services.
+     *
+     * @return true if the search was answered from the catalog
+     */
+    private boolean showLibroFromCatalogo() {
+        JTextField field = inputFields.get("ID");
+        if (CATALOGO_FILE == null || field == null) {
+            return false;
+        }
+        String texto = field.getText().trim();
+        if (!isNumeric(texto) && !Isbn.isWellFormed(texto)) {
+            return false;
+        }
+        try {
+            if (catalogo == null) {
+                catalogo = CatalogoFile.open(Path.of(CATALOGO_FILE));
+            }
+            int id = Isbn.isWellFormed(texto) ? catalogo.findLibroIdByIsbn(texto) : Integer.parseInt(texto);
+            StringBuilder autores = new StringBuilder();
+            for (int autorId : catalogo.findAutorIdsByLibroId(id)) {
+                autores.append(autores.length() == 0 ? "" : ", ").append(catalogo.getNombreAutor(autorId));
+            }
+            String libro = "ID: " + id + "\n" +
+                    "Título: " + catalogo.getTitulo(id) + "\n" +
+                    "ISBN: " + catalogo.getIsbn(id) + "\n" +
+                    "Autores: " + autores;
+            JOptionPane.showMessageDialog(this, libro, "Libro encontrado", JOptionPane.INFORMATION_MESSAGE);
+        } catch (ServiceException e) {
+            showErrorMessage(e);
+        }
+        return true;
+    }
+
     /**
      * Checks if the specified fields are filled
      *
@@ -749,6 +1032,34 @@ public class UI extends JFrame {
         JOptionPane.showMessageDialog(this, message, title, JOptionPane.WARNING_MESSAGE);
     }
 
+    /**
+     * Checks if a text is a numeric ID, otherwise it is searched as words.
+     *
+     * @param text the text typed in the ID field
+     * @return true if the text only has digits
+     */
+    private boolean isNumeric(String text) {
+        return !text.isEmpty() && text.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * Displays the results of a text search, one per line.
+     *
+     * @param results the entities found
+     * @param title the title of the dialog
+     */
+    private void showSearchResults(List<?> results, String title) {
+        if (results.isEmpty()) {
+            showWarningMessage("No se ha encontrado ningún resultado", title);
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (Object result : results) {
+            message.append(result).append('\n');
+        }
+        JOptionPane.showMessageDialog(this, message.toString(), title, JOptionPane.INFORMATION_MESSAGE);
+    }
+
     /**
      * Displays a confirmation message dialog indicating the completion of the current action.
      */
@@ -1,45 +1,56 @@
 package usuario;
 
+import exception.ConcurrencyException;
 import exception.ServiceException;
-import jdbc.DDL;
+import jdbc.ConnectionPool;
+import jdbc.WriteMetrics;
+import util.StringPool;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * The DAOUsuario class handles CRUD operations for the Usuario (User) entity.
  *
- * @version 1.1
+ * @version 1.4
  */
 public class DAOUsuario {
     private static final String CREATE = "INSERT INTO Usuario (nombre) VALUES (?)";
     private static final String READ = "SELECT * FROM Usuario WHERE ID = ?";
     private static final String READ_ALL = "SELECT * FROM Usuario";
-    private static final String UPDATE = "UPDATE Usuario SET nombre = ? WHERE ID = ?";
+    private static final String UPDATE = "UPDATE Usuario SET nombre = ?, version = version + 1 WHERE ID = ? AND version = ?";
+    private static final int UPDATABLE_COLUMNS = 1;
     private static final String DELETE = "DELETE FROM Usuario WHERE ID = ?";
-    private static Connection conexion;
+    private static final int MAX_POOLED = 1 << 20;
+    // Canonical instances of the names of the users, shared by the rows that repeat them
+    private static final StringPool NOMBRES = new StringPool(MAX_POOLED);
+    private final WriteMetrics writeMetrics = new WriteMetrics();
 
     /**
-     * Initializes a new DAOUsuario instance by establishing a database connection.
+     * Initializes a new DAOUsuario instance. Each statement runs on its own connection, borrowed from the {@link ConnectionPool}.
      */
     public DAOUsuario() {
-        this.conexion = DDL.getConnection();
     }
 
     /**
      * Creates a new user in the database.
      *
      * @param usuario The user object containing the name of the user.
+     * @return The stored user, with the ID generated by the database.
      * @throws ServiceException if there is an error during the creation.
      */
-    public void create(DTOUsuario usuario) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
-            pst.setString(1, usuario.getNombre());
+    public DTOUsuario create(DTOUsuario usuario) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(CREATE, Statement.RETURN_GENERATED_KEYS)) {
+            pst.setString(1, usuario.nombre());
             pst.executeUpdate();
             try (ResultSet rs = pst.getGeneratedKeys()) {
                 if (rs.next()) {
-                    usuario.setId(rs.getInt(1)); // Set the generated ID
+                    return usuario.withId(rs.getInt(1)); // Set the generated ID
                 }
             }
+            throw new ServiceException("Error al crear usuario: no se ha generado el ID");
         } catch (SQLException e) {
             throw new ServiceException("Error al crear usuario: " + e.getMessage());
         }
@@ -53,7 +64,8 @@ public class DAOUsuario {
      * @throws ServiceException if there is an error during the read.
      */
     public DTOUsuario read(int id) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(READ)) {
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(READ)) {
             pst.setInt(1, id);
             ResultSet rs = pst.executeQuery();
             if (rs.next()) {
@@ -74,7 +86,8 @@ public class DAOUsuario {
      */
     public ArrayList<DTOUsuario> readAll() throws ServiceException {
         ArrayList<DTOUsuario> usuarios = new ArrayList<>();
-        try (Statement st = conexion.createStatement();
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement();
              ResultSet rs = st.executeQuery(READ_ALL)) {
             while (rs.next()) {
                 usuarios.add(getUsuario(rs)); // Convert each result to a DTOUsuario
@@ -85,21 +98,57 @@ public class DAOUsuario {
         return usuarios;
     }
 
+    /**
+     * Reads all users from the database, passing each one to a consumer as it is read
+     * instead of building a list, so indexes can be built without loading all the users.
+     *
+     * @param consumer receives each user read.
+     * @throws ServiceException if there is an error during the read.
+     */
+    public void readAll(Consumer<DTOUsuario> consumer) throws ServiceException {
+        try (Connection conexion = ConnectionPool.borrow();
+             Statement st = conexion.createStatement()) {
+            st.setFetchSize(1000); // Stream the rows instead of buffering the whole table
+            try (ResultSet rs = st.executeQuery(READ_ALL)) {
+                while (rs.next()) {
+                    consumer.accept(getUsuario(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new ServiceException("Error al leer todos los usuarios: " + e.getMessage());
+        }
+    }
+
     /**
      * Updates an existing user's information in the database.
+     * No statement is sent when the name is the one that was read, and the row is only
+     * updated if its version still matches the one that was read.
      *
-     * @param usuario The DTOUsuario object containing the updated user information.
+     * @param anterior The user as it was read.
+     * @param usuario  The DTOUsuario object containing the updated user information.
+     * @return The stored user with its new version, or the user as it was read if nothing changed.
      * @throws IllegalArgumentException if the user's ID is invalid (less than or equal to 0).
+     * @throws ConcurrencyException if the user was modified or deleted by another instance.
      * @throws ServiceException if there is an error during the update.
      */
-    public void update(DTOUsuario usuario) throws ServiceException {
-        if (usuario.getId() <= 0) {
+    public DTOUsuario update(DTOUsuario anterior, DTOUsuario usuario) throws ServiceException {
+        if (usuario.id() <= 0) {
             throw new IllegalArgumentException("ID de usuario no válido");
         }
-        try (PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
-            pst.setString(1, usuario.getNombre());
-            pst.setInt(2, usuario.getId());
-            pst.executeUpdate();
+        if (Objects.equals(anterior.nombre(), usuario.nombre())) {
+            writeMetrics.recordSkipped(UPDATABLE_COLUMNS);
+            return anterior; // Nothing changed, skip the round trip
+        }
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(UPDATE)) {
+            pst.setString(1, usuario.nombre());
+            pst.setInt(2, usuario.id());
+            pst.setInt(3, usuario.version());
+            if (pst.executeUpdate() == 0) {
+                throw new ConcurrencyException("El usuario ha sido modificado por otro usuario");
+            }
+            writeMetrics.recordUpdate(UPDATABLE_COLUMNS, UPDATABLE_COLUMNS);
+            return usuario.withVersion(usuario.version() + 1);
         } catch (SQLException e) {
             throw new ServiceException("Error al actualizar usuario: " + e.getMessage());
         }
@@ -113,14 +162,35 @@ public class DAOUsuario {
      * @throws ServiceException if there is an error during the deletion.
      */
     public void delete(DTOUsuario usuario) throws ServiceException {
-        try (PreparedStatement pst = conexion.prepareStatement(DELETE)) {
-            pst.setInt(1, usuario.getId());
+        try (Connection conexion = ConnectionPool.borrow();
+             PreparedStatement pst = conexion.prepareStatement(DELETE)) {
+            pst.setInt(1, usuario.id());
             pst.executeUpdate();
         } catch (SQLException e) {
             throw new ServiceException("Error al eliminar usuario: " + e.getMessage());
         }
     }
 
+    /**
+     * Gets the write metrics of this DAO.
+     *
+     * @return the write metrics
+     */
+    public WriteMetrics getWriteMetrics() {
+        return writeMetrics;
+    }
+
+    /**
+     * Gets the canonical instance of a name, so rows read elsewhere (e.g. from a local snapshot)
+     * share it with the rows read from the database.
+     *
+     * @param nombre the name, may be null
+     * @return the pooled instance
+     */
+    public static String internNombre(String nombre) {
+        return NOMBRES.intern(nombre);
+    }
+
     /**
      * Converts a ResultSet row into a DTOUsuario object.
      *
@@ -130,10 +200,8 @@ public class DAOUsuario {
      */
     private DTOUsuario getUsuario(ResultSet rs) throws ServiceException {
         try {
-            String nombre = rs.getString("nombre");
-            DTOUsuario usuario = new DTOUsuario(nombre);
-            usuario.setId(rs.getInt("id")); // Assign the ID from the database
-            return usuario;
+            String nombre = NOMBRES.intern(rs.getString("nombre"));
+            return new DTOUsuario(rs.getInt("id"), nombre, rs.getInt("version")); // ID assigned by the database
         } catch (SQLException e) {
             throw new ServiceException("Error al leer ResultSet: " + e.getMessage());
         }
@@ -1,57 +1,54 @@
 package usuario;
 
 /**
- * The type DTOUsuario class encapsulate the details for the usuario (User) entity.
+ * The type DTOUsuario record encapsulate the details for the usuario (User) entity.
+ * It is immutable, so cached users can be shared between threads; changes build a copy
+ * with the {@code with} methods, which the services store in place of the previous one.
  *
- * @version 1.1
+ * @param id      the id, 0 for a user not stored yet
+ * @param nombre  the name
+ * @param version the row version used for optimistic concurrency
+ * @version 2.0
  */
-public class DTOUsuario {
-    private Integer id;
-    private String nombre;
+public record DTOUsuario(int id, String nombre, int version) {
 
     /**
-     * Instantiates a new Dto usuario (User).
+     * Instantiates a new Dto usuario (User) not stored yet.
      *
      * @param nombre the name
      */
     public DTOUsuario(String nombre) {
-        this.nombre = nombre;
+        this(0, nombre, 0);
     }
 
     /**
-     * Gets id.
-     *
-     * @return the id
-     */
-    public Integer getId() {
-        return id;
-    }
-
-    /**
-     * Sets id.
+     * Copies the user with the id assigned by the database.
      *
      * @param id the id
+     * @return the copy
      */
-    public void setId(Integer id) {
-        this.id = id;
+    public DTOUsuario withId(int id) {
+        return new DTOUsuario(id, nombre, version);
     }
 
     /**
-     * Gets nombre.
+     * Copies the user with another name.
      *
-     * @return the name
+     * @param nombre the name
+     * @return the copy
      */
-    public String getNombre() {
-        return nombre;
+    public DTOUsuario withNombre(String nombre) {
+        return new DTOUsuario(id, nombre, version);
     }
 
     /**
-     * Sets nombre.
+     * Copies the user with another row version.
      *
-     * @param nombre the name
+     * @param version the row version
+     * @return the copy
      */
-    public void setNombre(String nombre) {
-        this.nombre = nombre;
+    public DTOUsuario withVersion(int version) {
+        return new DTOUsuario(id, nombre, version);
     }
 
     /**
@@ -64,5 +61,4 @@ public class DTOUsuario {
         return "ID: " + id + "\n" +
                 "Nombre: " + nombre;
     }
-
 }
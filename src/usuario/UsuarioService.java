@@ -1,18 +1,44 @@
 package usuario;
 
+import cache.BoundedEntityCache;
+import cache.CacheStats;
+import cache.EntityCache;
+import cache.FullEntityCache;
+import cache.ReadThroughCache;
+import exception.ConcurrencyException;
 import exception.ServiceException;
+import jdbc.WriteMetrics;
+import search.PrefixIndex;
+import search.Suggestion;
+import search.TrigramIndex;
+import util.LockStripes;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service class for managing users (usuarios).
  * Provides methods for creating, reading, updating, and deleting users.
+ * <p>
+ * Safe for concurrent use: the caches and indexes can be read from any thread, and the changes
+ * of a user, local or applied from the change log, are serialized by a lock striped by id.
  *
- * @version 1.1
+ * @version 1.5
  */
 public class UsuarioService {
-    private List<DTOUsuario> usuariosInMemory;
+    private static final Duration READ_TTL = Duration.ofSeconds(30);
+    private static final double FUZZY_THRESHOLD = 0.3;
+    private static final int LOCK_STRIPES = 64;
+    private EntityCache<DTOUsuario> usuariosInMemory;
     private DAOUsuario daoUsuario;
+    private ReadThroughCache<DTOUsuario> usuariosReadCache;
+    private TrigramIndex nombreTrigrams = new TrigramIndex(FUZZY_THRESHOLD);
+    private PrefixIndex nombrePrefixes = new PrefixIndex();
+    private final LockStripes usuarioLocks = new LockStripes(LOCK_STRIPES); // Serializes the changes of each user
 
     /**
      * Initializes a new instance of UsuarioService.
@@ -21,8 +47,49 @@ public class UsuarioService {
      * @throws ServiceException if there is an error while reading users from the data source
      */
     public UsuarioService() throws ServiceException {
+        this(new DAOUsuario().readAll());
+    }
+
+    /**
+     * Initializes a new instance of UsuarioService with users already read, e.g. from a local snapshot.
+     *
+     * @param usuarios every user
+     */
+    public UsuarioService(List<DTOUsuario> usuarios) {
         daoUsuario = new DAOUsuario();
-        usuariosInMemory = daoUsuario.readAll();
+        usuariosReadCache = new ReadThroughCache<>(READ_TTL, daoUsuario::read);
+        usuariosInMemory = new FullEntityCache<>(usuarios, DTOUsuario::id);
+        for (DTOUsuario usuario : usuariosInMemory.values()) {
+            nombreTrigrams.put(usuario.id(), usuario.nombre());
+            nombrePrefixes.put(usuario.id(), usuario.nombre());
+        }
+    }
+
+    /**
+     * Initializes a new instance of UsuarioService with a bounded cache that keeps only the most
+     * frequently used users in memory and reads the rest from the data source on demand.
+     * The name indexes still cover all the users, built by streaming them once.
+     *
+     * @param cacheSize the maximum number of users kept in memory
+     * @throws ServiceException if there is an error while building the name indexes
+     */
+    public UsuarioService(int cacheSize) throws ServiceException {
+        daoUsuario = new DAOUsuario();
+        usuariosReadCache = new ReadThroughCache<>(READ_TTL, daoUsuario::read);
+        usuariosInMemory = new BoundedEntityCache<>(cacheSize, daoUsuario::read); // Read-through, no full load
+        daoUsuario.readAll(usuario -> { // Only the name trigrams and prefixes are kept
+            nombreTrigrams.put(usuario.id(), usuario.nombre());
+            nombrePrefixes.put(usuario.id(), usuario.nombre());
+        });
+    }
+
+    /**
+     * Gets the users held in memory, e.g. to write a snapshot of the cache.
+     *
+     * @return the cached users; every user if the cache is complete
+     */
+    public Collection<DTOUsuario> getCachedUsuarios() {
+        return usuariosInMemory.values();
     }
 
     /**
@@ -33,8 +100,11 @@ public class UsuarioService {
      */
     public void createUsuario(String nombre) throws ServiceException {
         DTOUsuario dtoUsuario = new DTOUsuario(nombre);
-        daoUsuario.create(dtoUsuario);
-        usuariosInMemory.add(dtoUsuario);
+        dtoUsuario = daoUsuario.create(dtoUsuario); // The stored copy carries the generated ID
+        usuariosInMemory.put(dtoUsuario.id(), dtoUsuario);
+        nombreTrigrams.put(dtoUsuario.id(), dtoUsuario.nombre());
+        nombrePrefixes.put(dtoUsuario.id(), dtoUsuario.nombre());
+        usuariosReadCache.invalidate(dtoUsuario.id()); // Drop a cached "not found"
     }
 
     /**
@@ -45,7 +115,7 @@ public class UsuarioService {
      * @throws ServiceException if the user does not exist
      */
     public DTOUsuario readUsuario(Integer id) throws ServiceException {
-        return daoUsuario.read(id);
+        return usuariosReadCache.get(id); // Read-through, only queries the database on a miss or after the TTL
     }
 
     /**
@@ -56,15 +126,31 @@ public class UsuarioService {
      * @throws ServiceException if the user does not exist
      */
     public void updateUsuario(Integer id, String nombre) throws ServiceException {
-        DTOUsuario dtoUsuario = findUsuarioById(id);
-        if (dtoUsuario != null) {
-            if (nombre != null && !nombre.isBlank() && !nombre.isEmpty()) {
-                dtoUsuario.setNombre(nombre);
+        ReentrantLock lock = usuarioLocks.get(id);
+        lock.lock();
+        try {
+            DTOUsuario dtoUsuario = lookupUsuario(id).orElse(null);
+            if (dtoUsuario != null) {
+                DTOUsuario nuevo = dtoUsuario;
+                if (nombre != null && !nombre.isBlank() && !nombre.isEmpty()) {
+                    nuevo = nuevo.withNombre(nombre);
+                }
+                try {
+                    nuevo = daoUsuario.update(dtoUsuario, nuevo); // Only written if the name changed
+                } catch (ConcurrencyException e) {
+                    refreshUsuario(dtoUsuario); // Drop the stale copy and reload only this user
+                    throw new ConcurrencyException("El usuario ha sido modificado por otro usuario; se han recargado sus datos");
+                }
+                dtoUsuario = nuevo; // The cached copy is only replaced once the row is written
+                usuariosInMemory.put(dtoUsuario.id(), dtoUsuario);
+                nombreTrigrams.put(dtoUsuario.id(), dtoUsuario.nombre());
+                nombrePrefixes.put(dtoUsuario.id(), dtoUsuario.nombre());
+                usuariosReadCache.invalidate(dtoUsuario.id());
+            } else {
+                throw new ServiceException("El usuario que intentas actualizar no existe", false);
             }
-            dtoUsuario.setNombre(nombre);
-            daoUsuario.update(dtoUsuario);
-        } else {
-            throw new ServiceException("El usuario que intentas actualizar no existe");
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -75,15 +161,36 @@ public class UsuarioService {
      * @throws ServiceException if the user does not exist
      */
     public void deleteUsuario(Integer id) throws ServiceException {
-        DTOUsuario dtoUsuario = findUsuarioById(id);
-        if (dtoUsuario != null) {
-            daoUsuario.delete(dtoUsuario);
-            usuariosInMemory.remove(dtoUsuario);
-        } else {
-            throw new ServiceException("El usuario que intentas eliminar no existe");
+        ReentrantLock lock = usuarioLocks.get(id);
+        lock.lock();
+        try {
+            DTOUsuario dtoUsuario = lookupUsuario(id).orElse(null);
+            if (dtoUsuario != null) {
+                daoUsuario.delete(dtoUsuario);
+                usuariosInMemory.remove(dtoUsuario.id());
+                nombreTrigrams.remove(dtoUsuario.id());
+                nombrePrefixes.remove(dtoUsuario.id());
+                usuariosReadCache.invalidate(dtoUsuario.id());
+            } else {
+                throw new ServiceException("El usuario que intentas eliminar no existe", false);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Looks up a user by ID, for callers that expect it may not exist: a missing user is not an error,
+     * so no exception is built.
+     *
+     * @param id the ID of the user
+     * @return the user, or empty if it does not exist
+     * @throws ServiceException if there is an error while reading the user
+     */
+    public Optional<DTOUsuario> lookupUsuario(int id) throws ServiceException {
+        return Optional.ofNullable(usuariosInMemory.get(id));
+    }
+
     /**
      * Finds a user by their ID.
      *
@@ -92,11 +199,112 @@ public class UsuarioService {
      * @throws ServiceException if the user is not found
      */
     public DTOUsuario findUsuarioById(Integer id) throws ServiceException {
-        for (DTOUsuario dtoUsuario : usuariosInMemory) {
-            if (dtoUsuario.getId().equals(id)) {
-                return dtoUsuario;
+        return lookupUsuario(id).orElseThrow(() -> new ServiceException("Usuario no encontrado", false));
+    }
+
+    /**
+     * Finds the users whose name is similar to a text, tolerating typos and missing accents.
+     *
+     * @param texto the approximate name
+     * @param limite the maximum number of users returned
+     * @return the similar users, most similar first, which may be empty
+     * @throws ServiceException if there is an error while reading the users
+     */
+    public List<DTOUsuario> findSimilarUsuarios(String texto, int limite) throws ServiceException {
+        List<DTOUsuario> usuarios = new ArrayList<>();
+        for (int id : nombreTrigrams.search(texto, limite)) {
+            DTOUsuario dtoUsuario = usuariosInMemory.get(id);
+            if (dtoUsuario != null) {
+                usuarios.add(dtoUsuario);
+            }
+        }
+        return usuarios;
+    }
+
+    /**
+     * Suggests completions for the beginning of a name, or of any of its words, for autocomplete.
+     * It only uses the name index, so it can be called from background threads.
+     *
+     * @param prefijo the text typed so far
+     * @param limite the maximum number of suggestions
+     * @return the ids and names of the matching users, in alphabetical order
+     */
+    public List<Suggestion> suggestUsuarios(String prefijo, int limite) {
+        return nombrePrefixes.complete(prefijo, limite);
+    }
+
+    /**
+     * Gets the write metrics for user updates, including the updates skipped because nothing changed.
+     *
+     * @return the write metrics
+     */
+    public WriteMetrics getWriteMetrics() {
+        return daoUsuario.getWriteMetrics();
+    }
+
+    /**
+     * Gets the statistics of the user cache (hit ratio and evictions).
+     *
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats() {
+        return usuariosInMemory.getStats();
+    }
+
+    /**
+     * Applies a change read from the database change log to the in-memory cache.
+     * Changes already reflected in memory (same version) are ignored, and a bounded cache
+     * does not load entities that are not in its hot set.
+     *
+     * @param id     The ID of the changed user.
+     * @param actual The current state of the user in the database, or null if it was deleted.
+     */
+    public void applyUsuarioChange(int id, DTOUsuario actual) {
+        ReentrantLock lock = usuarioLocks.get(id);
+        lock.lock();
+        try {
+            usuariosReadCache.invalidate(id);
+            DTOUsuario cached = usuariosInMemory.peek(id);
+            if (actual == null) {
+                usuariosInMemory.remove(id);
+                nombreTrigrams.remove(id);
+                nombrePrefixes.remove(id);
+            } else {
+                if (cached != null ? cached.version() != actual.version() : usuariosInMemory.isComplete()) {
+                    usuariosInMemory.put(id, actual); // Updated, or created by another instance
+                }
+                nombreTrigrams.put(id, actual.nombre()); // Indexed even if not cached, the indexes cover all users
+                nombrePrefixes.put(id, actual.nombre());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces a stale user in memory with its current state in the database,
+     * or removes it if it no longer exists.
+     *
+     * @param stale the outdated in-memory user
+     * @throws ServiceException if an error occurs while reading the user
+     */
+    private void refreshUsuario(DTOUsuario stale) throws ServiceException {
+        ReentrantLock lock = usuarioLocks.get(stale.id());
+        lock.lock();
+        try {
+            usuariosReadCache.invalidate(stale.id());
+            DTOUsuario actual = daoUsuario.read(stale.id());
+            if (actual == null) {
+                usuariosInMemory.remove(stale.id());
+                nombreTrigrams.remove(stale.id());
+                nombrePrefixes.remove(stale.id());
+            } else {
+                usuariosInMemory.put(actual.id(), actual);
+                nombreTrigrams.put(actual.id(), actual.nombre());
+                nombrePrefixes.put(actual.id(), actual.nombre());
             }
+        } finally {
+            lock.unlock();
         }
-        throw new ServiceException("Usuario no encontrado");
     }
 }
@@ -0,0 +1,483 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints in the style of Roaring bitmaps. Values are grouped by their
+ * high 16 bits; each group is stored either as a sorted array of its low 16 bits (up to 4096 values,
+ * 2 bytes each) or as a 65536-bit bitmap (8 KB), whichever is smaller, so sparse and dense sets
+ * are both compact and unions and differences of dense groups work on whole 64-bit words.
+ *
+ * @version 1.0
+ */
+public class IntBitmap {
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, not negative
+     */
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = find(key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new ArrayContainer());
+        }
+        containers[index] = containers[index].add((char) value);
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value the value
+     */
+    public void remove(int value) {
+        int index = find((char) (value >>> 16));
+        if (index >= 0) {
+            containers[index] = containers[index].remove((char) value);
+            if (containers[index].cardinality() == 0) {
+                delete(index);
+            }
+        }
+    }
+
+    /**
+     * Checks if a value is in the set.
+     *
+     * @param value the value
+     * @return true if the value is in the set
+     */
+    public boolean contains(int value) {
+        int index = find((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * Gets the number of values.
+     *
+     * @return the number of values
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Checks if the set is empty.
+     *
+     * @return true if there are no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds all the values of another set to this one.
+     *
+     * @param other the other set
+     */
+    public void or(IntBitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            int index = find(other.keys[j]);
+            if (index < 0) {
+                insert(-index - 1, other.keys[j], other.containers[j].copy());
+            } else {
+                containers[index] = containers[index].or(other.containers[j]);
+            }
+        }
+    }
+
+    /**
+     * Removes from this set all the values of another set.
+     *
+     * @param other the other set
+     */
+    public void andNot(IntBitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            int index = find(other.keys[j]);
+            if (index >= 0) {
+                containers[index] = containers[index].andNot(other.containers[j]);
+                if (containers[index].cardinality() == 0) {
+                    delete(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes every value to a consumer, in increasing order.
+     *
+     * @param consumer receives each value
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * Gets the values as an array.
+     *
+     * @return the values, in increasing order
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int[] n = {0};
+        forEach(value -> values[n[0]++] = value);
+        return values;
+    }
+
+    /**
+     * Creates an independent copy of the set.
+     *
+     * @return the copy
+     */
+    public IntBitmap copy() {
+        IntBitmap copy = new IntBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(size, 4));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Finds the container of a group.
+     *
+     * @param key the high 16 bits
+     * @return the index, or (-(insertion point) - 1) if the group has no container
+     */
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    /**
+     * Inserts a container keeping the groups in order.
+     *
+     * @param index     the insertion point
+     * @param key       the high 16 bits
+     * @param container the container
+     */
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    /**
+     * Deletes an empty container.
+     *
+     * @param index the container index
+     */
+    private void delete(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        containers[--size] = null;
+    }
+
+    /**
+     * Values of a group, the low 16 bits of each value. Operations return the container to keep,
+     * which may be a different kind when the cardinality crosses the array limit.
+     */
+    private abstract static class Container {
+        static final int ARRAY_LIMIT = 4096;
+
+        /**
+         * Adds a value.
+         *
+         * @param value the low 16 bits
+         * @return the container to keep
+         */
+        abstract Container add(char value);
+
+        /**
+         * Removes a value.
+         *
+         * @param value the low 16 bits
+         * @return the container to keep
+         */
+        abstract Container remove(char value);
+
+        /**
+         * Checks if a value is in the container.
+         *
+         * @param value the low 16 bits
+         * @return true if the value is in the container
+         */
+        abstract boolean contains(char value);
+
+        /**
+         * Gets the number of values.
+         *
+         * @return the number of values
+         */
+        abstract int cardinality();
+
+        /**
+         * Adds the values of another container of the same group.
+         *
+         * @param other the other container, not modified
+         * @return the container to keep
+         */
+        abstract Container or(Container other);
+
+        /**
+         * Removes the values of another container of the same group.
+         *
+         * @param other the other container, not modified
+         * @return the container to keep
+         */
+        abstract Container andNot(Container other);
+
+        /**
+         * Passes every value to a consumer, in increasing order.
+         *
+         * @param high     the high 16 bits of the group, already shifted
+         * @param consumer receives each full value
+         */
+        abstract void forEach(int high, IntConsumer consumer);
+
+        /**
+         * Creates an independent copy of the container.
+         *
+         * @return the copy
+         */
+        abstract Container copy();
+
+        /**
+         * Converts the container to a bitmap.
+         *
+         * @return a bitmap container with the same values
+         */
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            forEach(0, value -> bitmap.add((char) value));
+            return bitmap;
+        }
+    }
+
+    /**
+     * Sorted array of up to 4096 values.
+     */
+    private static final class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int cardinality;
+
+        @Override
+        Container add(char value) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            pos = -pos - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_LIMIT));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, value);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer bitmap) {
+                return bitmap.copy().or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_LIMIT) {
+                return toBitmap().or(array);
+            }
+            // Merge the two sorted arrays
+            char[] merged = new char[cardinality + array.cardinality];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    merged[n++] = values[i++];
+                } else if (i == cardinality || array.values[j] < values[i]) {
+                    merged[n++] = array.values[j++];
+                } else {
+                    merged[n++] = values[i++];
+                    j++;
+                }
+            }
+            values = merged;
+            cardinality = n;
+            return this;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    values[n++] = values[i];
+                }
+            }
+            cardinality = n;
+            return this;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < cardinality; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = Arrays.copyOf(values, Math.max(cardinality, 4));
+            copy.cardinality = cardinality;
+            return copy;
+        }
+    }
+
+    /**
+     * Bitmap of the 65536 possible values, for groups with more than 4096 values.
+     */
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int cardinality;
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) != 0) {
+                words[value >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return cardinality <= ARRAY_LIMIT ? toArrayContainer() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer bitmap) {
+                int count = 0;
+                for (int i = 0; i < words.length; i++) {
+                    words[i] |= bitmap.words[i];
+                    count += Long.bitCount(words[i]);
+                }
+                cardinality = count;
+            } else {
+                other.forEach(0, value -> add((char) value));
+            }
+            return this;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            if (other instanceof BitmapContainer bitmap) {
+                int count = 0;
+                for (int i = 0; i < words.length; i++) {
+                    words[i] &= ~bitmap.words[i];
+                    count += Long.bitCount(words[i]);
+                }
+                cardinality = count;
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    char value = array.values[i];
+                    if (contains(value)) {
+                        words[value >>> 6] &= ~(1L << value);
+                        cardinality--;
+                    }
+                }
+            }
+            return cardinality <= ARRAY_LIMIT ? toArrayContainer() : this;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(high | (i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        /**
+         * Converts the bitmap to a sorted array, once it has few values.
+         *
+         * @return an array container with the same values
+         */
+        private ArrayContainer toArrayContainer() {
+            ArrayContainer array = new ArrayContainer();
+            array.values = new char[Math.max(cardinality, 4)];
+            forEach(0, value -> array.values[array.cardinality++] = (char) value);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package util;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared by ids (lock striping). The lock of an id is picked by its hash, so
+ * operations on different ids rarely wait for each other, with a bounded number of locks however
+ * many ids there are. Two ids that share a stripe are serialized, which is safe, only slower.
+ *
+ * @version 1.0
+ */
+public class LockStripes {
+    private final ReentrantLock[] locks;
+
+    /**
+     * Instantiates a new set of locks.
+     *
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    public LockStripes(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Gets the lock of an id.
+     *
+     * @param id the id
+     * @return the lock shared by the ids of its stripe
+     */
+    public ReentrantLock get(int id) {
+        return locks[stripe(id)];
+    }
+
+    /**
+     * Locks the stripes of two ids, always in stripe order so that two threads locking the same
+     * pair in opposite order cannot deadlock. The stripe is locked once if both ids share it.
+     *
+     * @param a the first id
+     * @param b the second id
+     */
+    public void lockBoth(int a, int b) {
+        int first = Math.min(stripe(a), stripe(b));
+        int second = Math.max(stripe(a), stripe(b));
+        locks[first].lock();
+        if (second != first) {
+            locks[second].lock();
+        }
+    }
+
+    /**
+     * Unlocks the stripes locked by {@link #lockBoth}.
+     *
+     * @param a the first id
+     * @param b the second id
+     */
+    public void unlockBoth(int a, int b) {
+        int first = Math.min(stripe(a), stripe(b));
+        int second = Math.max(stripe(a), stripe(b));
+        if (second != first) {
+            locks[second].unlock();
+        }
+        locks[first].unlock();
+    }
+
+    /**
+     * Gets the stripe of an id. Consecutive ids land in different stripes.
+     *
+     * @param id the id
+     * @return the index of its lock
+     */
+    private int stripe(int id) {
+        int hash = id * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (locks.length - 1);
+    }
+}
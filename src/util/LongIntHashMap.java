@@ -0,0 +1,160 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to int values backed by two primitive arrays (open addressing with
+ * linear probing), so entries cost 12 bytes per slot instead of a boxed Long, a boxed Integer
+ * and a map node. The key 0 is reserved to mark empty slots.
+ *
+ * @version 1.0
+ */
+public class LongIntHashMap {
+    private static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Instantiates a new map.
+     *
+     * @param expectedSize the expected number of entries
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key, not 0
+     * @return the value, or -1 if the key is not present
+     */
+    public int get(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            if (keys[slot] == 0) {
+                return MISSING;
+            }
+        }
+    }
+
+    /**
+     * Checks if a key is present.
+     *
+     * @param key the key, not 0
+     * @return true if the key is present
+     */
+    public boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * Adds or replaces the value of a key.
+     *
+     * @param key   the key, not 0
+     * @param value the value, not -1
+     */
+    public void put(long key, int value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("La clave 0 está reservada");
+        }
+        int slot = slotOf(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            if (++size * 2 > keys.length) {
+                rehash(keys.length * 2);
+                put(key, value);
+                return;
+            }
+            keys[slot] = key;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key, not 0
+     * @return the removed value, or -1 if the key was not present
+     */
+    public int remove(long key) {
+        int slot = slotOf(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) {
+                return MISSING;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int removed = values[slot];
+        // Shift back the following entries of the probe sequence, so no tombstones are needed
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    /**
+     * Gets the home slot of a key.
+     *
+     * @param key the key
+     * @return the slot index
+     */
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Moves every entry to new arrays of the given capacity.
+     *
+     * @param capacity the new capacity, a power of two
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package util;
+
+/**
+ * Pool of canonical string instances, so equal values read from different rows (a title shared by
+ * several editions, a frequent author or user name) share one String instead of each holding its
+ * own copy. Backed by an open-addressing table of references with linear probing.
+ * <p>
+ * The pool is bounded: when it reaches its maximum size it starts over, so values that are no longer
+ * used (e.g. deleted rows) are not kept forever. Strings already handed out stay valid.
+ * Thread-safe, since the same pool is used by the readers of every instance of a DAO.
+ *
+ * @version 1.0
+ */
+public class StringPool {
+    private final int maxSize;
+    private String[] table;
+    private int size;
+    private long hits;
+
+    /**
+     * Instantiates a new pool.
+     *
+     * @param maxSize the maximum number of distinct values kept
+     */
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+        this.table = new String[64];
+    }
+
+    /**
+     * Gets the canonical instance of a value, adding it if it is not pooled yet.
+     *
+     * @param value the value, may be null
+     * @return the pooled instance equal to the value, or null
+     */
+    public synchronized String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        int mask = table.length - 1;
+        for (int slot = spread(value.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            String pooled = table[slot];
+            if (pooled == null) {
+                break;
+            }
+            if (pooled.equals(value)) {
+                hits++;
+                return pooled;
+            }
+        }
+        if (size >= maxSize) {
+            table = new String[64]; // Start over rather than grow without bound
+            size = 0;
+        } else if ((size + 1) * 2 > table.length) {
+            resize();
+        }
+        insert(table, value);
+        size++;
+        return value;
+    }
+
+    /**
+     * Gets the number of pooled values.
+     *
+     * @return the number of distinct values
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of values that were replaced by an existing instance.
+     *
+     * @return the number of duplicates removed
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Doubles the table, keeping it at most half full.
+     */
+    private void resize() {
+        String[] resized = new String[table.length * 2];
+        for (String pooled : table) {
+            if (pooled != null) {
+                insert(resized, pooled);
+            }
+        }
+        table = resized;
+    }
+
+    /**
+     * Inserts a value in the first free slot of its probe sequence.
+     *
+     * @param target the table
+     * @param value  the value
+     */
+    private static void insert(String[] target, String value) {
+        int mask = target.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while (target[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        target[slot] = value;
+    }
+
+    /**
+     * Mixes the bits of a hash code, since string hashes of similar values differ in the low bits only.
+     *
+     * @param hash the hash code
+     * @return the mixed hash
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}